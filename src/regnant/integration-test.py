@@ -1,6 +1,9 @@
 #!/bin/python
 
+import atexit
 import os
+import re
+import shutil
 import subprocess
 import sys
 import tempfile
@@ -8,23 +11,69 @@ import yaml
 
 this_dir = os.path.realpath(os.path.dirname(sys.argv[0]))
 
+# with --batch, every test is translated by one regnant process over the points to analysis of all tests; the layouts
+# (and runtime tags, live fields, etc.) then differ from those of regnant.py on a single test, so this is opt-in
+batch = "--batch" in sys.argv[1:]
+jdk8 = [a for a in sys.argv[1:] if a != "--batch"][0]
+
 subprocess.check_call([os.path.join(this_dir, "gradlew"), "--console", "plain", "installDist", "integrationJar"], cwd = this_dir)
 
 integration = os.path.join(this_dir, "build/libs/integration.jar")
 reg_script = os.path.join(this_dir, "regnant.py")
 
-with tempfile.NamedTemporaryFile(delete = True) as t:
-    subprocess.check_call([os.path.join(this_dir, "build/install/regnant/bin/generateWork"),
-                           os.path.join(this_dir, "build/libs/integration.jar"), t.name])
+work_dir = tempfile.mkdtemp()
+atexit.register(lambda: shutil.rmtree(work_dir))
+
+manifest = os.path.join(work_dir, "work.yml")
+flag_file = os.path.join(work_dir, "flags.yml")
+subprocess.check_call([os.path.join(this_dir, "build/install/regnant/bin/generateWork"),
+                       os.path.join(this_dir, "build/libs/integration.jar"), manifest, flag_file])
+with open(manifest) as t:
     worklist = yaml.load(t)
+# the regnant.py flags of the tests annotated with RegnantFlags
+with open(flag_file) as t:
+    test_flags = yaml.load(t) or {}
+
+if batch:
+    # a test the batch fails to translate has no output, and fails below
+    with open("/dev/null", "w") as out:
+        subprocess.call([
+            os.path.join(this_dir, "build/install/regnant/bin/regnant"), "--batch",
+            manifest, work_dir, integration, os.path.join(jdk8, "jre/lib/rt.jar")
+        ], stdout = out, stderr = subprocess.STDOUT)
+
+# the widest tuple allocated by the translation of an integration test with the given layout
+def widest_tuple(k, layout):
+    out_dir = os.path.join(work_dir, "layout-" + layout)
+    os.makedirs(out_dir)
+    imp = os.path.join(out_dir, "mono.imp")
+    with open("/dev/null", "w") as out:
+        subprocess.check_call([
+            os.path.join(this_dir, "build/install/regnant/bin/regnant"),
+            "-f", "n", "-no-bodies-for-excluded", "-w", "-p", "cg.spark", "on",
+            "-soot-class-path", integration + ":" + os.path.join(jdk8, "jre/lib/rt.jar"),
+            "-p", "wjtp.regnant", "enabled:true,output:%s,flags:%s,layout:%s" % (imp, os.path.join(out_dir, "control.sexp"), layout),
+            k
+        ], stdout = out, stderr = subprocess.STDOUT)
+    with open(imp) as f:
+        return max(len(t.split(",")) for t in re.findall(r"mkref \(([^()]*)\)", f.read()))
+
+if widest_tuple("PreciseLayout", "precise") >= widest_tuple("PreciseLayout", "merged"):
+    print "The precise layout of PreciseLayout is not narrower than the merged one"
+    sys.exit(1)
 
 for (k,v) in worklist.iteritems():
     with open("/dev/null", "w") as out:
         print "Testing",k
+        # the batch translates with the default flags, so the tests with flags of their own are translated on their own
+        if batch and k not in test_flags:
+            translation = ["--skip-translation", "--work-dir=" + os.path.join(work_dir, k)]
+        else:
+            translation = test_flags.get(k, [])
         ret = subprocess.call([
            reg_script, "--jar=" + integration,
-           "--skip-build",
-            sys.argv[1], k
+           "--skip-build"] + translation + [
+            jdk8, k
         ], stdout = out, stderr = subprocess.STDOUT)
         if (ret != 0) != v:
             print "Unexpected result for",k
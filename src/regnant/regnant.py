@@ -19,6 +19,17 @@ def run_silently(cmd, **kwargs):
         e = time.time()
         return e - s
 
+def run_on_server(port, request):
+    import socket
+    s = time.time()
+    with socket.create_connection(("127.0.0.1", port)) as sock:
+        sock.sendall((" ".join(request) + "\n").encode("utf-8"))
+        sock.shutdown(socket.SHUT_WR)
+        resp = sock.makefile("r").readline().strip()
+    if resp != "ok":
+        raise RuntimeError("translation server: " + resp)
+    return time.time() - s
+
 def print_done(args, e):
     if args.timing:
         print("done (in %.02f)" % e)
@@ -31,9 +42,22 @@ def main(this_dir, args):
     parser.add_argument("--verbose", action="store_true")
     parser.add_argument("--jar")
     parser.add_argument("--skip-build", action="store_true", default = False)
+    parser.add_argument("--skip-translation", action="store_true", default = False)
     parser.add_argument("--debug-trans", action="store_true", default = False)
     parser.add_argument("--functional", action="store_true", default = False)
+    parser.add_argument("--hybrid", action="store_true", default = False)
     parser.add_argument("--timing", action="store_true")
+    parser.add_argument("--threads", type=int, default = 1)
+    parser.add_argument("--server-port", type=int)
+    parser.add_argument("--cache-dir")
+    parser.add_argument("--metrics")
+    parser.add_argument("--snapshot-dir")
+    parser.add_argument("--inline", type=int)
+    parser.add_argument("--optimize")
+    parser.add_argument("--duplicate", type=int)
+    parser.add_argument("--layout", choices = ["merged", "precise"], default = "merged")
+    parser.add_argument("--fields", choices = ["all", "live"], default = "all")
+    parser.add_argument("--analysis", choices = ["cha", "rta", "spark", "spark-full", "auto"], default = "spark")
     parser.add_argument("--src-dir")
     parser.add_argument("--yaml")
     parser.add_argument("jdk8")
@@ -41,7 +65,7 @@ def main(this_dir, args):
     parser.add_argument("consort_args", nargs="*")
     args = parser.parse_args(args)
     cls = args.entry_point
-    if args.src_dir is None and args.jar is None:
+    if args.src_dir is None and args.jar is None and not args.skip_translation:
         print("Need at least source or jar")
         return 1
 
@@ -57,7 +81,10 @@ def main(this_dir, args):
     else:
         work_dir = args.work_dir
 
-    if args.jar is None:
+    if args.skip_translation:
+        # the work dir already holds the output of a translation (e.g., from regnant --batch), nothing is compiled
+        cls_dir = work_dir
+    elif args.jar is None:
         assert args.src_dir is not None
         cls_dir = os.path.join(work_dir, "classes")
         if not os.path.exists(cls_dir):
@@ -81,11 +108,41 @@ def main(this_dir, args):
 
     if args.functional:
         regnant_options += ",model:functional"
+    elif args.hybrid:
+        regnant_options += ",model:hybrid"
+
+    if args.threads > 1:
+        regnant_options += ",threads:%d" % args.threads
+
+    if args.cache_dir is not None:
+        regnant_options += ",cache:%s" % os.path.abspath(args.cache_dir)
+
+    if args.metrics is not None:
+        regnant_options += ",metrics:%s" % os.path.abspath(args.metrics)
+
+    if args.inline is not None:
+        regnant_options += ",inline:%d" % args.inline
+
+    if args.optimize is not None:
+        regnant_options += ",optimize:%s" % args.optimize
+
+    if args.duplicate is not None:
+        regnant_options += ",duplicate:%d" % args.duplicate
+
+    if args.layout != "merged":
+        regnant_options += ",layout:%s" % args.layout
+
+    if args.fields != "all":
+        regnant_options += ",fields:%s" % args.fields
+
+    if args.analysis != "spark":
+        regnant_options += ",analysis:%s" % args.analysis
 
     run_script = os.path.join(this_dir, "build/install/regnant/bin/regnant")
 
     rt_path = os.path.join(args.jdk8, "jre/lib/rt.jar")
 
+    # the translation server and batch translation build the same soot arguments (see Regnant.sootArguments)
     regnant_command = [
         run_script,
         "-f", "n", # no output
@@ -97,14 +154,41 @@ def main(this_dir, args):
         "-p", "wjtp.regnant", regnant_options,
         cls # the class to run on
     ]
-
-    log_command(args, regnant_command)
-    if args.debug_trans:
-        return subprocess.call(regnant_command)
-    print("Translating java bytecode...", end=' ')
-    sys.stdout.flush()
-    el = run_silently(regnant_command)
-    print_done(args, el)
+    if args.snapshot_dir is not None:
+        regnant_command[1:1] = ["--snapshot", os.path.abspath(args.snapshot_dir)]
+    if args.analysis == "spark-full":
+        # analyze the JCL too, which also references classes outside of rt.jar
+        i = regnant_command.index("-no-bodies-for-excluded")
+        regnant_command[i] = "-allow-phantom-refs"
+        i = regnant_command.index("-soot-class-path")
+        regnant_command[i + 1] += ":" + os.path.join(args.jdk8, "jre/lib/jce.jar")
+    elif args.analysis != "spark":
+        # let soot build the call graph with CHA, regnant runs spark itself if it is needed
+        i = regnant_command.index("cg.spark")
+        del regnant_command[i - 1:i + 2]
+
+    if args.skip_translation:
+        pass
+    elif args.server_port is not None:
+        # the server keeps the JCL classes loaded, so the translation is only sent the paths (it derives the soot
+        # arguments above from the analysis option)
+        lib_path = rt_path
+        if args.analysis == "spark-full":
+            lib_path += ":" + os.path.join(args.jdk8, "jre/lib/jce.jar")
+        server_request = [cls_dir, lib_path, cls, regnant_options]
+        log_command(args, server_request)
+        print("Translating java bytecode (server)...", end=' ')
+        sys.stdout.flush()
+        el = run_on_server(args.server_port, server_request)
+        print_done(args, el)
+    else:
+        log_command(args, regnant_command)
+        if args.debug_trans:
+            return subprocess.call(regnant_command)
+        print("Translating java bytecode...", end=' ')
+        sys.stdout.flush()
+        el = run_silently(regnant_command)
+        print_done(args, el)
     
     print("Generating control flags...", end=' ')
     sys.stdout.flush()
@@ -0,0 +1,26 @@
+import annotation.RegnantFlags;
+
+/*
+  A write through the field of one parameter must not leave a stale projection of the other, when both are the same
+  object.
+ */
+public class AliasedFieldWrite {
+  public static class Box {
+    public int f;
+  }
+
+  public static void test(Box a, Box b) {
+    int x = a.f;
+    int z = b.f;
+    b.f = z + 1;
+    int y = a.f;
+    assert y == x + 1;
+  }
+
+  @RegnantFlags({"--optimize", "all"})
+  public static void main(String[] args) {
+    Box a = new Box();
+    a.f = 2;
+    test(a, a);
+  }
+}
@@ -0,0 +1,25 @@
+import annotation.RegnantFlags;
+
+/*
+  Objects stored by value are written as a whole tuple: a write through one parameter must not leave a stale projection
+  of the other, when both are the same object.
+ */
+public class AliasedTupleWrite {
+  public static class Box {
+    public int f;
+  }
+
+  public static void test(Box a, Box b) {
+    a.f = 1;
+    int x = a.f;
+    b.f = 3;
+    int y = a.f;
+    assert x == 1 && y == 3;
+  }
+
+  @RegnantFlags({"--functional", "--optimize", "all"})
+  public static void main(String[] args) {
+    Box a = new Box();
+    test(a, a);
+  }
+}
@@ -0,0 +1,37 @@
+import annotation.RegnantFlags;
+
+/*
+  Fields which are written but never read get no slot (with --fields live): their writes are dropped, including
+  those through an aliased receiver, while the live fields keep their values.
+ */
+public class DeadFields {
+  public static class Point {
+    public int x;
+    public int y;
+    public int writes;
+
+    public Point(int x, int y) {
+      this.x = x;
+      this.y = y;
+      this.writes = 2;
+    }
+  }
+
+  public static class Labelled extends Point {
+    public int label;
+
+    public Labelled(int x, int y, int label) {
+      super(x, y);
+      this.label = label;
+    }
+  }
+
+  @RegnantFlags({"--fields", "live"})
+  public static void main(String[] args) {
+    Point p = new Labelled(1, 2, 7);
+    Point q = p;
+    q.x = 5;
+    q.writes = q.x + 1;
+    assert p.x == 5 && p.y == 2;
+  }
+}
@@ -0,0 +1,55 @@
+import java.util.Random;
+
+/*
+  A virtual call with five possible receiver classes and four callees (Dog inherits the method of Animal), dispatched by
+  comparing the runtime tag of the receiver in a tree.
+ */
+public class DispatchTree {
+  public static class Animal {
+    // objects need a field
+    public int hack;
+
+    public int legs() {
+      return 4;
+    }
+  }
+
+  public static class Bird extends Animal {
+    @Override public int legs() {
+      return 2;
+    }
+  }
+
+  public static class Dog extends Animal {
+  }
+
+  public static class Snake extends Animal {
+    @Override public int legs() {
+      return 0;
+    }
+  }
+
+  public static class Spider extends Animal {
+    @Override public int legs() {
+      return 8;
+    }
+  }
+
+  public static void main(String[] args) {
+    int k = new Random().nextInt();
+    Animal a;
+    if(k == 0) {
+      a = new Bird();
+    } else if(k == 1) {
+      a = new Dog();
+    } else if(k == 2) {
+      a = new Snake();
+    } else if(k == 3) {
+      a = new Spider();
+    } else {
+      a = new Animal();
+    }
+    int l = a.legs();
+    assert l == 0 || l == 2 || l == 4 || l == 8;
+  }
+}
@@ -0,0 +1,17 @@
+import annotation.ExpectFail;
+import annotation.RegnantFlags;
+
+/*
+  The optimizer propagates and folds constants into these assertions: the first holds, the second fails, and its
+  failure must survive the folding.
+ */
+public class FoldedAssert {
+  @ExpectFail @RegnantFlags({"--optimize", "all"})
+  public static void main(String[] args) {
+    int x = 3;
+    int y = x * 2 + 1;
+    assert y == 7;
+    int z = y * 3;
+    assert z == 20;
+  }
+}
@@ -0,0 +1,38 @@
+import annotation.RegnantFlags;
+
+/*
+  Under the hybrid model, the id of an account (never written after construction) is stored by value, and its balance
+  (written after construction, and as often as there are fields) by reference. The constructor writes both, the balance
+  first, so the tuple holding the id is replaced after the balance is written through its reference.
+ */
+public class HybridFields {
+  public static class Account {
+    public final int id;
+    public int balance;
+
+    public Account(int id, int balance) {
+      this.balance = balance;
+      this.id = id;
+    }
+
+    public void deposit(int d) {
+      this.balance = this.balance + d;
+    }
+
+    public void withdraw(int d) {
+      this.balance = this.balance - d;
+    }
+  }
+
+  @RegnantFlags({"--hybrid", "--optimize", "all"})
+  public static void main(String[] args) {
+    Account a = new Account(1, 10);
+    Account b = a;
+    a.deposit(5);
+    b.withdraw(3);
+    assert a.balance == 12 && b.id == 1;
+    Account c = new Account(2, a.balance);
+    c.deposit(a.id);
+    assert c.balance == 13 && c.id == 2 && a.balance == 12;
+  }
+}
@@ -0,0 +1,44 @@
+import annotation.RegnantFlags;
+
+/*
+  Calls to leaves (a constructor, getters and setters), which are inlined into their callers, on aliased receivers and
+  arguments: the writes through one name must be seen through the others.
+ */
+public class InlinedLeaves {
+  public static class Counter {
+    public int count;
+
+    public Counter(int start) {
+      this.count = start;
+    }
+
+    public int get() {
+      return this.count;
+    }
+
+    public void set(int c) {
+      this.count = c;
+    }
+  }
+
+  // sets to one past the count of from, and doubles the latter; from and to may be the same counter
+  public static int transfer(Counter from, Counter to) {
+    to.set(from.get() + 1);
+    from.set(from.get() * 2);
+    return to.get();
+  }
+
+  @RegnantFlags({"--inline", "8"})
+  public static void main(String[] args) {
+    Counter c = new Counter(3);
+    Counter d = c;
+    d.set(4);
+    assert c.get() == 4;
+    c.set(c.get() + d.get());
+    assert d.get() == 8;
+
+    Counter e = new Counter(1);
+    assert transfer(e, c) == 2 && e.get() == 2 && c.get() == 2;
+    assert transfer(c, c) == 6 && c.get() == 6 && d.get() == 6;
+  }
+}
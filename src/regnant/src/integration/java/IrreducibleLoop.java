@@ -0,0 +1,11 @@
+import generated.Irreducible;
+
+/*
+  The methods of Irreducible are generated by GenerateIntegration
+ */
+public class IrreducibleLoop {
+  public static void main(String[] args) {
+    assert Irreducible.f(7) == 5 && Irreducible.f(0) == -1;
+    assert Irreducible.g(7) >= 100;
+  }
+}
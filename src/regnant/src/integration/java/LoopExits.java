@@ -0,0 +1,40 @@
+public class LoopExits {
+  /*
+    The loop is left by two breaks, two returns and a labelled break out of the inner loop; the exits with the same
+    continuation are tested by the same checks after the loop.
+   */
+  public static int steps(int n, int k) {
+    int s = 0;
+    int i = 0;
+    outer:
+    while(true) {
+      s += k;
+      i++;
+      if(s > n) {
+        break;
+      }
+      if(s == n) {
+        return i;
+      }
+      if(i > 50) {
+        break;
+      }
+      for(int j = 1; j < 3; j++) {
+        if(s + j == n) {
+          break outer;
+        }
+        if(s + j + k == n) {
+          return i + 1;
+        }
+      }
+    }
+    return 100 + i;
+  }
+
+  public static void main(String[] args) {
+    assert steps(12, 3) == 4;
+    assert steps(13, 5) == 103;
+    assert steps(14, 4) == 3;
+    assert steps(200, 1) == 151;
+  }
+}
@@ -0,0 +1,10 @@
+import generated.Conditionals;
+
+/*
+  Conditionals.f is generated by GenerateIntegration
+ */
+public class ManyConditionals {
+  public static void main(String[] args) {
+    assert Conditionals.f(7) == 3007;
+  }
+}
@@ -0,0 +1,52 @@
+import annotation.RegnantFlags;
+
+/*
+  Two unrelated subclasses of a class with a field, laid out with the precise layout. Their objects meet in the constructor
+  and a static method of the superclass, but no virtual call or cast looks at their runtime tags, so they get representations
+  of their own, with tuples of the same type: three fields rather than the four of the merged layout (integration-test.py
+  checks this), the fields of the subclasses sharing slots. The field of the superclass must be found in the same slot of
+  both, whether read through the subclass or the superclass (including in its constructor).
+ */
+public class PreciseLayout {
+  public static class Shape {
+    public int size;
+
+    public Shape(int size) {
+      this.size = size;
+    }
+  }
+
+  public static class Square extends Shape {
+    public int side;
+
+    public Square(int side) {
+      super(side * side);
+      this.side = side;
+    }
+  }
+
+  public static class Segment extends Shape {
+    public int start;
+    public int end;
+
+    public Segment(int start, int end) {
+      super(end - start);
+      this.start = start;
+      this.end = end;
+    }
+  }
+
+  public static int size(Shape s) {
+    return s.size;
+  }
+
+  @RegnantFlags({"--layout", "precise"})
+  public static void main(String[] args) {
+    Square q = new Square(3);
+    Segment g = new Segment(2, 7);
+    assert q.size == 9 && q.side == 3;
+    assert g.size == 5 && g.start == 2 && g.end == 7;
+    g.size = g.size + q.side;
+    assert size(q) == 9 && size(g) == 8;
+  }
+}
@@ -0,0 +1,108 @@
+import annotation.RegnantFlags;
+
+/*
+  Short circuit conditions reach a block from several branches: these gated joins are removed by tail duplication (with a
+  budget of 32 units), within the budget, unless they head a loop.
+ */
+public class TailDuplication {
+  // a gated join outside of loops
+  public static int clamp(int x, int lo, int hi) {
+    int r = x;
+    if(x < lo || x > hi) {
+      r = lo;
+    }
+    return r;
+  }
+
+  // a gated join within a loop
+  public static int count(int n) {
+    int c = 0;
+    for(int i = 0; i < n; i++) {
+      if(i < 2 || i > 5) {
+        c++;
+      }
+    }
+    return c;
+  }
+
+  // a loop header reached from both conditions, which is not duplicated
+  public static int loopAfter(int x, int y) {
+    int r = 0;
+    if(x > 0 || y > 0) {
+      while(r < x + y) {
+        r++;
+      }
+    }
+    return r;
+  }
+
+  // more joins than the budget of the method allows to duplicate
+  public static int joins(int x) {
+    int r = 0;
+    if(x < -9 || x > 9) {
+      r = r + 1;
+      r = r * 2;
+      r = r + 3;
+      r = r - 1;
+      r = r * 2;
+    }
+    if(x < -8 || x > 8) {
+      r = r + 1;
+      r = r * 2;
+      r = r + 3;
+      r = r - 1;
+      r = r * 2;
+    }
+    if(x < -7 || x > 7) {
+      r = r + 1;
+      r = r * 2;
+      r = r + 3;
+      r = r - 1;
+      r = r * 2;
+    }
+    if(x < -6 || x > 6) {
+      r = r + 1;
+      r = r * 2;
+      r = r + 3;
+      r = r - 1;
+      r = r * 2;
+    }
+    if(x < -5 || x > 5) {
+      r = r + 1;
+      r = r * 2;
+      r = r + 3;
+      r = r - 1;
+      r = r * 2;
+    }
+    if(x < -4 || x > 4) {
+      r = r + 1;
+      r = r * 2;
+      r = r + 3;
+      r = r - 1;
+      r = r * 2;
+    }
+    if(x < -3 || x > 3) {
+      r = r + 1;
+      r = r * 2;
+      r = r + 3;
+      r = r - 1;
+      r = r * 2;
+    }
+    if(x < -2 || x > 2) {
+      r = r + 1;
+      r = r * 2;
+      r = r + 3;
+      r = r - 1;
+      r = r * 2;
+    }
+    return r;
+  }
+
+  @RegnantFlags({"--duplicate", "32"})
+  public static void main(String[] args) {
+    assert clamp(3, 0, 5) == 3 && clamp(-1, 0, 5) == 0 && clamp(9, 0, 5) == 0;
+    assert count(8) == 4;
+    assert loopAfter(2, 0) == 2 && loopAfter(0, 0) == 0;
+    assert joins(0) == 0 && joins(4) == 40 && joins(10) == 174760;
+  }
+}
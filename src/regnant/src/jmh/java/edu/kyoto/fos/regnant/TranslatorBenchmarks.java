@@ -0,0 +1,204 @@
+package edu.kyoto.fos.regnant;
+
+import edu.kyoto.fos.regnant.aliasing.FieldAliasing;
+import edu.kyoto.fos.regnant.analysis.TypeAnalysis;
+import edu.kyoto.fos.regnant.cfg.BasicBlockMapper;
+import edu.kyoto.fos.regnant.cfg.BodyContext;
+import edu.kyoto.fos.regnant.cfg.CFGReconstructor;
+import edu.kyoto.fos.regnant.cfg.CHKDominatorsFinder;
+import edu.kyoto.fos.regnant.cfg.LoopFinder;
+import edu.kyoto.fos.regnant.cfg.RemapTag;
+import edu.kyoto.fos.regnant.cfg.RevMapTag;
+import edu.kyoto.fos.regnant.cfg.instrumentation.FlagInstrumentation;
+import edu.kyoto.fos.regnant.simpl.RewriteChain;
+import edu.kyoto.fos.regnant.storage.LetBindAllocator;
+import edu.kyoto.fos.regnant.storage.oo.StorageLayout;
+import edu.kyoto.fos.regnant.translation.ObjectModel;
+import edu.kyoto.fos.regnant.translation.PrintedTranslation;
+import edu.kyoto.fos.regnant.translation.Translate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import soot.Body;
+import soot.PackManager;
+import soot.Scene;
+import soot.SootMethod;
+import soot.Unit;
+import soot.util.queue.ChunkedQueue;
+import soot.util.queue.QueueReader;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/*
+  Benchmarks of the stages of the per method translation (and of the storage layout), run with gradle jmh -Pjdk8=<jdk 8 home>.
+
+  The setup loads the program and runs the whole translation once; each benchmark then runs a single stage over every
+  method the translation visited, with the inputs of that stage (the simplified bodies, reconstructed CFGs, etc.) taken from
+  the setup run. The rewriters are not benchmarked on their own, as they modify the body in place.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TranslatorBenchmarks {
+  @State(Scope.Benchmark)
+  public static class Program {
+    /*
+      The integration tests and the ConSORT benchmarks (MutList and SortedList are left out, as the alias insertion
+      currently fails on them).
+     */
+    @Param({"ArrayLoop", "DynDispatch", "minepump.Main", "ArrayInv", "ArrayList", "Intro2", "Shuffle"})
+    public String entry;
+
+    TypeAnalysis types;
+    FieldAliasing as;
+    StorageLayout layout;
+    Set<SootMethod> inScope;
+    final List<Body> bodies = new ArrayList<>();
+    final List<BodyContext> contexts = new ArrayList<>();
+    final List<CFGReconstructor> cfgs = new ArrayList<>();
+    final List<FlagInstrumentation> flags = new ArrayList<>();
+    final List<LetBindAllocator> allocators = new ArrayList<>();
+    final List<Translate> translations = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void load() {
+      String jdk = System.getProperty("regnant.jdk8");
+      if(jdk == null || jdk.isEmpty()) {
+        throw new IllegalStateException("Set regnant.jdk8 to the home of a JDK 8");
+      }
+      String rt = String.join(File.separator, jdk, "jre", "lib", "rt.jar");
+      TranslationServer.coldStart(System.getProperty("regnant.app-path"), rt, Regnant.sootArguments("spark"), List.of(entry));
+      Scene.v().setMainClass(Scene.v().getSootClass(entry));
+      PackManager.v().getPack("wjpp").apply();
+      PackManager.v().getPack("cg").apply();
+
+      Regnant regnant = new Regnant();
+      SootMethod main = Scene.v().getMainMethod();
+      regnant.removeArgVector(main);
+      types = TypeAnalysis.forMode("spark", regnant.methodsInScope(List.of(main)));
+      inScope = regnant.methodsInScope(List.of(main));
+      as = new FieldAliasing();
+      inScope.stream().map(SootMethod::getDeclaringClass).distinct().forEach(as::processClass);
+      layout = new StorageLayout(types, inScope::contains);
+
+      // the translation as done by Regnant, keeping the input and output of each stage
+      ChunkedQueue<SootMethod> worklist = new ChunkedQueue<>();
+      QueueReader<SootMethod> reader = worklist.reader();
+      worklist.add(main);
+      Set<SootMethod> visited = new HashSet<>();
+      while(reader.hasNext()) {
+        SootMethod m = reader.next();
+        if(!visited.add(m)) {
+          continue;
+        }
+        Body b = RewriteChain.rewrite(m.retrieveActiveBody(), types, new Metrics(m.getSignature()));
+        BodyContext ctxt = new BodyContext(b);
+        CFGReconstructor cfg = new CFGReconstructor(ctxt);
+        FlagInstrumentation fi = new FlagInstrumentation(cfg);
+        LetBindAllocator alloc = new LetBindAllocator(cfg.getStructure());
+        bodies.add(b);
+        contexts.add(ctxt);
+        cfgs.add(cfg);
+        flags.add(fi);
+        allocators.add(alloc);
+        translations.add(new Translate(b, cfg.getReconstructedGraph(), fi, alloc, worklist, layout, types, as, ObjectModel.Impl.MUTABLE));
+      }
+    }
+
+    /*
+      Building the basic blocks tags the collapsed gotos of the body, drop the tags added by the last invocation.
+     */
+    @TearDown(Level.Invocation)
+    public void untag() {
+      for(Body b : bodies) {
+        for(Unit u : b.getUnits()) {
+          if(u.hasTag(RemapTag.REMAP)) {
+            u.removeTag(RemapTag.REMAP);
+            u.removeTag(RevMapTag.REV_MAP);
+          }
+        }
+      }
+    }
+  }
+
+  @Benchmark
+  public void basicBlockMapper(final Program p, final Blackhole bh) {
+    for(Body b : p.bodies) {
+      bh.consume(new BasicBlockMapper(b));
+    }
+  }
+
+  @Benchmark
+  public void dominators(final Program p, final Blackhole bh) {
+    for(BodyContext ctxt : p.contexts) {
+      bh.consume(new CHKDominatorsFinder<>(ctxt.getBlockGraph()));
+    }
+  }
+
+  @Benchmark
+  public void loopFinder(final Program p, final Blackhole bh) {
+    for(BodyContext ctxt : p.contexts) {
+      bh.consume(new LoopFinder(ctxt).getTree());
+    }
+  }
+
+  @Benchmark
+  public void cfgReconstructor(final Program p, final Blackhole bh) {
+    for(Body b : p.bodies) {
+      bh.consume(new CFGReconstructor(b));
+    }
+  }
+
+  @Benchmark
+  public void flagInstrumentation(final Program p, final Blackhole bh) {
+    for(CFGReconstructor cfg : p.cfgs) {
+      bh.consume(new FlagInstrumentation(cfg));
+    }
+  }
+
+  @Benchmark
+  public void letBindAllocator(final Program p, final Blackhole bh) {
+    for(CFGReconstructor cfg : p.cfgs) {
+      bh.consume(new LetBindAllocator(cfg.getStructure()));
+    }
+  }
+
+  @Benchmark
+  public void storageLayout(final Program p, final Blackhole bh) {
+    bh.consume(new StorageLayout(p.types, p.inScope::contains));
+  }
+
+  @Benchmark
+  public void translate(final Program p, final Blackhole bh) {
+    for(int i = 0; i < p.bodies.size(); i++) {
+      CFGReconstructor cfg = p.cfgs.get(i);
+      bh.consume(new Translate(p.bodies.get(i), cfg.getReconstructedGraph(), p.flags.get(i), p.allocators.get(i), new ChunkedQueue<>(),
+          p.layout, p.types, p.as, ObjectModel.Impl.MUTABLE));
+    }
+  }
+
+  @Benchmark
+  public void print(final Program p, final Blackhole bh) {
+    for(Translate t : p.translations) {
+      bh.consume(PrintedTranslation.of(t));
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package edu.kyoto.fos.regnant;
+
+import fj.P;
+import fj.P2;
+import org.yaml.snakeyaml.Yaml;
+import soot.PackManager;
+import soot.Scene;
+import soot.SootMethod;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/*
+  Translates every entry point of a GenerateWork manifest in a single process, started with:
+
+    regnant --batch manifest out-dir app-classpath library-classpath [regnant-options]
+
+  The classes are loaded, and the call graph and points to analysis computed, once for the union of all entry points.
+  The program of each entry point is then written to out-dir/<entry>/mono.imp and out-dir/<entry>/control.sexp
+  (the names regnant.py uses in its work directory); methods shared by several entry points are translated just once.
+  The regnant-options are as for the wjtp.regnant phase, except that output and flags are ignored.
+ */
+public class BatchTranslation {
+  public static void main(final String[] args) throws IOException {
+    if(args.length != 4 && args.length != 5) {
+      throw new IllegalArgumentException("Expected: manifest out-dir app-classpath library-classpath [regnant-options]");
+    }
+    Map<?, ?> work;
+    try(Reader r = Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.UTF_8)) {
+      work = (Map<?, ?>) new Yaml().load(r);
+    }
+    List<String> entries = new ArrayList<>();
+    // sorted, so that the output does not depend on the order of the manifest
+    new TreeSet<>(work.keySet()).forEach(k -> entries.add(k.toString()));
+    if(entries.isEmpty()) {
+      return;
+    }
+    Map<String, String> options = args.length == 5 ? TranslationServer.parseOptions(args[4]) : new HashMap<>();
+    Regnant regnant = new Regnant();
+    List<String> sootArguments = Regnant.sootArguments(options.getOrDefault("analysis", "spark"));
+    regnant.metrics().time("soot.load-classes", () -> TranslationServer.coldStart(args[2], args[3], sootArguments, entries));
+
+    Scene.v().setMainClass(Scene.v().getSootClass(entries.get(0)));
+    Map<String, SootMethod> mains = TranslationServer.setEntryPoints(entries);
+    Map<SootMethod, P2<String, String>> outputs = new LinkedHashMap<>();
+    for(String e : entries) {
+      if(!mains.containsKey(e)) {
+        throw new IllegalArgumentException("No main method in " + e);
+      }
+      Path dir = Files.createDirectories(Paths.get(args[1], e));
+      outputs.put(mains.get(e), P.p(dir.resolve("mono.imp").toString(), dir.resolve("control.sexp").toString()));
+    }
+    regnant.metrics().time("soot.call-graph", () -> {
+      PackManager.v().getPack("wjpp").apply();
+      PackManager.v().getPack("cg").apply();
+    });
+    regnant.translateEntries(outputs, options);
+  }
+}
@@ -0,0 +1,127 @@
+package edu.kyoto.fos.regnant;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/*
+  Generates the classes of the integration tests which javac cannot produce: the methods are called (and their results
+  checked) by the main methods of the integration sources. Usage: GenerateIntegration out-dir
+ */
+public class GenerateIntegration implements Opcodes {
+  public static void main(String[] args) throws IOException {
+    if(args.length != 1) {
+      System.out.println("quit");
+      return;
+    }
+    write(Paths.get(args[0]), "generated/Irreducible", GenerateIntegration::irreducible);
+    write(Paths.get(args[0]), "generated/Conditionals", GenerateIntegration::conditionals);
+  }
+
+  private interface Methods {
+    void generate(ClassWriter cw);
+  }
+
+  private static void write(final Path out, final String name, final Methods m) throws IOException {
+    ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+    cw.visit(V1_8, ACC_PUBLIC | ACC_SUPER, name, null, "java/lang/Object", null);
+    m.generate(cw);
+    cw.visitEnd();
+    Path p = out.resolve(name + ".class");
+    Files.createDirectories(p.getParent());
+    Files.write(p, cw.toByteArray());
+  }
+
+  /*
+    Loops with several entries, which the structured control flow of javac never produces
+   */
+  private static void irreducible(final ClassWriter cw) {
+    // f: a loop between A and B, entered at A (i <= 0) or at B (i > 0)
+    MethodVisitor mv = cw.visitMethod(ACC_PUBLIC | ACC_STATIC, "f", "(I)I", null, null);
+    mv.visitCode();
+    Label a = new Label(), b = new Label(), c = new Label();
+    mv.visitVarInsn(ILOAD, 0);
+    mv.visitJumpInsn(IFGT, b);
+    mv.visitLabel(a);
+    mv.visitIincInsn(0, -1);
+    mv.visitVarInsn(ILOAD, 0);
+    mv.visitIntInsn(BIPUSH, 10);
+    mv.visitJumpInsn(IF_ICMPGT, b);
+    mv.visitJumpInsn(GOTO, c);
+    mv.visitLabel(b);
+    mv.visitIincInsn(0, -2);
+    mv.visitVarInsn(ILOAD, 0);
+    mv.visitInsn(ICONST_5);
+    mv.visitJumpInsn(IF_ICMPGT, a);
+    mv.visitLabel(c);
+    mv.visitVarInsn(ILOAD, 0);
+    mv.visitInsn(IRETURN);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+
+    // g: a (reducible) outer loop around two irreducible loops sharing blocks, entered at x, y or z
+    mv = cw.visitMethod(ACC_PUBLIC | ACC_STATIC, "g", "(I)I", null, null);
+    mv.visitCode();
+    Label h = new Label(), x = new Label(), y = new Label(), z = new Label(), e = new Label(), t = new Label();
+    mv.visitLabel(h);
+    mv.visitVarInsn(ILOAD, 0);
+    mv.visitIntInsn(BIPUSH, 100);
+    mv.visitJumpInsn(IF_ICMPGE, e);
+    remainderIs0(mv, 2, y);
+    remainderIs0(mv, 3, z);
+    mv.visitLabel(x);
+    mv.visitIincInsn(0, 3);
+    remainderIs0(mv, 7, t);
+    mv.visitLabel(y);
+    mv.visitIincInsn(0, 5);
+    remainderIs0(mv, 11, x);
+    mv.visitLabel(z);
+    mv.visitIincInsn(0, 1);
+    remainderIs0(mv, 13, y);
+    mv.visitJumpInsn(GOTO, h);
+    mv.visitLabel(t);
+    mv.visitIincInsn(0, 1);
+    mv.visitJumpInsn(GOTO, h);
+    mv.visitLabel(e);
+    mv.visitVarInsn(ILOAD, 0);
+    mv.visitInsn(IRETURN);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+  }
+
+  /*
+    A method with thousands of consecutive conditionals, enough to overflow the stack of a recursive traversal of its blocks
+   */
+  private static final int CONDITIONALS = 3000;
+
+  private static void conditionals(final ClassWriter cw) {
+    // f: if(x > i) { x = x + 1; } for each i from 0 to CONDITIONALS - 1
+    MethodVisitor mv = cw.visitMethod(ACC_PUBLIC | ACC_STATIC, "f", "(I)I", null, null);
+    mv.visitCode();
+    for(int i = 0; i < CONDITIONALS; i++) {
+      Label next = new Label();
+      mv.visitVarInsn(ILOAD, 0);
+      mv.visitIntInsn(SIPUSH, i);
+      mv.visitJumpInsn(IF_ICMPLE, next);
+      mv.visitIincInsn(0, 1);
+      mv.visitLabel(next);
+    }
+    mv.visitVarInsn(ILOAD, 0);
+    mv.visitInsn(IRETURN);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+  }
+
+  private static void remainderIs0(final MethodVisitor mv, final int k, final Label target) {
+    mv.visitVarInsn(ILOAD, 0);
+    mv.visitIntInsn(BIPUSH, k);
+    mv.visitInsn(IREM);
+    mv.visitJumpInsn(IFEQ, target);
+  }
+}
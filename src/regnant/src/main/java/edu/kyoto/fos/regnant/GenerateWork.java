@@ -13,22 +13,33 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.jar.JarFile;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+/*
+  Writes the manifest of the integration tests in a jar: the classes with a main method (unless annotated with SkipTest),
+  mapped to whether they are expected to fail (ExpectFail). Usage: GenerateWork jar manifest [flags]
+
+  The regnant.py flags with which a test must be run (RegnantFlags) are written to the optional flags file, by class.
+ */
 public class GenerateWork {
   public static void main(String[] args) throws IOException {
-    if(args.length != 2) {
+    if(args.length != 2 && args.length != 3) {
       System.out.println("quit");
       return;
     }
     JarFile jf = new JarFile(args[0]);
+    Map<String, List<String>> flags = new TreeMap<>();
     Map<String, Boolean> work = jf.stream().filter(je -> je.getName().endsWith(".class")).flatMap(je -> {
       try(InputStream is = jf.getInputStream(je)) {
         ClassReader cr = new ClassReader(is);
         var b = new boolean[] { false, false };
+        List<String> f = new ArrayList<>();
         cr.accept(new ClassVisitor(Opcodes.ASM5) {
           @Override public MethodVisitor visitMethod(final int access, final String name, final String desc, final String signature, final String[] exceptions) {
             if((access & Opcodes.ACC_STATIC) == 0 || !name.equals("main") || !desc.equals("([Ljava/lang/String;)V")) {
@@ -43,12 +54,26 @@ public class GenerateWork {
                 if(desc.equals("Lannotation/SkipTest;")) {
                   b[0] = false;
                 }
+                if(desc.equals("Lannotation/RegnantFlags;")) {
+                  return new AnnotationVisitor(Opcodes.ASM5) {
+                    @Override public AnnotationVisitor visitArray(final String name) {
+                      return this;
+                    }
+
+                    @Override public void visit(final String name, final Object value) {
+                      f.add(value.toString());
+                    }
+                  };
+                }
                 return null;
               }
             };
           }
         }, ClassReader.SKIP_CODE);
         if(b[0]) {
+          if(!f.isEmpty()) {
+            flags.put(cr.getClassName().replace('/', '.'), f);
+          }
           return Stream.of(P.p(cr.getClassName().replace('/', '.'), b[1]));
         } else {
           return Stream.empty();
@@ -61,5 +86,10 @@ public class GenerateWork {
       Yaml y = new Yaml();
       y.dump(work, fw);
     }
+    if(args.length == 3) {
+      try(FileWriter fw = new FileWriter(new File(args[2]))) {
+        new Yaml().dump(flags, fw);
+      }
+    }
   }
 }
@@ -0,0 +1,556 @@
+package edu.kyoto.fos.regnant;
+
+import soot.ArrayType;
+import soot.Body;
+import soot.BooleanType;
+import soot.ByteType;
+import soot.CharType;
+import soot.ClassProvider;
+import soot.ClassSource;
+import soot.DoubleType;
+import soot.FloatType;
+import soot.FoundFile;
+import soot.IntType;
+import soot.JavaClassProvider;
+import soot.JimpleClassProvider;
+import soot.LongType;
+import soot.MethodSource;
+import soot.RefType;
+import soot.Scene;
+import soot.ShortType;
+import soot.SootClass;
+import soot.SootField;
+import soot.SootMethod;
+import soot.SootResolver;
+import soot.SourceLocator;
+import soot.Type;
+import soot.VoidType;
+import soot.asm.AsmClassProvider;
+import soot.asm.AsmClassSource;
+import soot.javaToJimple.IInitialResolver.Dependencies;
+import soot.tagkit.DoubleConstantValueTag;
+import soot.tagkit.FloatConstantValueTag;
+import soot.tagkit.IntegerConstantValueTag;
+import soot.tagkit.LongConstantValueTag;
+import soot.tagkit.StringConstantValueTag;
+import soot.tagkit.Tag;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32C;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/*
+  A class provider serving the classes of library jars from snapshots of their resolved classes, enabled with
+  regnant --snapshot dir (given before any other arguments).
+
+  For each jar on the soot classpath, dir/<checksum of the jar>.snap holds the classes that earlier runs resolved from that
+  jar: their modifiers, superclass, interfaces and outer class, their fields (with constant values), their method signatures
+  and the dependencies reported by soot's bytecode frontend. The snapshot is memory mapped, and a class found there is
+  rebuilt from its entry instead of from its bytecode. Method bodies are still built from bytecode by soot's frontend (on
+  demand), but the class files of the library classes whose bodies were used are stored in the snapshot too, so the jar is
+  only read for classes (or bodies) the snapshot does not have yet. Such classes are added by rewriting the snapshot after the translation.
+
+  Class tags other than the constant values of fields (source file, generic signatures, annotations, etc.) are not kept.
+ */
+class LibrarySnapshot implements ClassProvider {
+  private static final int MAGIC = 0x52534e50;
+  private static final int VERSION = 1;
+  private static Path directory = null;
+  private static LibrarySnapshot installed = null;
+
+  private final Map<String, Archive> archives = new HashMap<>();
+  // the class path as last read from the scene, and its directories and (snapshotted) jars, in order
+  private String classPath = null;
+  private List<Object> entries = new ArrayList<>();
+  // the classes rebuilt from their bytecode to produce the bodies of snapshot classes
+  private final Map<String, SootClass> bodyClasses = new HashMap<>();
+  private int fromSnapshot = 0;
+  private int fromBytecode = 0;
+
+  static void setDirectory(final String dir) {
+    directory = Paths.get(dir);
+  }
+
+  /*
+    Puts a snapshot provider before soot's own class providers, if a snapshot directory was given. This has to be repeated after each reset of soot.
+   */
+  static void install() {
+    if(directory == null) {
+      return;
+    }
+    try {
+      Files.createDirectories(directory);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    installed = new LibrarySnapshot();
+    List<ClassProvider> providers = new ArrayList<>();
+    providers.add(installed);
+    providers.add(new AsmClassProvider());
+    providers.add(new JimpleClassProvider());
+    providers.add(new JavaClassProvider());
+    SourceLocator.v().setClassProviders(providers);
+  }
+
+  /*
+    Rewrites the snapshots of the jars that classes (or bodies) were read from in this run.
+   */
+  static void save(final Metrics metrics) {
+    if(installed == null) {
+      return;
+    }
+    metrics.count("snapshot-classes", installed.fromSnapshot);
+    metrics.count("bytecode-classes", installed.fromBytecode);
+    installed.fromSnapshot = installed.fromBytecode = 0;
+    metrics.time("snapshot.write", () -> installed.archives.values().forEach(Archive::write));
+  }
+
+  @Override public ClassSource find(final String className) {
+    String cp = Scene.v().getSootClassPath();
+    if(!cp.equals(classPath)) {
+      entries = new ArrayList<>();
+      for(String p : SourceLocator.explodeClassPath(cp)) {
+        Path path = Paths.get(p);
+        if(Files.isDirectory(path)) {
+          entries.add(path);
+        } else if(p.endsWith(".jar") && Files.isRegularFile(path)) {
+          entries.add(archives.computeIfAbsent(p, Archive::new));
+        }
+      }
+      classPath = cp;
+    }
+    String file = className.replace('.', '/') + ".class";
+    for(Object e : entries) {
+      if(e instanceof Path) {
+        // shadowed by a class outside of the jars, leave it to soot
+        if(Files.exists(((Path) e).resolve(file))) {
+          return null;
+        }
+      } else {
+        ClassSource src = ((Archive) e).find(className, file);
+        if(src != null) {
+          return src;
+        }
+      }
+    }
+    return null;
+  }
+
+  private static ClassSource bytecodeSource(final String className, final byte[] classFile) {
+    FoundFile f = new FoundFile(new File(className)) {
+      @Override public InputStream inputStream() {
+        return new ByteArrayInputStream(classFile);
+      }
+    };
+    return new AsmClassSource(className, f) { };
+  }
+
+  private class Archive {
+    private final ZipFile zip;
+    private final Path snapshot;
+    private ByteBuffer data = null;
+    private Map<String, int[]> index = new HashMap<>();
+    // entries (without their class file) of the classes resolved from bytecode in this run
+    private final Map<String, byte[]> added = new TreeMap<>();
+    // the snapshot classes whose class file was read from the jar in this run
+    private final Set<String> classFilesRead = new HashSet<>();
+
+    Archive(final String jar) {
+      try {
+        this.zip = new ZipFile(jar);
+        this.snapshot = directory.resolve(checksum(Paths.get(jar)) + ".snap");
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      this.open();
+    }
+
+    private void open() {
+      index = new HashMap<>();
+      data = null;
+      if(!Files.exists(snapshot)) {
+        return;
+      }
+      try(FileChannel ch = FileChannel.open(snapshot)) {
+        ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        DataInputStream in = input(buf);
+        if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+          return;
+        }
+        int n = in.readInt();
+        for(int i = 0; i < n; i++) {
+          String name = in.readUTF();
+          index.put(name, new int[]{in.readInt(), in.readInt()});
+        }
+        data = buf.slice();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    ClassSource find(final String className, final String file) {
+      if(index.containsKey(className)) {
+        return new SnapshotSource(className, this);
+      }
+      ZipEntry ze = zip.getEntry(file);
+      if(ze == null) {
+        return null;
+      }
+      return new ClassSource(className) {
+        @Override public Dependencies resolve(final SootClass sc) {
+          fromBytecode++;
+          Dependencies deps = bytecodeSource(className, classFile(className)).resolve(sc);
+          added.put(className, describe(sc, deps));
+          return deps;
+        }
+      };
+    }
+
+    /*
+      An entry is the length of the stored class file, the class file (if any), and the description of the class.
+     */
+    private ByteBuffer entry(final String className) {
+      int[] at = index.get(className);
+      ByteBuffer b = data.duplicate();
+      b.position(at[0]).limit(at[0] + at[1]);
+      return b.slice();
+    }
+
+    byte[] classFile(final String className) {
+      String file = className.replace('.', '/') + ".class";
+      try(InputStream in = zip.getInputStream(zip.getEntry(file))) {
+        return in.readAllBytes();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    byte[] storedClassFile(final String className) {
+      ByteBuffer e = entry(className);
+      byte[] toReturn = new byte[e.getInt()];
+      e.get(toReturn);
+      if(toReturn.length == 0) {
+        classFilesRead.add(className);
+        return classFile(className);
+      }
+      return toReturn;
+    }
+
+    void write() {
+      if(added.isEmpty() && classFilesRead.isEmpty()) {
+        return;
+      }
+      Map<String, byte[]> out = new TreeMap<>();
+      for(String name : index.keySet()) {
+        ByteBuffer e = entry(name);
+        if(classFilesRead.contains(name)) {
+          e.position(4 + e.getInt());
+          byte[] desc = new byte[e.remaining()];
+          e.get(desc);
+          out.put(name, withClassFile(classFile(name), desc));
+        } else {
+          byte[] raw = new byte[e.remaining()];
+          e.get(raw);
+          out.put(name, raw);
+        }
+      }
+      added.forEach((name, desc) -> {
+        SootClass sc = Scene.v().getSootClassUnsafe(name, false);
+        boolean bodiesUsed = sc != null && sc.getMethods().stream().anyMatch(SootMethod::hasActiveBody);
+        out.put(name, withClassFile(bodiesUsed ? classFile(name) : new byte[0], desc));
+      });
+      try {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream h = new DataOutputStream(header);
+        h.writeInt(MAGIC);
+        h.writeInt(VERSION);
+        h.writeInt(out.size());
+        int offset = 0;
+        for(Map.Entry<String, byte[]> e : out.entrySet()) {
+          h.writeUTF(e.getKey());
+          h.writeInt(offset);
+          h.writeInt(e.getValue().length);
+          offset += e.getValue().length;
+        }
+        Path tmp = Files.createTempFile(directory, "snapshot", ".tmp");
+        try(DataOutputStream o = new DataOutputStream(Files.newOutputStream(tmp))) {
+          header.writeTo(o);
+          for(byte[] b : out.values()) {
+            o.write(b);
+          }
+        }
+        Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      added.clear();
+      classFilesRead.clear();
+      this.open();
+    }
+  }
+
+  private static byte[] withClassFile(final byte[] classFile, final byte[] desc) {
+    ByteBuffer b = ByteBuffer.allocate(4 + classFile.length + desc.length);
+    b.putInt(classFile.length).put(classFile).put(desc);
+    return b.array();
+  }
+
+  private class SnapshotSource extends ClassSource {
+    private final Archive archive;
+
+    SnapshotSource(final String className, final Archive archive) {
+      super(className);
+      this.archive = archive;
+    }
+
+    /*
+      The same calls, in the same order, as soot's bytecode frontend makes while building the class.
+     */
+    @Override public Dependencies resolve(final SootClass sc) {
+      fromSnapshot++;
+      ByteBuffer e = archive.entry(className);
+      e.position(4 + e.getInt());
+      DataInputStream in = input(e);
+      try {
+        sc.setModifiers(in.readInt());
+        String sup = in.readUTF();
+        if(!sup.isEmpty()) {
+          sc.setSuperclass(SootResolver.v().makeClassRef(sup));
+        }
+        for(String i : readNames(in)) {
+          sc.addInterface(SootResolver.v().makeClassRef(i));
+        }
+        String outer = in.readUTF();
+        if(!outer.isEmpty()) {
+          sc.setOuterClass(SootResolver.v().makeClassRef(outer));
+        }
+        int nFields = in.readInt();
+        for(int i = 0; i < nFields; i++) {
+          SootField f = Scene.v().makeSootField(in.readUTF(), typeOf(in.readUTF()), in.readInt());
+          Tag constant = readConstant(in);
+          if(constant != null) {
+            f.addTag(constant);
+          }
+          sc.getOrAddField(f);
+        }
+        int nMethods = in.readInt();
+        for(int i = 0; i < nMethods; i++) {
+          String name = in.readUTF();
+          List<Type> params = readTypes(in);
+          Type ret = typeOf(in.readUTF());
+          int modifiers = in.readInt();
+          List<SootClass> exceptions = new ArrayList<>();
+          for(String ex : readNames(in)) {
+            exceptions.add(SootResolver.v().makeClassRef(ex));
+          }
+          SootMethod m = sc.getOrAddMethod(Scene.v().makeSootMethod(name, params, ret, modifiers, exceptions));
+          if(in.readBoolean()) {
+            m.setSource(new SnapshotBody(archive));
+          }
+        }
+        Dependencies deps = new Dependencies();
+        deps.typesToHierarchy.addAll(readTypes(in));
+        deps.typesToSignature.addAll(readTypes(in));
+        return deps;
+      } catch (IOException ex) {
+        throw new UncheckedIOException(ex);
+      }
+    }
+  }
+
+  private class SnapshotBody implements MethodSource {
+    private final Archive archive;
+
+    SnapshotBody(final Archive archive) {
+      this.archive = archive;
+    }
+
+    @Override public Body getBody(final SootMethod m, final String phaseName) {
+      synchronized(LibrarySnapshot.this) {
+        SootClass real = m.getDeclaringClass();
+        SootClass fromBytecode = bodyClasses.computeIfAbsent(real.getName(), name -> {
+          // building a class rebinds its type to it, so bind the type back to the class in the scene afterwards
+          SootClass sc = new SootClass(name);
+          try {
+            bytecodeSource(name, archive.storedClassFile(name)).resolve(sc);
+          } finally {
+            real.getType().setSootClass(real);
+          }
+          return sc;
+        });
+        return fromBytecode.getMethod(m.getSubSignature()).getSource().getBody(m, phaseName);
+      }
+    }
+  }
+
+  private static byte[] describe(final SootClass sc, final Dependencies deps) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try(DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeInt(sc.getModifiers());
+      out.writeUTF(sc.hasSuperclass() ? sc.getSuperclass().getName() : "");
+      writeNames(out, sc.getInterfaces());
+      out.writeUTF(sc.hasOuterClass() ? sc.getOuterClass().getName() : "");
+      out.writeInt(sc.getFieldCount());
+      for(SootField f : sc.getFields()) {
+        out.writeUTF(f.getName());
+        out.writeUTF(f.getType().toString());
+        out.writeInt(f.getModifiers());
+        writeConstant(out, f);
+      }
+      out.writeInt(sc.getMethodCount());
+      for(SootMethod m : sc.getMethods()) {
+        out.writeUTF(m.getName());
+        writeTypes(out, m.getParameterTypes());
+        out.writeUTF(m.getReturnType().toString());
+        out.writeInt(m.getModifiers());
+        writeNames(out, m.getExceptions());
+        out.writeBoolean(m.getSource() != null);
+      }
+      writeTypes(out, deps.typesToHierarchy);
+      writeTypes(out, deps.typesToSignature);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static void writeNames(final DataOutputStream out, final Collection<SootClass> classes) throws IOException {
+    out.writeInt(classes.size());
+    for(SootClass c : classes) {
+      out.writeUTF(c.getName());
+    }
+  }
+
+  private static List<String> readNames(final DataInputStream in) throws IOException {
+    int n = in.readInt();
+    List<String> toReturn = new ArrayList<>(n);
+    for(int i = 0; i < n; i++) {
+      toReturn.add(in.readUTF());
+    }
+    return toReturn;
+  }
+
+  private static void writeTypes(final DataOutputStream out, final Collection<? extends Type> types) throws IOException {
+    out.writeInt(types.size());
+    for(Type t : types) {
+      out.writeUTF(t.toString());
+    }
+  }
+
+  private static List<Type> readTypes(final DataInputStream in) throws IOException {
+    int n = in.readInt();
+    List<Type> toReturn = new ArrayList<>(n);
+    for(int i = 0; i < n; i++) {
+      toReturn.add(typeOf(in.readUTF()));
+    }
+    return toReturn;
+  }
+
+  private static Type typeOf(final String desc) {
+    String base = desc;
+    int dims = 0;
+    while(base.endsWith("[]")) {
+      base = base.substring(0, base.length() - 2);
+      dims++;
+    }
+    Type t;
+    switch(base) {
+      case "boolean": t = BooleanType.v(); break;
+      case "byte": t = ByteType.v(); break;
+      case "char": t = CharType.v(); break;
+      case "short": t = ShortType.v(); break;
+      case "int": t = IntType.v(); break;
+      case "long": t = LongType.v(); break;
+      case "float": t = FloatType.v(); break;
+      case "double": t = DoubleType.v(); break;
+      case "void": t = VoidType.v(); break;
+      default: t = RefType.v(base);
+    }
+    return dims == 0 ? t : ArrayType.v(t, dims);
+  }
+
+  private static void writeConstant(final DataOutputStream out, final SootField f) throws IOException {
+    for(Tag t : f.getTags()) {
+      if(t instanceof IntegerConstantValueTag) {
+        out.writeByte(1);
+        out.writeInt(((IntegerConstantValueTag) t).getIntValue());
+        return;
+      } else if(t instanceof LongConstantValueTag) {
+        out.writeByte(2);
+        out.writeLong(((LongConstantValueTag) t).getLongValue());
+        return;
+      } else if(t instanceof FloatConstantValueTag) {
+        out.writeByte(3);
+        out.writeFloat(((FloatConstantValueTag) t).getFloatValue());
+        return;
+      } else if(t instanceof DoubleConstantValueTag) {
+        out.writeByte(4);
+        out.writeDouble(((DoubleConstantValueTag) t).getDoubleValue());
+        return;
+      } else if(t instanceof StringConstantValueTag) {
+        out.writeByte(5);
+        out.writeUTF(((StringConstantValueTag) t).getStringValue());
+        return;
+      }
+    }
+    out.writeByte(0);
+  }
+
+  private static Tag readConstant(final DataInputStream in) throws IOException {
+    switch(in.readByte()) {
+      case 1: return new IntegerConstantValueTag(in.readInt());
+      case 2: return new LongConstantValueTag(in.readLong());
+      case 3: return new FloatConstantValueTag(in.readFloat());
+      case 4: return new DoubleConstantValueTag(in.readDouble());
+      case 5: return new StringConstantValueTag(in.readUTF());
+      default: return null;
+    }
+  }
+
+  private static DataInputStream input(final ByteBuffer b) {
+    return new DataInputStream(new InputStream() {
+      @Override public int read() {
+        return b.hasRemaining() ? b.get() & 0xff : -1;
+      }
+
+      @Override public int read(final byte[] bytes, final int off, final int len) {
+        if(!b.hasRemaining()) {
+          return -1;
+        }
+        int n = Math.min(len, b.remaining());
+        b.get(bytes, off, n);
+        return n;
+      }
+    });
+  }
+
+  private static String checksum(final Path jar) throws IOException {
+    try(FileChannel ch = FileChannel.open(jar)) {
+      CRC32C crc = new CRC32C();
+      crc.update(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+      return String.format("%08x-%x", crc.getValue(), ch.size());
+    }
+  }
+}
@@ -0,0 +1,208 @@
+package edu.kyoto.fos.regnant;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/*
+  Wall time, allocated bytes and output counts for the stages of a translation.
+
+  A Metrics object collects the stages run within one scope: the whole translation, or (as a child scope of the former)
+  the translation of a single method. The stages of a scope must run on one thread, as allocation is measured with the per thread counters of the JVM. Each stage
+  and count is also committed as a JFR event (regnant.Stage and regnant.Count), which costs next to nothing unless a flight
+  recording is running. The collected metrics are written as a YAML report with the metrics option.
+ */
+public class Metrics {
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+  private final String scope;
+  // stage -> (calls, nanoseconds, allocated bytes)
+  private final Map<String, long[]> stages = new LinkedHashMap<>();
+  private final Map<String, Long> counts = new LinkedHashMap<>();
+  private final Queue<Metrics> children = new ConcurrentLinkedQueue<>();
+  private long markTime = -1;
+  private long markAlloc;
+
+  public Metrics(final String scope) {
+    this.scope = scope;
+  }
+
+  /*
+    A new scope whose metrics are reported along with this one (children may be created and used from any thread)
+   */
+  public Metrics child(final String childScope) {
+    Metrics toReturn = new Metrics(childScope);
+    children.add(toReturn);
+    return toReturn;
+  }
+
+  @Name("regnant.Stage")
+  @Label("Regnant Stage")
+  @Category("Regnant")
+  static class StageEvent extends Event {
+    @Label("Scope") String scope;
+    @Label("Stage") String stage;
+    @Label("Wall Time") @Timespan(Timespan.NANOSECONDS) long wallTime;
+    @Label("Allocated") @DataAmount long allocated;
+  }
+
+  @Name("regnant.Count")
+  @Label("Regnant Count")
+  @Category("Regnant")
+  static class CountEvent extends Event {
+    @Label("Scope") String scope;
+    @Label("Counter") String counter;
+    @Label("Value") long value;
+  }
+
+  public <T> T time(final String stage, final Supplier<T> f) {
+    StageEvent ev = new StageEvent();
+    ev.begin();
+    long start = System.nanoTime();
+    long alloc = allocatedBytes();
+    try {
+      return f.get();
+    } finally {
+      ev.end();
+      this.record(stage, System.nanoTime() - start, allocatedBytes() - alloc, ev);
+    }
+  }
+
+  public void time(final String stage, final Runnable r) {
+    this.time(stage, () -> {
+      r.run();
+      return null;
+    });
+  }
+
+  /*
+    Records everything the current thread did since the JVM started as stage (for the work soot does before handing over)
+   */
+  public void recordSinceStart(final String stage) {
+    long nanos = TimeUnit.MILLISECONDS.toNanos(ManagementFactory.getRuntimeMXBean().getUptime());
+    this.record(stage, nanos, allocatedBytes(), new StageEvent());
+  }
+
+  public void mark() {
+    this.markTime = System.nanoTime();
+    this.markAlloc = allocatedBytes();
+  }
+
+  /*
+    Records everything the current thread did since the last mark as stage, if there was a mark.
+   */
+  public void recordSinceMark(final String stage) {
+    if(markTime < 0) {
+      return;
+    }
+    this.record(stage, System.nanoTime() - markTime, allocatedBytes() - markAlloc, new StageEvent());
+    markTime = -1;
+  }
+
+  private void record(final String stage, final long nanos, final long bytes, final StageEvent ev) {
+    long[] s = stages.computeIfAbsent(stage, ign -> new long[3]);
+    s[0]++;
+    s[1] += nanos;
+    s[2] += bytes;
+    if(ev.shouldCommit()) {
+      ev.scope = scope;
+      ev.stage = stage;
+      ev.wallTime = nanos;
+      ev.allocated = bytes;
+      ev.commit();
+    }
+  }
+
+  public void count(final String counter, final long n) {
+    counts.merge(counter, n, Long::sum);
+    CountEvent ev = new CountEvent();
+    if(ev.shouldCommit()) {
+      ev.scope = scope;
+      ev.counter = counter;
+      ev.value = n;
+      ev.commit();
+    }
+  }
+
+  private static long allocatedBytes() {
+    if(!(THREADS instanceof com.sun.management.ThreadMXBean)) {
+      return 0;
+    }
+    return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private void addTo(final Map<String, long[]> stageTotals, final Map<String, Long> countTotals) {
+    stages.forEach((k, v) -> {
+      long[] s = stageTotals.computeIfAbsent(k, ign -> new long[3]);
+      for(int i = 0; i < s.length; i++) {
+        s[i] += v[i];
+      }
+    });
+    counts.forEach((k, v) -> countTotals.merge(k, v, Long::sum));
+  }
+
+  private static Map<String, Object> describe(final Map<String, long[]> stages, final Map<String, Long> counts) {
+    Map<String, Object> stageDesc = new LinkedHashMap<>();
+    stages.forEach((k, v) -> {
+      Map<String, Object> d = new LinkedHashMap<>();
+      d.put("calls", v[0]);
+      d.put("time_ms", v[1] / 1_000_000.0);
+      d.put("allocated_bytes", v[2]);
+      stageDesc.put(k, d);
+    });
+    Map<String, Object> toReturn = new LinkedHashMap<>();
+    toReturn.put("stages", stageDesc);
+    toReturn.put("counts", new LinkedHashMap<>(counts));
+    return toReturn;
+  }
+
+  /*
+    Writes the totals over this scope and all of its children, followed by the stages of this scope and those of each child.
+   */
+  public void writeReport(final String file) {
+    Map<String, long[]> stageTotals = new LinkedHashMap<>();
+    Map<String, Long> countTotals = new LinkedHashMap<>();
+    this.addTo(stageTotals, countTotals);
+    List<Metrics> sorted = new ArrayList<>(children);
+    sorted.sort(Comparator.comparing(m -> m.scope));
+    sorted.forEach(m -> m.addTo(stageTotals, countTotals));
+
+    Map<String, Object> report = new LinkedHashMap<>();
+    report.put("total", describe(stageTotals, countTotals));
+    report.put(this.scope, describe(this.stages, this.counts));
+    Map<String, Object> perChild = new LinkedHashMap<>();
+    sorted.forEach(m -> perChild.put(m.scope, describe(m.stages, m.counts)));
+    report.put("scopes", perChild);
+
+    DumperOptions opts = new DumperOptions();
+    opts.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
+    try(Writer w = Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8)) {
+      new Yaml(opts).dump(report, w);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
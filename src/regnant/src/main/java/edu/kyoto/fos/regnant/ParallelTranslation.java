@@ -0,0 +1,79 @@
+package edu.kyoto.fos.regnant;
+
+import edu.kyoto.fos.regnant.translation.MethodTranslation;
+import edu.kyoto.fos.regnant.translation.PrintedTranslation;
+import fj.P;
+import fj.P2;
+import soot.SootMethod;
+
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/*
+  Translates the methods reachable from the entry point on a fork join pool.
+
+  Each method is translated by its own task; the callees discovered during
+  the translation are then forked as new tasks, unless some other task already claimed them. Once every task
+  has finished, the translations are put in order by replaying the sequential worklist: a breadth first walk from the entry
+  point that visits callees in the order in which the translation of their caller discovered them. The output is therefore
+  identical to that of the sequential translation, regardless of how the tasks were scheduled.
+ */
+class ParallelTranslation {
+  private final ForkJoinPool pool;
+  private final Function<SootMethod, P2<MethodTranslation, List<SootMethod>>> translator;
+  private final Set<SootMethod> claimed = ConcurrentHashMap.newKeySet();
+  private final Map<SootMethod, P2<MethodTranslation, List<SootMethod>>> results = new ConcurrentHashMap<>();
+
+  ParallelTranslation(final int threads, final Function<SootMethod, P2<MethodTranslation, List<SootMethod>>> translator) {
+    this.pool = new ForkJoinPool(threads);
+    this.translator = translator;
+  }
+
+  void run(final SootMethod entry, final Consumer<MethodTranslation> sink) {
+    claimed.add(entry);
+    try {
+      pool.invoke(new MethodTask(entry));
+    } finally {
+      pool.shutdown();
+    }
+    LinkedList<SootMethod> worklist = new LinkedList<>();
+    Set<SootMethod> visited = new HashSet<>();
+    worklist.add(entry);
+    while(!worklist.isEmpty()) {
+      SootMethod m = worklist.pop();
+      if(!visited.add(m)) {
+        continue;
+      }
+      assert results.containsKey(m) : m;
+      P2<MethodTranslation, List<SootMethod>> r = results.get(m);
+      sink.accept(r._1());
+      worklist.addAll(r._2());
+    }
+  }
+
+  private class MethodTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final SootMethod m;
+
+    private MethodTask(final SootMethod m) {
+      this.m = m;
+    }
+
+    @Override protected void compute() {
+      P2<MethodTranslation, List<SootMethod>> r = translator.apply(m);
+      // kept until all tasks finish, so only keep the text
+      results.put(m, P.p(PrintedTranslation.of(r._1()), r._2()));
+      invokeAll(r._2().stream().distinct().filter(claimed::add).map(MethodTask::new).collect(Collectors.toList()));
+    }
+  }
+}
@@ -1,40 +1,59 @@
 package edu.kyoto.fos.regnant;
 
 import edu.kyoto.fos.regnant.aliasing.FieldAliasing;
+import edu.kyoto.fos.regnant.analysis.TypeAnalysis;
+import edu.kyoto.fos.regnant.cfg.BodyContext;
 import edu.kyoto.fos.regnant.cfg.CFGReconstructor;
 import edu.kyoto.fos.regnant.cfg.instrumentation.FlagInstrumentation;
 import edu.kyoto.fos.regnant.simpl.RewriteChain;
 import edu.kyoto.fos.regnant.storage.LetBindAllocator;
 import edu.kyoto.fos.regnant.storage.oo.StorageLayout;
-import edu.kyoto.fos.regnant.translation.FlagTranslation;
+import edu.kyoto.fos.regnant.translation.ImpOptimizer;
+import edu.kyoto.fos.regnant.translation.ImpWriter;
+import edu.kyoto.fos.regnant.translation.LeafInliner;
+import edu.kyoto.fos.regnant.translation.MethodTranslation;
 import edu.kyoto.fos.regnant.translation.ObjectModel;
 import edu.kyoto.fos.regnant.translation.ObjectModel.Impl;
+import edu.kyoto.fos.regnant.translation.PrintedTranslation;
 import edu.kyoto.fos.regnant.translation.Translate;
+import fj.P;
+import fj.P2;
 import soot.Body;
 import soot.Local;
 import soot.Main;
+import soot.MethodOrMethodContext;
 import soot.PackManager;
 import soot.Scene;
 import soot.SceneTransformer;
-import soot.SootClass;
 import soot.SootMethod;
 import soot.Transform;
 import soot.UnitPatchingChain;
 import soot.ValueBox;
+import soot.jimple.toolkits.callgraph.ReachableMethods;
 import soot.options.Options;
 import soot.util.queue.ChunkedQueue;
 import soot.util.queue.QueueReader;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class Regnant extends Transform {
+  private Metrics metrics = new Metrics("global");
+  // the simplified bodies of the methods translated on the current scene (guarded by this)
+  private final Map<SootMethod, Body> simplified = new HashMap<>();
+
   private Regnant(final Regnant[] regnants) {
     super("wjtp.regnant", new SceneTransformer() {
       @Override protected void internalTransform(final String phaseName, final Map<String, String> options) {
@@ -44,41 +63,162 @@ public class Regnant extends Transform {
     regnants[0] = this;
   }
 
-  public static void main(String[] args) {
-    PackManager.v().getPack("wjtp").add(new Regnant());
-    Options.v().set_verbose(true);
+  public static void main(String[] args) throws IOException {
+    if(args.length > 1 && args[0].equals("--snapshot")) {
+      LibrarySnapshot.setDirectory(args[1]);
+      args = Arrays.copyOfRange(args, 2, args.length);
+    }
+    if(args.length > 0 && args[0].equals("--server")) {
+      TranslationServer.main(Arrays.copyOfRange(args, 1, args.length));
+      return;
+    }
+    if(args.length > 0 && args[0].equals("--batch")) {
+      BatchTranslation.main(Arrays.copyOfRange(args, 1, args.length));
+      return;
+    }
+    Regnant regnant = new Regnant();
+    PackManager.v().getPack("wjtp").add(regnant);
+    // soot loads the classes before running the whole program packs, and builds the call graph (running spark) after wjpp
+    Transform loaded = new Transform("wjpp.regnant-metrics", new SceneTransformer() {
+      @Override protected void internalTransform(final String phaseName, final Map<String, String> options) {
+        regnant.metrics.recordSinceStart("soot.load-classes");
+        regnant.metrics.mark();
+      }
+    });
+    loaded.setDefaultOptions("enabled:true");
+    PackManager.v().getPack("wjpp").add(loaded);
+    setUpSoot();
     Main.main(args);
   }
 
-  private Regnant() {
+  /*
+    Configures a fresh soot before it parses its arguments: by regnant run directly, and by the server and batch translation
+    after each reset of soot.
+   */
+  static void setUpSoot() {
+    Options.v().set_verbose(true);
+    LibrarySnapshot.install();
+  }
+
+  /*
+    The soot arguments (besides the classpath and the classes to load) with which regnant.py runs a translation under the
+    given analysis: the call graph is built by SPARK for spark, and by CHA for the others (see TypeAnalysis); spark-full
+    also analyzes the JCL, whose bodies soot must then load.
+   */
+  static List<String> sootArguments(final String analysis) {
+    List<String> toReturn = new ArrayList<>(List.of("-f", "n", analysis.equals("spark-full") ? "-allow-phantom-refs" : "-no-bodies-for-excluded", "-w"));
+    if(analysis.startsWith("spark")) {
+      toReturn.addAll(List.of("-p", "cg.spark", "on"));
+    }
+    return toReturn;
+  }
+
+  Regnant() {
     this(new Regnant[1]);
-    setDeclaredOptions("enabled output flags model");
+    setDeclaredOptions("enabled output flags model threads cache metrics analysis inline optimize layout fields duplicate");
+  }
+
+  /*
+    The metrics of the current translation; stages run before the translation (class loading, etc.) should be recorded here.
+   */
+  Metrics metrics() {
+    return metrics;
+  }
+
+  void internalTransform(final String phaseName, Map<String, String> options) {
+    this.translateEntries(Map.of(Scene.v().getMainMethod(), P.p(options.get("output"), options.get("flags"))), options);
   }
 
-  private void internalTransform(final String phaseName, Map<String, String> options) {
-    SootMethod mainMethod = Scene.v().getMainMethod();
-    removeArgVector(mainMethod);
+  /*
+    Translates the program rooted at each entry point, writing its IMP and flag files to the given paths. A method
+    reachable from several entry points is translated once, and its (printed) translation shared by every program that uses it.
+    With a single entry point, the translation of each method is written out and dropped as soon as it is produced.
+   */
+  void translateEntries(final Map<SootMethod, P2<String, String>> entries, final Map<String, String> options) {
+    metrics.recordSinceMark("soot.call-graph");
+    entries.keySet().forEach(this::removeArgVector);
+    String mode = options.getOrDefault("analysis", "spark");
+    TypeAnalysis types = metrics.time("analysis." + mode, () -> TypeAnalysis.forMode(mode, this.methodsInScope(entries.keySet())));
+    // spark may have refined the call graph
+    Set<SootMethod> inScope = this.methodsInScope(entries.keySet());
     FieldAliasing as = new FieldAliasing();
-    for(SootClass sc : Scene.v().getClasses()) {
-      if(Scene.v().isExcluded(sc)) {
-        continue;
+    metrics.time("aliasing", () -> inScope.stream().map(SootMethod::getDeclaringClass).distinct().forEach(as::processClass));
+    Impl oimpl = ObjectModel.Impl.valueOf(options.getOrDefault("model", "mutable").toUpperCase());
+    if(oimpl == Impl.HYBRID) {
+      metrics.time("field-writes", () -> inScope.forEach(as::processWrites));
+    }
+    int threads = Integer.parseInt(options.getOrDefault("threads", "1"));
+    TranslationCache cache = options.containsKey("cache") ? new TranslationCache(options.get("cache")) : null;
+    StorageLayout.Mode layout = StorageLayout.Mode.valueOf(options.getOrDefault("layout", "merged").toUpperCase());
+    if(layout == StorageLayout.Mode.PRECISE && oimpl == Impl.HYBRID) {
+      throw new IllegalArgumentException("The hybrid model only supports the merged layout");
+    }
+    // every field is kept unless fields:live asks to drop those never read by the program from the layout
+    boolean allFields = !options.getOrDefault("fields", "all").equals("live");
+    if(!allFields) {
+      metrics.time("field-reads", () -> inScope.forEach(as::processReads));
+    }
+    StorageLayout l = metrics.time("storage-layout", () -> new StorageLayout(types, inScope::contains, layout, allFields ? f -> true : as::isRead));
+    // leaves are translated as functions of their own unless a budget is given
+    LeafInliner inliner = new LeafInliner(Integer.parseInt(options.getOrDefault("inline", "0")));
+    ImpOptimizer opt = ImpOptimizer.parse(options.getOrDefault("optimize", "none"));
+    // tail duplication is off unless a budget is given
+    int duplicate = Integer.parseInt(options.getOrDefault("duplicate", "0"));
+    Function<SootMethod, P2<MethodTranslation, List<SootMethod>>> translator = m -> this.translate(m, l, types, as, oimpl, cache, inliner, opt, duplicate);
+    if(entries.size() > 1) {
+      Map<SootMethod, P2<MethodTranslation, List<SootMethod>>> translated = new ConcurrentHashMap<>();
+      Function<SootMethod, P2<MethodTranslation, List<SootMethod>>> translateOnce = translator;
+      // the translation of a method never asks for another one, so it can run within computeIfAbsent
+      translator = m -> translated.computeIfAbsent(m, k -> {
+        P2<MethodTranslation, List<SootMethod>> r = translateOnce.apply(k);
+        return P.p(PrintedTranslation.of(r._1()), r._2());
+      });
+    }
+    for(Map.Entry<SootMethod, P2<String, String>> e : entries.entrySet()) {
+      try(ImpWriter w = new ImpWriter(e.getValue()._1(), e.getValue()._2(), Translate.getMangledName(e.getKey()))) {
+        this.transform(e.getKey(), translator, threads, t -> metrics.time("print", () -> w.write(t)));
+      } catch (IOException ex) {
+        throw new UncheckedIOException(ex);
       }
-      as.processClass(sc);
     }
-    Impl oimpl = ObjectModel.Impl.valueOf(options.getOrDefault("model", "mutable").toUpperCase());
-    List<Translate> output = this.transform(mainMethod, as, oimpl);
-    try(PrintStream pw = new PrintStream(new FileOutputStream(new File(options.get("output"))))) {
-      for(Translate t : output) {
-        t.printOn(pw);
+    LibrarySnapshot.save(metrics);
+    if(options.containsKey("metrics")) {
+      metrics.writeReport(options.get("metrics"));
+    }
+    metrics = new Metrics("global");
+  }
+
+  /*
+    The (non-excluded) methods reachable from the entry points; the global analyses only consider these methods and the classes that declare them,
+    rather than everything soot loaded. Unlike soot's reachable methods, this does not include the implicit entry points of the JVM.
+   */
+  Set<SootMethod> methodsInScope(final Collection<SootMethod> entryPoints) {
+    Set<SootMethod> toReturn = new LinkedHashSet<>();
+    ReachableMethods rm = new ReachableMethods(Scene.v().getCallGraph(), entryPoints);
+    rm.update();
+    QueueReader<MethodOrMethodContext> reachable = rm.listener();
+    while(reachable.hasNext()) {
+      SootMethod m = reachable.next().method();
+      if(!Scene.v().isExcluded(m.getDeclaringClass())) {
+        toReturn.add(m);
       }
-      pw.println();
-      pw.printf("{ %s() }\n", Translate.getMangledName(mainMethod));
-    } catch (IOException ignored) {
     }
-    FlagTranslation.outputTo(options.get("flags"));
+    return toReturn;
   }
 
-  private void removeArgVector(final SootMethod main) {
+  /*
+    Drops the bodies simplified so far, which a later translation on the same scene would otherwise reuse. Must be called
+    whenever soot reloads the classes or recomputes the analyses.
+   */
+  synchronized void forgetBodies() {
+    simplified.clear();
+  }
+
+  void removeArgVector(final SootMethod main) {
+    if(main.getParameterCount() == 0) {
+      // already removed by an earlier translation on the same scene
+      return;
+    }
     assert main.getParameterCount() == 1;
     assert main.getParameterType(0).equals(Scene.v().getSootClass("java.lang.String").getType().makeArrayType());
     assert main.isStatic();
@@ -97,36 +237,102 @@ public class Regnant extends Transform {
     main.setParameterTypes(List.of());
   }
 
-  private List<Translate> transform(final SootMethod m, final FieldAliasing as, final Impl oimpl) {
+  private void transform(final SootMethod m, final Function<SootMethod, P2<MethodTranslation, List<SootMethod>>> translator, final int threads,
+      final Consumer<MethodTranslation> sink) {
+    if(threads > 1) {
+      // built lazily by soot, make sure this happens before the translations start querying it
+      Scene.v().getOrMakeFastHierarchy();
+      new ParallelTranslation(threads, translator).run(m, sink);
+      return;
+    }
     ChunkedQueue<SootMethod> worklist = new ChunkedQueue<>();
     QueueReader<SootMethod> reader = worklist.reader();
     worklist.add(m);
     HashSet<SootMethod> visited = new HashSet<>();
-    return this.work(reader, worklist, visited, as, oimpl);
+    this.work(reader, worklist, visited, translator, sink);
   }
 
-  private List<Translate> work(final QueueReader<SootMethod> reader, final ChunkedQueue<SootMethod> worklist, final HashSet<SootMethod> visited, final FieldAliasing as,
-      final Impl oimpl) {
-    StorageLayout l = new StorageLayout(Scene.v().getPointsToAnalysis());
-    List<Translate> toReturn = new ArrayList<>();
+  private void work(final QueueReader<SootMethod> reader, final ChunkedQueue<SootMethod> worklist, final HashSet<SootMethod> visited,
+      final Function<SootMethod, P2<MethodTranslation, List<SootMethod>>> translator, final Consumer<MethodTranslation> sink) {
     while(reader.hasNext()) {
       SootMethod m = reader.next();
       if(!visited.add(m)) {
         continue;
       }
+      P2<MethodTranslation, List<SootMethod>> r = translator.apply(m);
+      sink.accept(r._1());
+      r._2().forEach(worklist::add);
+    }
+  }
+
+  /*
+    Returns the translation of m, along with the callees (in the order) discovered by the translation.
+   */
+  private P2<MethodTranslation, List<SootMethod>> translate(final SootMethod m, final StorageLayout l, final TypeAnalysis types, final FieldAliasing as, final Impl oimpl,
+      final TranslationCache cache, final LeafInliner inliner, final ImpOptimizer opt, final int duplicate) {
+    Metrics mm = metrics.child(m.getSignature());
+    Body simpl;
+    String key = null;
+    /*
+      Body construction and the rewriters create and modify jimple (and consult the bodies of other methods),
+      so only this part runs under the lock; the remainder of the translation only touches method local state.
+     */
+    synchronized(this) {
       System.out.println("Running regnant transformation on: " + m.getSignature());
-      m.retrieveActiveBody();
-      Body simpl = RewriteChain.rewrite(m.getActiveBody());
+      simpl = this.simplify(m, types, mm);
+      inliner.record(m, simpl);
+      String leaves = mm.time("inline.prepare", () -> inliner.prepare(simpl, callee -> this.simplify(callee, types, mm)));
+      String text = simpl.toString();
       System.out.println("Simplified: ");
-      System.out.println(simpl);
-      CFGReconstructor cfg = new CFGReconstructor(simpl);
-      System.out.println(cfg.dump());
+      System.out.println(text);
+      if(cache != null) {
+        key = mm.time("cache.key", () -> cache.keyFor(simpl, text + leaves + "optimize " + opt + "\nduplicate " + duplicate + "\n", l, types, as, oimpl));
+      }
+    }
+    if(cache != null) {
+      String k = key;
+      P2<MethodTranslation, List<SootMethod>> cached = mm.time("cache.lookup", () -> cache.lookup(k, m));
+      if(cached != null) {
+        System.out.println("Replaying cached translation " + key);
+        mm.count("cache-hits", 1);
+        mm.count("flags", cached._1().getFlags().size());
+        return cached;
+      }
+    }
+    ChunkedQueue<SootMethod> worklist = new ChunkedQueue<>();
+    QueueReader<SootMethod> reader = worklist.reader();
+    CFGReconstructor cfg = mm.time("cfg-reconstruction", () -> new CFGReconstructor(new BodyContext(simpl), duplicate));
+    System.out.println(cfg.dump());
 
-      FlagInstrumentation fi = new FlagInstrumentation(cfg);
-      LetBindAllocator bindAlloc = new LetBindAllocator(cfg.getStructure());
-      Translate t = new Translate(simpl, cfg.getReconstructedGraph(), fi, bindAlloc, worklist, l, as, oimpl);
-      toReturn.add(t);
+    FlagInstrumentation fi = mm.time("flag-instrumentation", () -> new FlagInstrumentation(cfg));
+    LetBindAllocator bindAlloc = mm.time("let-bind-allocation", () -> new LetBindAllocator(cfg.getStructure()));
+    Translate t = mm.time("translate", () -> new Translate(simpl, cfg.getReconstructedGraph(), fi, bindAlloc, worklist, l, types, as, oimpl, inliner));
+    mm.count("basic-blocks", cfg.getBlockCount());
+    mm.count("loops", cfg.getLoopCount());
+    mm.count("side-functions", t.getFunctionCount());
+    mm.count("flags", t.getFlags().size());
+    mm.count("removed-bindings", mm.time("optimize", () -> t.optimize(opt)));
+    List<SootMethod> callees = new ArrayList<>();
+    reader.forEachRemaining(callees::add);
+    if(cache != null) {
+      // printed once, for both the cache and the output
+      PrintedTranslation printed = PrintedTranslation.of(t);
+      cache.store(key, printed, callees);
+      return P.p(printed, callees);
     }
-    return toReturn;
+    return P.p(t, callees);
+  }
+
+  /*
+    The simplified body of m. Each body is simplified once per scene, whether it is translated, or only inspected to
+    find the leaves to inline (see LeafInliner). Must be called holding the lock.
+   */
+  private Body simplify(final SootMethod m, final TypeAnalysis types, final Metrics mm) {
+    Body b = simplified.get(m);
+    if(b == null) {
+      b = RewriteChain.rewrite(mm.time("body", m::retrieveActiveBody), types, mm);
+      simplified.put(m, b);
+    }
+    return b;
   }
 }
@@ -0,0 +1,221 @@
+package edu.kyoto.fos.regnant;
+
+import edu.kyoto.fos.regnant.aliasing.FieldAliasing;
+import edu.kyoto.fos.regnant.analysis.TypeAnalysis;
+import edu.kyoto.fos.regnant.storage.oo.StorageLayout;
+import edu.kyoto.fos.regnant.translation.FlagTranslation;
+import edu.kyoto.fos.regnant.translation.MethodTranslation;
+import edu.kyoto.fos.regnant.translation.ObjectModel;
+import edu.kyoto.fos.regnant.translation.PrintedTranslation;
+import edu.kyoto.fos.regnant.translation.Translate;
+import fj.P;
+import fj.P2;
+import soot.Body;
+import soot.FastHierarchy;
+import soot.Local;
+import soot.RefLikeType;
+import soot.RefType;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootField;
+import soot.SootMethod;
+import soot.Type;
+import soot.Unit;
+import soot.Value;
+import soot.ValueBox;
+import soot.jimple.CastExpr;
+import soot.jimple.InstanceFieldRef;
+import soot.jimple.InstanceInvokeExpr;
+import soot.jimple.InstanceOfExpr;
+import soot.jimple.NewExpr;
+import soot.jimple.SpecialInvokeExpr;
+import soot.jimple.StaticFieldRef;
+import soot.jimple.toolkits.callgraph.VirtualCalls;
+import soot.tagkit.Tag;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/*
+  An on disk cache of method translations, enabled with the cache:dir option.
+
+  Entries are addressed by a hash of the simplified body of a method together with every fact outside of that body which
+  the translation consults: the storage layout and aliasing annotations of the accessed fields, the layout and runtime tag of
+  allocated classes, the points to sets of reference locals (with the tags and layouts of their types), the targets of
+  virtual calls, the outcome of casts and instanceof checks, and (with the hybrid object model, where they decide how fields
+  are stored) the writes to fields in the whole program. If none of these changed, the printed functions, the flag
+  predicates and the callees discovered by the translation are replayed from the cache instead of translating the method again.
+ */
+class TranslationCache {
+  private static final String HEADER = "regnant-cache 1";
+  private final Path dir;
+
+  TranslationCache(final String dir) {
+    this.dir = Paths.get(dir);
+    try {
+      Files.createDirectories(this.dir);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  String keyFor(final Body b, final String bodyText, final StorageLayout l, final TypeAnalysis types, final FieldAliasing as, final ObjectModel.Impl oimpl) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(HEADER).append('\n').append(oimpl).append(' ').append(types).append('\n');
+    sb.append(b.getMethod().getSignature()).append(" ").append(b.getMethod().getModifiers()).append('\n');
+    if(oimpl == ObjectModel.Impl.HYBRID) {
+      // the representation of every field depends on the writes in the whole program
+      sb.append("writes ").append(as.describeWrites()).append('\n');
+    }
+    sb.append(bodyText).append('\n');
+    FastHierarchy fh = Scene.v().getOrMakeFastHierarchy();
+    for(Local loc : b.getLocals()) {
+      if(loc.getType() instanceof RefLikeType) {
+        sb.append("pts ").append(loc.getName()).append(' ');
+        sortedTypes(types.reachingObjects(loc).possibleTypes()).forEach(t -> sb.append(describe(t, l)).append(' '));
+        sb.append('\n');
+      }
+    }
+    int i = 0;
+    for(Unit u : b.getUnits()) {
+      sb.append("unit ").append(i++);
+      for(Tag t : u.getTags()) {
+        sb.append(' ').append(t.getName());
+      }
+      sb.append('\n');
+      for(ValueBox vb : u.getUseAndDefBoxes()) {
+        Value v = vb.getValue();
+        if(v instanceof InstanceFieldRef) {
+          SootField f = ((InstanceFieldRef) v).getField();
+          sb.append("field ").append(f.getSignature()).append(' ').append(l.describe(f)).append(' ').append(as.isFinal(f));
+          as.getAutoAliasing(f).forEach(p -> sb.append(" alias ").append(describe(p._1(), l)).append(" = ").append(describe(p._2(), l)));
+          sb.append('\n');
+        } else if(v instanceof StaticFieldRef) {
+          SootField f = ((StaticFieldRef) v).getField();
+          sb.append("static ").append(f.getSignature()).append(' ').append(f.getTag("IntegerConstantValueTag")).append('\n');
+        } else if(v instanceof NewExpr) {
+          sb.append("new ").append(describe(((NewExpr) v).getBaseType(), l)).append('\n');
+        } else if(v instanceof CastExpr || v instanceof InstanceOfExpr) {
+          Value op = v instanceof CastExpr ? ((CastExpr) v).getOp() : ((InstanceOfExpr) v).getOp();
+          Type ty = v instanceof CastExpr ? ((CastExpr) v).getCastType() : ((InstanceOfExpr) v).getCheckType();
+          if(op instanceof Local) {
+            sb.append("check ").append(ty);
+            sortedTypes(types.reachingObjects((Local) op).possibleTypes()).stream().filter(t -> fh.canStoreType(t, ty)).forEach(t -> sb.append(' ').append(t));
+            sb.append('\n');
+          }
+        } else if(v instanceof InstanceInvokeExpr && !(v instanceof SpecialInvokeExpr)) {
+          InstanceInvokeExpr inv = (InstanceInvokeExpr) v;
+          sb.append("call");
+          synchronized(VirtualCalls.v()) {
+            sortedTypes(types.reachingObjects((Local) inv.getBase()).possibleTypes()).stream().filter(RefType.class::isInstance).forEach(t ->
+                sb.append(' ').append(t).append("->").append(VirtualCalls.v().resolveNonSpecial((RefType) t, inv.getMethodRef().getSubSignature(), false)));
+          }
+          sb.append('\n');
+        }
+      }
+    }
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(sb.toString().getBytes(StandardCharsets.UTF_8));
+      return String.format("%064x", new BigInteger(1, digest));
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static List<Type> sortedTypes(final Set<Type> types) {
+    return types.stream().sorted((t1, t2) -> t1.toString().compareTo(t2.toString())).collect(Collectors.toList());
+  }
+
+  private static String describe(final Type t, final StorageLayout l) {
+    if(!(t instanceof RefType)) {
+      return t.toString();
+    }
+    SootClass kls = ((RefType) t).getSootClass();
+    return t + "#" + l.runtimeTag(kls) + ":" + l.describe(kls);
+  }
+
+  private static String describe(final List<SootField> fields, final StorageLayout l) {
+    return fields.stream().map(f -> f.getSignature() + ":" + l.describe(f)).collect(Collectors.joining(".", "[", "]"));
+  }
+
+  /*
+    Returns the cached translation for key and the callees it discovered, or null if there is none.
+   */
+  P2<MethodTranslation, List<SootMethod>> lookup(final String key, final SootMethod m) {
+    String text;
+    FlagTranslation flags;
+    List<SootMethod> callees = new ArrayList<>();
+    try(BufferedReader r = Files.newBufferedReader(this.entry(key), StandardCharsets.UTF_8)) {
+      if(!HEADER.equals(r.readLine())) {
+        return null;
+      }
+      int nCallees = Integer.parseInt(r.readLine());
+      for(int i = 0; i < nCallees; i++) {
+        callees.add(Scene.v().getMethod(r.readLine()));
+      }
+      int nFlags = Integer.parseInt(r.readLine());
+      List<String> flagLines = new ArrayList<>();
+      for(int i = 0; i < nFlags; i++) {
+        flagLines.add(r.readLine());
+      }
+      flags = FlagTranslation.parse(Translate.getMangledName(m), flagLines);
+      StringBuilder sb = new StringBuilder();
+      char[] buf = new char[8192];
+      int read;
+      while((read = r.read(buf)) != -1) {
+        sb.append(buf, 0, read);
+      }
+      text = sb.toString();
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (IOException | RuntimeException e) {
+      // a truncated entry, or one naming a method that is gone; in either case, translate again
+      System.out.println("Ignoring unreadable cache entry " + key + ": " + e);
+      return null;
+    }
+    return P.p(new PrintedTranslation(text, flags), callees);
+  }
+
+  void store(final String key, final MethodTranslation t, final List<SootMethod> callees) {
+    ByteArrayOutputStream flagBytes = new ByteArrayOutputStream();
+    try(PrintStream ps = new PrintStream(flagBytes, true, StandardCharsets.UTF_8)) {
+      t.getFlags().printOn(ps);
+    }
+    String flagText = flagBytes.toString(StandardCharsets.UTF_8);
+    StringBuilder sb = new StringBuilder();
+    sb.append(HEADER).append('\n');
+    sb.append(callees.size()).append('\n');
+    callees.forEach(m -> sb.append(m.getSignature()).append('\n'));
+    sb.append(flagText.lines().count()).append('\n');
+    sb.append(flagText);
+    try {
+      t.printOn(sb);
+      // written to the side and moved into place, so concurrent translations never see a partial entry
+      Path tmp = Files.createTempFile(dir, key, ".tmp");
+      Files.writeString(tmp, sb, StandardCharsets.UTF_8);
+      Files.move(tmp, this.entry(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      System.out.println("Could not write cache entry " + key + ": " + e);
+    }
+  }
+
+  private Path entry(final String key) {
+    return dir.resolve(key + ".imp");
+  }
+}
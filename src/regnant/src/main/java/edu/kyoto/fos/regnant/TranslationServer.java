@@ -0,0 +1,266 @@
+package edu.kyoto.fos.regnant;
+
+import fj.P;
+import soot.EntryPoints;
+import soot.G;
+import soot.Main;
+import soot.PackManager;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootMethod;
+import soot.SourceLocator;
+import soot.options.Options;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+  A long lived translation server, started with regnant --server [port].
+
+  Requests are read one per line, from stdin or (if a port is given) from connections to that port on the loopback interface.
+  Each request has the form:
+
+    app-classpath library-classpath entry-class regnant-options
+
+  where regnant-options are the options otherwise given to the wjtp.regnant phase (enabled:true,output:...,flags:...).
+  Each request is answered with a single line, either "ok" or "error" followed by a message. (Stdout is reserved
+  for these responses, the translation's debug output goes to stderr.)
+
+  Soot is run with the arguments regnant.py passes for the analysis option of the request (see Regnant.sootArguments), and
+  the snapshot directory the server was started with (regnant --snapshot dir --server).
+
+  The Scene is kept between requests. Under spark (the default analysis), the call graph and points to analysis cover the
+  programs of every class with a main method on the application classpath, as in a batch translation (see BatchTranslation),
+  and are kept, along with the simplified bodies, for later requests with the same classpaths and analysis, as long as the
+  files of the application classpath are unchanged (by size and modification time). SPARK cannot update its analysis
+  incrementally, so otherwise, if the library classpath and soot arguments are unchanged, the classes loaded from the
+  previous application classpath are dropped, the new application classes are resolved on top of the already loaded library
+  classes, and the call graph and points to analysis are recomputed. (Under the other analyses, which soot's call graph does
+  not depend on, this is done for each request, with the entry class only.) Otherwise (or if the previous request failed)
+  soot is reset and the scene is built from scratch.
+ */
+public class TranslationServer {
+  private final Regnant regnant = new Regnant();
+  private String libraryPath = null;
+  private List<String> sootArguments = null;
+  private String appPath = null;
+  // the size and modification time of each file of the application classpath when its classes were loaded
+  private String appStamp = null;
+  private List<String> appClasses = new ArrayList<>();
+  // the main methods of the programs covered by the call graph and points to analysis, by class
+  private Map<String, SootMethod> mains = new HashMap<>();
+
+  public static void main(final String[] args) throws IOException {
+    PrintStream out = System.out;
+    System.setOut(System.err);
+    TranslationServer server = new TranslationServer();
+    if(args.length == 0) {
+      server.serve(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)), new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), true));
+      return;
+    }
+    try(ServerSocket sock = new ServerSocket(Integer.parseInt(args[0]), 50, InetAddress.getLoopbackAddress())) {
+      while(true) {
+        try(Socket client = sock.accept()) {
+          server.serve(new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8)),
+              new PrintWriter(new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8), true));
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+  }
+
+  private void serve(final BufferedReader in, final PrintWriter out) throws IOException {
+    String line;
+    while((line = in.readLine()) != null) {
+      if(line.isBlank()) {
+        continue;
+      }
+      try {
+        this.handle(line.trim().split("\\s+"));
+        out.println("ok");
+      } catch(RuntimeException | AssertionError e) {
+        e.printStackTrace();
+        // the scene may be in any state, start from scratch next time
+        libraryPath = null;
+        out.println("error " + e.toString().replace('\n', ' '));
+      }
+    }
+  }
+
+  private void handle(final String[] request) {
+    if(request.length != 4) {
+      throw new IllegalArgumentException("Expected: app-classpath library-classpath entry-class regnant-options");
+    }
+    String entry = request[2];
+    Map<String, String> options = parseOptions(request[3]);
+    String analysis = options.getOrDefault("analysis", "spark");
+    List<String> args = Regnant.sootArguments(analysis);
+    boolean shared = analysis.startsWith("spark");
+    String stamp = stamp(request[0]);
+    if(!shared || !request[1].equals(libraryPath) || !args.equals(sootArguments) || !request[0].equals(appPath) ||
+        !stamp.equals(appStamp) || !mains.containsKey(entry)) {
+      regnant.forgetBodies();
+      mains = new HashMap<>();
+      Metrics metrics = regnant.metrics();
+      List<String> entries = shared ? getClassesUnder(request[0]) : List.of(entry);
+      metrics.time("soot.load-classes", () -> {
+        if(request[1].equals(libraryPath) && args.equals(sootArguments)) {
+          this.reload(request[0], entries);
+        } else {
+          coldStart(request[0], request[1], args, entries);
+        }
+      });
+      libraryPath = request[1];
+      sootArguments = args;
+      appPath = request[0];
+      appStamp = stamp;
+      appClasses = getClassesUnder(appPath);
+
+      Scene.v().setMainClass(Scene.v().getSootClass(entry));
+      mains = shared ? setEntryPoints(entries) : Map.of(entry, Scene.v().getMainMethod());
+      metrics.time("soot.call-graph", () -> {
+        PackManager.v().getPack("wjpp").apply();
+        PackManager.v().getPack("cg").apply();
+      });
+    }
+    if(!mains.containsKey(entry)) {
+      throw new IllegalArgumentException("No main method in " + entry);
+    }
+    regnant.translateEntries(Map.of(mains.get(entry), P.p(options.get("output"), options.get("flags"))), options);
+  }
+
+  /*
+    Resets soot and loads the given classes, with the soot arguments given (see Regnant.sootArguments).
+   */
+  static void coldStart(final String appPath, final String libPath, final List<String> sootArguments, final List<String> entries) {
+    G.reset();
+    Regnant.setUpSoot();
+    List<String> args = new ArrayList<>(sootArguments);
+    args.addAll(List.of("-soot-class-path", appPath + File.pathSeparator + libPath));
+    args.addAll(entries);
+    if(!Options.v().parse(args.toArray(new String[0]))) {
+      throw new IllegalArgumentException("Could not parse soot options");
+    }
+    Main.v().autoSetOptions();
+    Scene.v().loadNecessaryClasses();
+  }
+
+  /*
+    Makes the main methods (and static initializers) of the given classes, besides the implicit entry points of the JVM,
+    the entry points of the call graph. Returns the main methods, by class.
+   */
+  static Map<String, SootMethod> setEntryPoints(final Collection<String> classes) {
+    List<SootMethod> entryPoints = new ArrayList<>(EntryPoints.v().implicit());
+    Map<String, SootMethod> toReturn = new HashMap<>();
+    for(String name : classes) {
+      SootClass cls = Scene.v().getSootClass(name);
+      SootMethod main = cls.getMethodUnsafe("void main(java.lang.String[])");
+      if(main == null || !main.isStatic()) {
+        continue;
+      }
+      toReturn.put(name, main);
+      entryPoints.add(main);
+      EntryPoints.v().clinitsOf(cls).forEach(entryPoints::add);
+    }
+    Scene.v().setEntryPoints(entryPoints);
+    return toReturn;
+  }
+
+  private void reload(final String appPath, final List<String> entries) {
+    Scene scene = Scene.v();
+    List<String> removed = new ArrayList<>();
+    List<String> toRemove = new ArrayList<>(appClasses);
+    // also the classes the previous program referenced but did not define
+    toRemove.addAll(getClassesUnder(appPath));
+    for(String name : toRemove) {
+      if(scene.containsClass(name)) {
+        scene.removeClass(scene.getSootClass(name));
+        removed.add(name);
+      }
+    }
+    scene.releaseCallGraph();
+    scene.releasePointsToAnalysis();
+    scene.releaseReachableMethods();
+    scene.releaseFastHierarchy();
+    scene.releaseActiveHierarchy();
+    scene.setEntryPoints(null);
+    G.v().resetSpark();
+
+    String classPath = appPath + File.pathSeparator + libraryPath;
+    Options.v().set_soot_classpath(classPath);
+    scene.setSootClassPath(classPath);
+    Options.v().classes().clear();
+    Options.v().classes().addAll(entries);
+    // the scene is already done resolving, so the new classes have to be resolved explicitly
+    entries.forEach(e -> scene.forceResolve(e, SootClass.BODIES));
+    scene.loadNecessaryClasses();
+    /*
+      The types of the removed classes are still known to the scene, and looking up their class later (as the alias insertion
+      does for the runtime classes) would add it to the scene again, discarding the points to analysis. Instead, bind those
+      not loaded by the new program to phantom classes now, which is what such a lookup would have produced in a fresh scene.
+     */
+    for(String name : removed) {
+      if(!scene.containsClass(name)) {
+        SootClass phantom = new SootClass(name);
+        scene.addClass(phantom);
+        phantom.setPhantomClass();
+      }
+    }
+  }
+
+  private static List<String> getClassesUnder(final String path) {
+    List<String> toReturn = new ArrayList<>();
+    for(String p : path.split(File.pathSeparator)) {
+      toReturn.addAll(SourceLocator.v().getClassesUnder(p));
+    }
+    return toReturn;
+  }
+
+  /*
+    The path, size and modification time of each file under the given classpath
+   */
+  private static String stamp(final String path) {
+    List<String> toReturn = new ArrayList<>();
+    for(String p : path.split(File.pathSeparator)) {
+      try(Stream<Path> files = Files.walk(Paths.get(p))) {
+        for(Path f : files.filter(Files::isRegularFile).collect(Collectors.toList())) {
+          toReturn.add(f + " " + Files.size(f) + " " + Files.getLastModifiedTime(f).toMillis());
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    toReturn.sort(null);
+    return String.join("\n", toReturn);
+  }
+
+  static Map<String, String> parseOptions(final String opts) {
+    Map<String, String> toReturn = new HashMap<>();
+    for(String kv : opts.split(",")) {
+      String[] split = kv.split(":", 2);
+      toReturn.put(split[0], split.length == 2 ? split[1] : "");
+    }
+    return toReturn;
+  }
+}
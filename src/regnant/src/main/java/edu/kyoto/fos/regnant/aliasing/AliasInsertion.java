@@ -1,5 +1,6 @@
 package edu.kyoto.fos.regnant.aliasing;
 
+import edu.kyoto.fos.regnant.analysis.TypeAnalysis;
 import edu.kyoto.fos.regnant.translation.Translate;
 import fj.P;
 import fj.P2;
@@ -98,8 +99,11 @@ public class AliasInsertion {
     }
   }
   private static class SimpleMustAliasAnalysis extends ForwardFlowAnalysis<Unit, Map<Val, Integer>> {
-    public SimpleMustAliasAnalysis(final DirectedGraph<Unit> graph) {
+    private final TypeAnalysis types;
+
+    public SimpleMustAliasAnalysis(final DirectedGraph<Unit> graph, final TypeAnalysis types) {
       super(graph);
+      this.types = types;
       this.doAnalysis();
     }
 
@@ -165,7 +169,7 @@ public class AliasInsertion {
               InstanceFieldRef ifr = (InstanceFieldRef) lhs;
               Local base = (Local) ifr.getBase();
               Loc baseKey = new Loc(base);
-              PointsToSet basePts = Scene.v().getPointsToAnalysis().reachingObjects(base);
+              PointsToSet basePts = types.reachingObjects(base);
               assert out.containsKey(baseKey);
               FieldRef write = new FieldRef(out.get(baseKey), ifr.getField(), basePts);
               out.put(write, newVal);
@@ -213,7 +217,7 @@ public class AliasInsertion {
       } else if(rhs instanceof InstanceFieldRef) {
         InstanceFieldRef ifr = (InstanceFieldRef) rhs;
         int i = getValueNumber(env, ifr.getBase());
-        return env.computeIfAbsent(new FieldRef(i, ifr.getField(), Scene.v().getPointsToAnalysis().reachingObjects((Local) ifr.getBase())), ign -> valueNumber++);
+        return env.computeIfAbsent(new FieldRef(i, ifr.getField(), types.reachingObjects((Local) ifr.getBase())), ign -> valueNumber++);
       } else {
         return rhsNumber.computeIfAbsent(rhs, ign -> valueNumber++);
       }
@@ -266,9 +270,9 @@ public class AliasInsertion {
     }
   }
 
-  public static Body rewrite(final Body body) {
+  public static Body rewrite(final Body body, final TypeAnalysis types) {
     UnitGraph ug = new BriefUnitGraph(body);
-    SimpleMustAliasAnalysis mustAlias = new SimpleMustAliasAnalysis(ug);
+    SimpleMustAliasAnalysis mustAlias = new SimpleMustAliasAnalysis(ug, types);
 
     Map<Local, P2<InstanceFieldRef, Stmt>> singleDef = new HashMap<>();
     Map<Local, Stmt> singleUse = new HashMap<>();
@@ -1,11 +1,22 @@
 package edu.kyoto.fos.regnant.aliasing;
 
+import edu.kyoto.fos.regnant.translation.Translate;
 import fj.P;
 import fj.P2;
+import soot.Body;
+import soot.Local;
 import soot.RefLikeType;
 import soot.RefType;
 import soot.SootClass;
 import soot.SootField;
+import soot.SootMethod;
+import soot.Unit;
+import soot.Value;
+import soot.ValueBox;
+import soot.jimple.InstanceFieldRef;
+import soot.jimple.InvokeExpr;
+import soot.jimple.Stmt;
+import soot.jimple.StringConstant;
 import soot.tagkit.AnnotationArrayElem;
 import soot.tagkit.AnnotationConstants;
 import soot.tagkit.AnnotationStringElem;
@@ -18,12 +29,17 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 
 public class FieldAliasing {
   private Map<SootField,List<List<SootField>>> autoAlias = new HashMap<>();
   private Map<SootField, P2<SootField, SootField>> reverseAlias = new HashMap<>();
   private Set<SootField> finalFields = new HashSet<>();
+  // the number of writes to each field after the construction of its object (see processWrites)
+  private Map<SootField, Integer> laterWrites = new HashMap<>();
+  // the fields read in some method (see processReads)
+  private Set<SootField> readFields = new HashSet<>();
 
   public FieldAliasing() {
 
@@ -45,6 +61,84 @@ public class FieldAliasing {
     return toReturn;
   }
 
+  public int writesAfterConstruction(SootField f) {
+    return laterWrites.getOrDefault(f, 0);
+  }
+
+  /*
+    Counts the writes to fields in the body of m, except the writes to the fields of this in the constructors of the class
+    declaring the field, which initialize the object.
+   */
+  public void processWrites(SootMethod m) {
+    if(!m.isConcrete()) {
+      return;
+    }
+    Body b = m.retrieveActiveBody();
+    Local self = m.isStatic() ? null : b.getThisLocal();
+    for(Unit u : b.getUnits()) {
+      for(ValueBox vb : u.getDefBoxes()) {
+        if(!(vb.getValue() instanceof InstanceFieldRef)) {
+          continue;
+        }
+        InstanceFieldRef ref = (InstanceFieldRef) vb.getValue();
+        SootField f = ref.getField();
+        if(!m.isConstructor() || !m.getDeclaringClass().equals(f.getDeclaringClass()) || ref.getBase() != self) {
+          laterWrites.merge(f, 1, Integer::sum);
+        }
+      }
+    }
+  }
+
+  /*
+    Whether f may be read: by a field read found by processReads, an alias intrinsic, or the automatic aliasing of a must alias annotation.
+   */
+  public boolean isRead(SootField f) {
+    return readFields.contains(f) || finalFields.contains(f);
+  }
+
+  /*
+    Records the fields read in the body of m, or named in a call to the alias intrinsic alias(x, y, "f").
+   */
+  public void processReads(SootMethod m) {
+    if(!m.isConcrete()) {
+      return;
+    }
+    for(Unit u : m.retrieveActiveBody().getUnits()) {
+      for(ValueBox vb : u.getUseBoxes()) {
+        if(vb.getValue() instanceof InstanceFieldRef) {
+          readFields.add(((InstanceFieldRef) vb.getValue()).getField());
+        }
+      }
+      if(!((Stmt) u).containsInvokeExpr()) {
+        continue;
+      }
+      InvokeExpr call = ((Stmt) u).getInvokeExpr();
+      if(!call.getMethodRef().getDeclaringClass().getName().equals(Translate.ALIASING_CLASS) || call.getArgCount() != 3) {
+        continue;
+      }
+      Value base = call.getArg(1);
+      Value name = call.getArg(2);
+      if(!(base.getType() instanceof RefType) || !(name instanceof StringConstant)) {
+        continue;
+      }
+      for(SootClass k = ((RefType) base.getType()).getSootClass(); k != null; k = k.hasSuperclass() ? k.getSuperclass() : null) {
+        if(k.declaresFieldByName(((StringConstant) name).value)) {
+          readFields.add(k.getFieldByName(((StringConstant) name).value));
+          break;
+        }
+      }
+    }
+  }
+
+  /*
+    The writes counted by processWrites, by field signature
+   */
+  public String describeWrites() {
+    Map<String, Integer> bySig = new TreeMap<>();
+    laterWrites.forEach((f, n) -> bySig.put(f.getSignature(), n));
+    return bySig.toString();
+  }
+
   public void processClass(SootClass c) {
     c.getFields().forEach(f -> {
       f.getTags().stream()
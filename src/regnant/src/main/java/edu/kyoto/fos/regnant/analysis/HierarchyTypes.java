@@ -0,0 +1,130 @@
+package edu.kyoto.fos.regnant.analysis;
+
+import edu.kyoto.fos.regnant.translation.Translate;
+import soot.ArrayType;
+import soot.Body;
+import soot.FastHierarchy;
+import soot.Local;
+import soot.PointsToSet;
+import soot.RefLikeType;
+import soot.RefType;
+import soot.Scene;
+import soot.SootClass;
+import soot.SootField;
+import soot.SootMethod;
+import soot.Type;
+import soot.ValueBox;
+import soot.jimple.ClassConstant;
+import soot.jimple.FieldRef;
+import soot.jimple.NewExpr;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+  Types from the class hierarchy alone: a local (or field) may hold any candidate class compatible with its static type.
+  With rta the candidates are the classes allocated by the methods in scope, otherwise (cha) they also include every
+  concrete class declaring a method in scope (which, as the call graph is built by CHA, includes every implementation of
+  each method called).
+ */
+class HierarchyTypes implements TypeAnalysis {
+  private final boolean rta;
+  private final Set<SootMethod> inScope;
+  // in order of class number, to give the same iteration order as the points to sets of spark
+  private final List<RefType> candidates;
+  private final Map<Type, TypeSet> byStaticType = new ConcurrentHashMap<>();
+
+  HierarchyTypes(final Set<SootMethod> inScope, final boolean rta) {
+    this.rta = rta;
+    this.inScope = inScope;
+    Set<SootClass> classes = new TreeSet<>(Comparator.comparingInt(SootClass::getNumber));
+    concreteBodies(inScope).forEach(m -> m.getActiveBody().getUnits().forEach(u -> {
+      for(ValueBox vb : u.getUseBoxes()) {
+        if(vb.getValue() instanceof NewExpr) {
+          classes.add(((NewExpr) vb.getValue()).getBaseType().getSootClass());
+        }
+      }
+    }));
+    if(!rta) {
+      inScope.stream().map(SootMethod::getDeclaringClass).filter(SootClass::isConcrete).forEach(classes::add);
+    }
+    this.candidates = classes.stream().map(SootClass::getType).collect(Collectors.toList());
+    // built lazily by soot, so make sure this happens before any concurrent queries
+    Scene.v().getOrMakeFastHierarchy();
+  }
+
+  private static Stream<SootMethod> concreteBodies(final Set<SootMethod> methods) {
+    return methods.stream().filter(SootMethod::isConcrete).peek(SootMethod::retrieveActiveBody);
+  }
+
+  private TypeSet typesOf(final Type staticType) {
+    return byStaticType.computeIfAbsent(staticType, ty -> {
+      if(ty instanceof ArrayType) {
+        return new TypeSet(Set.of(ty));
+      } else if(!(ty instanceof RefType) || ((RefType) ty).getSootClass().isPhantom()) {
+        return new TypeSet(Set.of());
+      }
+      FastHierarchy fh = Scene.v().getOrMakeFastHierarchy();
+      return new TypeSet(candidates.stream().filter(c -> fh.canStoreType(c, ty)).collect(Collectors.toCollection(LinkedHashSet::new)));
+    });
+  }
+
+  @Override public PointsToSet reachingObjects(final Local l) {
+    return typesOf(l.getType());
+  }
+
+  /*
+    Every reference local of a method in scope, and every reference field accessed by one.
+   */
+  @Override public Stream<Set<Type>> sharedLocations(final Predicate<SootMethod> inScope) {
+    List<Body> bodies = concreteBodies(this.inScope).filter(inScope)
+        // as with spark, the parameters of the aliasing intrinsics do not unify their arguments
+        .filter(m -> !m.getDeclaringClass().getName().equals(Translate.ALIASING_CLASS))
+        .map(SootMethod::getActiveBody).collect(Collectors.toList());
+    Stream<Type> locals = bodies.stream().flatMap(b -> b.getLocals().stream()).map(Local::getType);
+    Stream<Type> fields = bodies.stream().flatMap(b -> b.getUseAndDefBoxes().stream()).map(ValueBox::getValue)
+        .filter(FieldRef.class::isInstance).map(v -> ((FieldRef) v).getField()).distinct().map(SootField::getType);
+    return Stream.concat(locals, fields).filter(RefLikeType.class::isInstance).map(ty -> typesOf(ty).possibleTypes());
+  }
+
+  @Override public String toString() {
+    return rta ? "rta" : "cha";
+  }
+
+  private static class TypeSet implements PointsToSet {
+    private final Set<Type> types;
+
+    TypeSet(final Set<Type> types) {
+      this.types = Collections.unmodifiableSet(types);
+    }
+
+    @Override public boolean isEmpty() {
+      return types.isEmpty();
+    }
+
+    @Override public boolean hasNonEmptyIntersection(final PointsToSet other) {
+      return other.possibleTypes().stream().anyMatch(types::contains);
+    }
+
+    @Override public Set<Type> possibleTypes() {
+      return types;
+    }
+
+    @Override public Set<String> possibleStringConstants() {
+      return null;
+    }
+
+    @Override public Set<ClassConstant> possibleClassConstants() {
+      return null;
+    }
+  }
+}
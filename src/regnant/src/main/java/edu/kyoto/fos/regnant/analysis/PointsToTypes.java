@@ -0,0 +1,67 @@
+package edu.kyoto.fos.regnant.analysis;
+
+import edu.kyoto.fos.regnant.translation.Translate;
+import soot.Local;
+import soot.PointsToSet;
+import soot.Scene;
+import soot.SootField;
+import soot.SootMethod;
+import soot.Type;
+import soot.jimple.spark.pag.GlobalVarNode;
+import soot.jimple.spark.pag.LocalVarNode;
+import soot.jimple.spark.pag.Node;
+import soot.jimple.spark.pag.PAG;
+
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/*
+  Types from SPARK's pointer assignment graph.
+ */
+class PointsToTypes implements TypeAnalysis {
+  private final PAG pag;
+
+  PointsToTypes(final PAG pag) {
+    this.pag = pag;
+  }
+
+  @Override public PointsToSet reachingObjects(final Local l) {
+    return pag.reachingObjects(l);
+  }
+
+  /*
+    The fields of every abstract object allocated in scope, and the sources of the simple assignments in scope or to a static
+    field of the program.
+   */
+  @Override public Stream<Set<Type>> sharedLocations(final Predicate<SootMethod> inScope) {
+    return Stream.concat(
+        pag.allocSources().stream().filter(n -> n.getMethod() != null && inScope.test(n.getMethod())).flatMap(n -> n.getAllFieldRefs().stream()),
+        pag.simpleInvSources().stream()
+    ).filter(adf -> isShared(adf, inScope)).map(adf -> adf.getP2Set().possibleTypes());
+  }
+
+  private static boolean isShared(final Node adf, final Predicate<SootMethod> inScope) {
+    if(adf instanceof LocalVarNode) {
+      LocalVarNode vn = (LocalVarNode) adf;
+      if(vn.isInterProcTarget() && vn.getMethod().getDeclaringClass().getName().equals(Translate.ALIASING_CLASS)) {
+        return false;
+      }
+    }
+    if(adf instanceof LocalVarNode) {
+      LocalVarNode varNode = (LocalVarNode) adf;
+      if(varNode.getMethod().getDeclaringClass().getName().equals("java.lang.Object") || !inScope.test(varNode.getMethod())) {
+        return false;
+      }
+    }
+    if(adf instanceof GlobalVarNode) {
+      Object v = ((GlobalVarNode) adf).getVariable();
+      return v instanceof SootField && !Scene.v().isExcluded(((SootField) v).getDeclaringClass());
+    }
+    return true;
+  }
+
+  @Override public String toString() {
+    return "spark";
+  }
+}
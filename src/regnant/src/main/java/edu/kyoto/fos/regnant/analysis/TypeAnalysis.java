@@ -0,0 +1,100 @@
+package edu.kyoto.fos.regnant.analysis;
+
+import soot.Local;
+import soot.PhaseOptions;
+import soot.PointsToSet;
+import soot.RefType;
+import soot.Scene;
+import soot.SootMethod;
+import soot.Type;
+import soot.Unit;
+import soot.ValueBox;
+import soot.jimple.InstanceInvokeExpr;
+import soot.jimple.SpecialInvokeExpr;
+import soot.jimple.spark.SparkTransformer;
+import soot.jimple.spark.pag.PAG;
+import soot.jimple.toolkits.callgraph.VirtualCalls;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/*
+  The type information consumed by the translation: what objects a local may point to, and which types may be stored in
+  the same location (and so must share a representation). Regnant can compute these with analyses of increasing cost
+  and precision, selected with the analysis option:
+
+    cha: every concrete program class compatible with the static type
+    rta: only those classes which are allocated in a reachable method
+    spark: the points to analysis of SPARK (run on demand, unless soot already ran it in the cg pack). Whether it also
+      analyzes the JCL depends on whether soot loaded the bodies of the excluded classes (spark-full is the same analysis,
+      with the soot arguments loading them, see Regnant.sootArguments).
+    auto: the cheapest of the above under which every virtual call site in the program has a unique target
+
+  SPARK, if run here, replaces the call graph soot built (with CHA) by its own; methods reachable in the former should be requeried afterwards.
+ */
+public interface TypeAnalysis {
+  PointsToSet reachingObjects(Local l);
+
+  /*
+    The sets of types that may be stored in a common location (a local, a field, etc.) of the methods in scope.
+   */
+  Stream<Set<Type>> sharedLocations(Predicate<SootMethod> inScope);
+
+  static TypeAnalysis forMode(final String mode, final Set<SootMethod> inScope) {
+    switch(mode) {
+      case "cha":
+        return new HierarchyTypes(inScope, false);
+      case "rta":
+        return new HierarchyTypes(inScope, true);
+      case "spark":
+      case "spark-full":
+        return spark();
+      case "auto":
+        for(TypeAnalysis ta : new TypeAnalysis[]{new HierarchyTypes(inScope, false), new HierarchyTypes(inScope, true)}) {
+          if(hasUniqueDispatch(ta, inScope)) {
+            System.out.println("Using analysis " + ta);
+            return ta;
+          }
+        }
+        return spark();
+      default:
+        throw new IllegalArgumentException("Unknown analysis " + mode);
+    }
+  }
+
+  private static TypeAnalysis spark() {
+    if(!(Scene.v().getPointsToAnalysis() instanceof PAG)) {
+      Map<String, String> opts = new HashMap<>(PhaseOptions.v().getPhaseOptions("cg.spark"));
+      opts.put("enabled", "true");
+      SparkTransformer.v().transform("cg.spark", opts);
+    }
+    return new PointsToTypes((PAG) Scene.v().getPointsToAnalysis());
+  }
+
+  private static boolean hasUniqueDispatch(final TypeAnalysis ta, final Set<SootMethod> inScope) {
+    for(SootMethod m : inScope) {
+      if(!m.isConcrete()) {
+        continue;
+      }
+      for(Unit u : m.retrieveActiveBody().getUnits()) {
+        for(ValueBox vb : u.getUseBoxes()) {
+          if(!(vb.getValue() instanceof InstanceInvokeExpr) || vb.getValue() instanceof SpecialInvokeExpr) {
+            continue;
+          }
+          InstanceInvokeExpr inv = (InstanceInvokeExpr) vb.getValue();
+          long targets = ta.reachingObjects((Local) inv.getBase()).possibleTypes().stream()
+              .filter(RefType.class::isInstance)
+              .map(t -> VirtualCalls.v().resolveNonSpecial((RefType) t, inv.getMethodRef().getSubSignature(), false))
+              .distinct().count();
+          if(targets > 1) {
+            return false;
+          }
+        }
+      }
+    }
+    return true;
+  }
+}
@@ -1,7 +1,9 @@
 package edu.kyoto.fos.regnant.cfg;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
+import java.util.Optional;
 
 public class AnnotatedBasicBlockGraph {
   private final BasicBlockGraph bbg;
@@ -13,20 +15,20 @@ public class AnnotatedBasicBlockGraph {
   }
 
   public List<AnnotatedEdge> getSucc(BasicBlock b) {
-    List<Loop> currLoops = this.lt.containingLoops(b);
+    BitSet currLoops = this.lt.containingLoops(b);
     List<AnnotatedEdge> toReturn = new ArrayList<>();
-    for(BasicBlock succ : bbg.getSuccsOf(b)) {
-      List<Loop> succLoops = this.lt.containingLoops(succ);
-      final List<Loop> cont = new ArrayList<>();
+    for(int e = bbg.succBegin(b.getId()); e < bbg.succEnd(b.getId()); e++) {
+      int s = bbg.succAt(e);
+      BitSet succLoops = this.lt.containingLoops(bbg.getBlock(s));
+      // a jump to the header of a loop containing b continues it
+      final Optional<Loop> cont = currLoops.get(s) ? Optional.of(this.lt.getLoop(s)) : Optional.empty();
       final List<Loop> brk = new ArrayList<>();
-      succLoops.forEach(sl ->{
-        if(currLoops.contains(sl) && sl.getHeader().equals(succ)) {
-          cont.add(sl);
+      for(int h = currLoops.nextSetBit(0); h >= 0; h = currLoops.nextSetBit(h + 1)) {
+        if(!succLoops.get(h)) {
+          brk.add(this.lt.getLoop(h));
         }
-      });
-      currLoops.stream().filter(l -> !succLoops.contains(l)).forEach(brk::add);
-      assert (cont.size() <= 1);
-      toReturn.add(new AnnotatedEdge(brk, cont.stream().findFirst(), succ));
+      }
+      toReturn.add(new AnnotatedEdge(brk, cont, bbg.getBlock(s)));
     }
     return toReturn;
   }
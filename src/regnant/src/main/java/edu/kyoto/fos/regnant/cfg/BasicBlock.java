@@ -5,12 +5,12 @@ import soot.Unit;
 import java.util.List;
 
 public final class BasicBlock implements Comparable<BasicBlock> {
-  public static int idCounter = 0;
-  public final int id = idCounter++;
+  public final int id;
 
   public final List<Unit> units;
 
-  public BasicBlock(List<Unit> units) {
+  public BasicBlock(int id, List<Unit> units) {
+    this.id = id;
     this.units = units;
   }
 
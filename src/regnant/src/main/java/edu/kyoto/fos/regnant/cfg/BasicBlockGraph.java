@@ -3,51 +3,119 @@ package edu.kyoto.fos.regnant.cfg;
 import soot.Unit;
 import soot.toolkits.graph.DirectedGraph;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+/*
+  The graph over basic blocks, built once from the unit graph. Blocks are numbered by their (dense) ids, and the edges are
+  kept in compressed sparse row form: the successors of block i are succAt(succBegin(i)) ... succAt(succEnd(i) - 1), in the
+  order the unit graph gives them, and similarly for the predecessors. The analyses over the blocks use these directly; the
+  DirectedGraph interface is for soot.
+ */
 public class BasicBlockGraph implements DirectedGraph<BasicBlock> {
-  private final DirectedGraph<Unit> ug;
   private final BasicBlockMapper bbm;
+  private final int[] heads;
+  private final int[] tails;
+  private final int[] succStart;
+  private final int[] succ;
+  private final int[] predStart;
+  private final int[] pred;
 
   public BasicBlockGraph(DirectedGraph<Unit> ug, BasicBlockMapper bbm) {
-    this.ug = ug;
     this.bbm = bbm;
+    this.heads = ug.getHeads().stream().map(bbm::getBlockByHead).mapToInt(BasicBlock::getId).toArray();
+    int n = bbm.size();
+    int[][] succs = new int[n][];
+    int[][] preds = new int[n][];
+    for(int i = 0; i < n; i++) {
+      BasicBlock b = bbm.getBlock(i);
+      succs[i] = ug.getSuccsOf(b.getTail()).stream()
+          .map(u -> {
+            if(u.hasTag(RemapTag.REMAP)) {
+              return ((RemapTag)u.getTag(RemapTag.REMAP)).target;
+            } else {
+              return u;
+            }
+          }).map(bbm::getBlockByHead).mapToInt(BasicBlock::getId).toArray();
+      preds[i] = ug.getPredsOf(b.getHead()).stream()
+          .map(u -> {
+            if(u.hasTag(RevMapTag.REV_MAP)) {
+              return ((RevMapTag)u.getTag(RevMapTag.REV_MAP)).unit;
+            } else {
+              return u;
+            }
+          }).map(bbm::getBlockByTail).mapToInt(BasicBlock::getId).toArray();
+    }
+    this.tails = IntStream.range(0, n).filter(i -> succs[i].length == 0).toArray();
+    this.succStart = new int[n + 1];
+    this.succ = flatten(succs, succStart);
+    this.predStart = new int[n + 1];
+    this.pred = flatten(preds, predStart);
   }
 
+  private static int[] flatten(final int[][] adj, final int[] start) {
+    for(int i = 0; i < adj.length; i++) {
+      start[i + 1] = start[i] + adj[i].length;
+    }
+    int[] flat = new int[start[adj.length]];
+    for(int i = 0; i < adj.length; i++) {
+      System.arraycopy(adj[i], 0, flat, start[i], adj[i].length);
+    }
+    return flat;
+  }
+
+  public BasicBlock getBlock(final int id) {
+    return bbm.getBlock(id);
+  }
+
+  public int succBegin(final int id) {
+    return succStart[id];
+  }
+
+  public int succEnd(final int id) {
+    return succStart[id + 1];
+  }
+
+  public int succAt(final int e) {
+    return succ[e];
+  }
+
+  public int predBegin(final int id) {
+    return predStart[id];
+  }
+
+  public int predEnd(final int id) {
+    return predStart[id + 1];
+  }
+
+  public int predAt(final int e) {
+    return pred[e];
+  }
+
+  private List<BasicBlock> toBlocks(final int[] ids, final int from, final int to) {
+    List<BasicBlock> toReturn = new ArrayList<>(to - from);
+    for(int i = from; i < to; i++) {
+      toReturn.add(bbm.getBlock(ids[i]));
+    }
+    return toReturn;
+  }
 
   @Override public List<BasicBlock> getHeads() {
-    return ug.getHeads().stream().map(bbm::getBlockByHead).collect(Collectors.toList());
+    return toBlocks(heads, 0, heads.length);
   }
 
   @Override public List<BasicBlock> getTails() {
-    return ug.getHeads().stream().map(bbm::getBlockByTail).collect(Collectors.toList());
+    return toBlocks(tails, 0, tails.length);
   }
 
   @Override public List<BasicBlock> getPredsOf(final BasicBlock s) {
-    Unit hd = s.getHead();
-    return ug.getPredsOf(hd).stream()
-        .map(u -> {
-          if(u.hasTag(RevMapTag.REV_MAP)) {
-            return ((RevMapTag)u.getTag(RevMapTag.REV_MAP)).unit;
-          } else {
-            return u;
-          }
-        })
-        .map(bbm::getBlockByTail).collect(Collectors.toList());
+    return toBlocks(pred, predBegin(s.getId()), predEnd(s.getId()));
   }
 
   @Override public List<BasicBlock> getSuccsOf(final BasicBlock s) {
-    Unit tl = s.getTail();
-    return ug.getSuccsOf(tl).stream()
-        .map(u -> {
-          if(u.hasTag(RemapTag.REMAP)) {
-            return ((RemapTag)u.getTag(RemapTag.REMAP)).target;
-          } else {
-            return u;
-          }
-        }).map(bbm::getBlockByHead).collect(Collectors.toList());
+    return toBlocks(succ, succBegin(s.getId()), succEnd(s.getId()));
   }
 
   @Override public int size() {
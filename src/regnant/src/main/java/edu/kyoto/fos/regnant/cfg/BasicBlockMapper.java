@@ -4,6 +4,7 @@ import soot.Body;
 import soot.Unit;
 import soot.jimple.GotoStmt;
 import soot.toolkits.graph.BriefUnitGraph;
+import soot.toolkits.graph.UnitGraph;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -18,10 +19,16 @@ import java.util.stream.Stream;
 public class BasicBlockMapper {
   private Map<Unit, BasicBlock> hdMap = new HashMap<>();
   private Map<Unit, BasicBlock> tlMap = new HashMap<>();
+  // the blocks by id; ids are assigned densely from 0
+  private List<BasicBlock> byId = new ArrayList<>();
+  private int idCounter = 0;
 
   public BasicBlockMapper(final Body b) {
+    this(b, new BriefUnitGraph(b));
+  }
+
+  public BasicBlockMapper(final Body b, final UnitGraph ug) {
     HashSet<Unit> start = new HashSet<>();
-    BriefUnitGraph ug = new BriefUnitGraph(b);
     for(Unit u : b.getUnits()) {
       if(ug.getPredsOf(u).size() > 1) {
         start.add(u);
@@ -67,9 +74,10 @@ public class BasicBlockMapper {
         }
       }
       return Stream.of(uList);
-    }).map(BasicBlock::new).forEach(bb -> {
+    }).map(uList -> new BasicBlock(idCounter++, uList)).forEach(bb -> {
       hdMap.put(bb.getHead(), bb);
       tlMap.put(bb.getTail(), bb);
+      byId.add(bb);
     });
   }
 
@@ -87,7 +95,11 @@ public class BasicBlockMapper {
     return tlMap.get(unit);
   }
 
+  public BasicBlock getBlock(final int id) {
+    return byId.get(id);
+  }
+
   public Iterator<BasicBlock> iterator() {
-    return hdMap.values().iterator();
+    return byId.iterator();
   }
 }
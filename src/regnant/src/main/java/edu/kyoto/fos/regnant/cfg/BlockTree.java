@@ -2,47 +2,200 @@ package edu.kyoto.fos.regnant.cfg;
 
 import soot.toolkits.graph.DominatorTree;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
-import java.util.Map;
 
-public class BlockTree<N> {
-  public List<N> nodes = new ArrayList<>();
-  public Map<N, List<N>> children = new HashMap<>();
-  public Map<N, N> parent = new HashMap<>();
-  public Map<N, Integer> level = new HashMap<>();
+/*
+  The tree of basic blocks, by block id. A root has parent -1.
 
-  public BlockTree(DominatorTree<N> seed) {
-    seed.forEach(i -> {
-      nodes.add(i.getGode());
-      children.put(i.getGode(), new ArrayList<>());
-    });
+  Ancestor and lowest common ancestor queries are answered in constant time from an index over the tree: the pre and post
+  order numbers of each node, and a sparse table of the minimum level over each power of two length range of the Euler tour.
+  The index is rebuilt (in O(n log n)) on the first query after the tree is changed by shiftTo.
+ */
+public class BlockTree {
+  public final List<BasicBlock> nodes = new ArrayList<>();
+  private final BasicBlock[] byId;
+  private final List<List<BasicBlock>> children;
+  private final int[] parent;
+  private final int[] level;
+  private Index index = null;
+
+  public BlockTree(DominatorTree<BasicBlock> seed) {
+    seed.forEach(i -> nodes.add(i.getGode()));
+    int size = nodes.stream().mapToInt(BasicBlock::getId).max().orElse(-1) + 1;
+    this.byId = new BasicBlock[size];
+    this.children = new ArrayList<>(size);
+    this.parent = new int[size];
+    this.level = new int[size];
+    Arrays.fill(parent, -1);
+    for(int i = 0; i < size; i++) {
+      children.add(new ArrayList<>());
+    }
+    nodes.forEach(n -> byId[n.getId()] = n);
     seed.forEach(i -> {
       seed.getChildrenOf(i).forEach(c -> {
-        children.get(i.getGode()).add(c.getGode());
-        parent.put(c.getGode(), i.getGode());
+        children.get(i.getGode().getId()).add(c.getGode());
+        parent[c.getGode().getId()] = i.getGode().getId();
       });
     });
     assignLevels();
   }
 
   private void assignLevels() {
-    nodes.stream().filter(p -> !parent.containsKey(p)).forEach(p -> assignLevel(p, 0));
+    nodes.stream().filter(p -> parent[p.getId()] == -1).forEach(p -> assignLevel(p, 0));
+  }
+
+  private void assignLevel(final BasicBlock p, final int i) {
+    level[p.getId()] = i;
+    Deque<BasicBlock> worklist = new ArrayDeque<>();
+    worklist.push(p);
+    while(!worklist.isEmpty()) {
+      BasicBlock n = worklist.pop();
+      for(BasicBlock c : children.get(n.getId())) {
+        level[c.getId()] = level[n.getId()] + 1;
+        worklist.push(c);
+      }
+    }
+  }
+
+  public int size() {
+    return byId.length;
   }
 
-  private void assignLevel(final N p, final int i) {
-    level.put(p, i);
-    children.get(p).forEach(c -> assignLevel(c, i + 1));
+  public BasicBlock getBlock(final int id) {
+    return byId[id];
   }
 
-  public void shiftTo(N node, N newParent) {
-    int lvl = level.get(newParent);
-    N currParent = parent.get(node);
-    assert currParent != null;
+  public List<BasicBlock> getChildren(final BasicBlock node) {
+    return children.get(node.getId());
+  }
+
+  public BasicBlock getParent(final BasicBlock node) {
+    int p = parent[node.getId()];
+    return p == -1 ? null : byId[p];
+  }
+
+  public int getParent(final int id) {
+    return parent[id];
+  }
+
+  public int getLevel(final int id) {
+    return level[id];
+  }
+
+  public void shiftTo(BasicBlock node, BasicBlock newParent) {
+    int lvl = level[newParent.getId()];
+    int currParent = parent[node.getId()];
+    assert currParent != -1;
     children.get(currParent).remove(node);
-    children.get(newParent).add(node);
-    parent.put(node, newParent);
+    children.get(newParent.getId()).add(node);
+    parent[node.getId()] = newParent.getId();
     assignLevel(node, lvl + 1);
+    index = null;
+  }
+
+  private Index index() {
+    if(index == null) {
+      index = new Index();
+    }
+    return index;
+  }
+
+  /*
+    Whether the block with id d is a (non-strict) descendant of the block with id a
+   */
+  public boolean isAncestor(final int a, final int d) {
+    Index idx = index();
+    return idx.pre[a] <= idx.pre[d] && idx.post[d] <= idx.post[a];
+  }
+
+  /*
+    The id of the lowest common ancestor of the blocks with ids a and b, -1 if they are in different trees
+   */
+  public int lca(final int a, final int b) {
+    return index().lca(a, b);
+  }
+
+  private class Index {
+    private final int[] pre = new int[size()];
+    private final int[] post = new int[size()];
+    // the position of each node in the tour
+    private final int[] first = new int[size()];
+    // the Euler tour, with -1 between the trees of the forest
+    private final int[] tour;
+    // sparse[k][i] is the node of least level in tour[i] ... tour[i + 2^k - 1]
+    private final int[][] sparse;
+
+    Index() {
+      int roots = (int) nodes.stream().filter(n -> parent[n.getId()] == -1).count();
+      this.tour = new int[2 * nodes.size() + roots];
+      int len = 0;
+      int preCount = 0;
+      int postCount = 0;
+      // the node, and the index of the next child to visit
+      int[] stack = new int[2 * size()];
+      for(BasicBlock r : nodes) {
+        if(parent[r.getId()] != -1) {
+          continue;
+        }
+        if(len > 0) {
+          tour[len++] = -1;
+        }
+        int top = 0;
+        stack[top++] = r.getId();
+        stack[top++] = 0;
+        pre[r.getId()] = preCount++;
+        first[r.getId()] = len;
+        tour[len++] = r.getId();
+        while(top > 0) {
+          int n = stack[top - 2];
+          List<BasicBlock> cs = children.get(n);
+          int next = stack[top - 1]++;
+          if(next < cs.size()) {
+            int c = cs.get(next).getId();
+            pre[c] = preCount++;
+            first[c] = len;
+            tour[len++] = c;
+            stack[top++] = c;
+            stack[top++] = 0;
+          } else {
+            post[n] = postCount++;
+            top -= 2;
+            if(top > 0) {
+              tour[len++] = stack[top - 2];
+            }
+          }
+        }
+      }
+      int logLen = 32 - Integer.numberOfLeadingZeros(Math.max(len, 1));
+      this.sparse = new int[logLen][];
+      sparse[0] = Arrays.copyOf(tour, len);
+      for(int k = 1; k < logLen; k++) {
+        int[] prev = sparse[k - 1];
+        int[] curr = new int[len - (1 << k) + 1];
+        for(int i = 0; i < curr.length; i++) {
+          curr[i] = min(prev[i], prev[i + (1 << (k - 1))]);
+        }
+        sparse[k] = curr;
+      }
+    }
+
+    private int levelOf(final int n) {
+      return n == -1 ? -1 : level[n];
+    }
+
+    private int min(final int a, final int b) {
+      return levelOf(a) <= levelOf(b) ? a : b;
+    }
+
+    int lca(final int a, final int b) {
+      int i = Math.min(first[a], first[b]);
+      int j = Math.max(first[a], first[b]);
+      int k = 31 - Integer.numberOfLeadingZeros(j - i + 1);
+      return min(sparse[k][i], sparse[k][j - (1 << k) + 1]);
+    }
   }
 }
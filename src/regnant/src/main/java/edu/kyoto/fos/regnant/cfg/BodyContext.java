@@ -0,0 +1,97 @@
+package edu.kyoto.fos.regnant.cfg;
+
+import soot.Body;
+import soot.Unit;
+import soot.toolkits.graph.BriefUnitGraph;
+import soot.toolkits.graph.DominatorTree;
+import soot.toolkits.graph.DominatorsFinder;
+import soot.toolkits.graph.UnitGraph;
+
+import java.util.Comparator;
+import java.util.List;
+
+/*
+  The graphs of a (simplified) body shared by the stages of the CFG reconstruction: the unit graph, the basic blocks and
+  the graph over them, the dominators of the latter, and the loop nesting forest. Each is computed once per body.
+
+  The CFG reconstruction requires reducible loops. Irreducible loops (which javac does not generate, but other compilers and
+  obfuscators may) are made reducible by node splitting, which modifies the body. The graphs are then recomputed until
+  there are none left, unless the body grows beyond MAX_GROWTH times its original size.
+ */
+public class BodyContext {
+  private static final int MAX_GROWTH = 8;
+
+  private final Body body;
+  private UnitGraph unitGraph;
+  private BasicBlockMapper blocks;
+  private BasicBlockGraph blockGraph;
+  private DominatorsFinder<BasicBlock> dominators;
+  private LoopTree loops;
+  private DominatorTree<BasicBlock> dominatorTree = null;
+
+  public BodyContext(final Body body) {
+    this.body = body;
+    this.computeGraphs();
+    int limit = MAX_GROWTH * body.getUnits().size();
+    List<Loop> irreducible;
+    while(!(irreducible = loops.getIrreducibleLoops()).isEmpty()) {
+      if(body.getUnits().size() > limit) {
+        throw new IllegalStateException("Irreducible loops in " + body.getMethod().getSignature() + " at " + irreducible + " could not be split");
+      }
+      NodeSplitter.split(this, irreducible.stream().min(Comparator.comparingInt(l -> l.all().cardinality())).get());
+      this.recompute();
+    }
+  }
+
+  private void computeGraphs() {
+    this.unitGraph = new BriefUnitGraph(body);
+    this.blocks = new BasicBlockMapper(body, unitGraph);
+    this.blockGraph = new BasicBlockGraph(unitGraph, blocks);
+    this.dominators = new CHKDominatorsFinder<>(blockGraph);
+    this.loops = new LoopFinder(blockGraph).getTree();
+    this.dominatorTree = null;
+  }
+
+  /*
+    Recomputes the graphs after the body has been modified (by the NodeSplitter)
+   */
+  void recompute() {
+    // the collapsed gotos are tagged anew
+    for(Unit u : body.getUnits()) {
+      u.removeTag(RemapTag.REMAP);
+      u.removeTag(RevMapTag.REV_MAP);
+    }
+    this.computeGraphs();
+  }
+
+  public Body getBody() {
+    return body;
+  }
+
+  public UnitGraph getUnitGraph() {
+    return unitGraph;
+  }
+
+  public BasicBlockMapper getBlocks() {
+    return blocks;
+  }
+
+  public BasicBlockGraph getBlockGraph() {
+    return blockGraph;
+  }
+
+  public DominatorsFinder<BasicBlock> getDominators() {
+    return dominators;
+  }
+
+  public LoopTree getLoops() {
+    return loops;
+  }
+
+  public DominatorTree<BasicBlock> getDominatorTree() {
+    if(dominatorTree == null) {
+      dominatorTree = new DominatorTree<>(dominators);
+    }
+    return dominatorTree;
+  }
+}
@@ -11,21 +11,20 @@ import edu.kyoto.fos.regnant.cfg.graph.JumpCont;
 import edu.kyoto.fos.regnant.cfg.graph.JumpNode;
 import edu.kyoto.fos.regnant.cfg.graph.Jumps;
 import edu.kyoto.fos.regnant.cfg.graph.LoopNode;
+import edu.kyoto.fos.regnant.cfg.instrumentation.FlagInstrumentation;
 import fj.P;
 import fj.P2;
 import soot.Body;
 import soot.Unit;
 import soot.UnitPatchingChain;
 import soot.jimple.IfStmt;
-import soot.toolkits.graph.BriefUnitGraph;
 import soot.toolkits.graph.DominatorTree;
-import soot.toolkits.graph.DominatorsFinder;
 import soot.toolkits.graph.HashMutableDirectedGraph;
-import soot.toolkits.graph.MHGDominatorsFinder;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -33,8 +32,6 @@ import java.util.Set;
 import java.util.TreeSet;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
-import java.util.stream.Stream.Builder;
 /*
   The control flow graph reconstruction. This and the flag instrumentation are actually
   the trickiest parts of the translation; the actual dumping to IMPerial is relatively straightforward.
@@ -54,12 +51,12 @@ import java.util.stream.Stream.Builder;
   exception of handling the collapsing described above, this process is relatively straightforward
   using the maps described above.
 
-  Based off this graph, we run the standard natural loop detection algorithm. For the unfamiliar, a
+  Based off this graph, we find the natural loops (see LoopFinder). For the unfamiliar, a
   loop header is any unit (i.e., basic block) that dominates a predecessor. The jump from the predecessor node to
   the loop header is called a backjump. All blocks reachable by traversing predecessor edges starting from all backjumps
   and terminating at the loop header are the loop body. We make the standard assumption that loops are well-nested,
   that there is a distinguished entry point, etc. These assumptions (currently) hold for all loops generated by the Java
-  compiler. We do NOT assume that all loops have a single distinguished exit; dealing with this complexity is what
+  compiler; loops with several entries are split by the BodyContext beforehand so that they hold. We do NOT assume that all loops have a single distinguished exit; dealing with this complexity is what
   ultimately causes much of the complexity here.
 
   The result of the loop algorithm is a loop tree, which maps a basic block to the loop bodies containing the block,
@@ -112,26 +109,69 @@ import java.util.stream.Stream.Builder;
   node to the loop successor. This separates detecting breaking out of a loop with determining how to continue execution after the loop.
  */
 public class CFGReconstructor {
-  private final BasicBlockMapper bbm;
-  private final LoopTree lt;
-  private final UnitPatchingChain unitChain;
-  private final AnnotatedBasicBlockGraph graph;
+  // the largest block copied by the tail duplication
+  private static final int MAX_DUPLICATED_UNITS = 8;
+
+  private BasicBlockMapper bbm;
+  private LoopTree lt;
+  private UnitPatchingChain unitChain;
+  private AnnotatedBasicBlockGraph graph;
   private GraphElem cfgRoot;
-  private BlockTree<BasicBlock> bt;
-  private Set<Coord> recurseJumps = new TreeSet<>();
+  private BlockTree bt;
+  private Set<Coord> recurseJumps;
 
   public CFGReconstructor(Body b) {
-    this.bbm = new BasicBlockMapper(b);
-    this.unitChain = b.getUnits();
-    BasicBlockGraph bbg = new BasicBlockGraph(new BriefUnitGraph(b), bbm);
-    this.lt = new LoopFinder(bbg).getTree();
-    this.graph = new AnnotatedBasicBlockGraph(bbg,lt);
-    computeCFG();
+    this(new BodyContext(b));
+  }
+
+  /*
+    After the layout, small joins are removed by tail duplication. An element gated by FlagInstrumentation executes depending
+    on the path taken to it, which the translation tracks with the control flag. If the element is headed by a small join,
+    copying the head for each of its other predecessors lets each copy be laid out within the branch jumping to it, which
+    removes the gate. The blocks after the copies may in turn become gated joins, so this is repeated (on the recomputed
+    graphs of the modified body) until no gated join fits the remaining budget (in units; 0, the default, disables the
+    duplication).
+   */
+  public CFGReconstructor(BodyContext ctxt) {
+    this(ctxt, 0);
   }
 
-  private void computeCFG() {
-    DominatorsFinder<BasicBlock> doms = new MHGDominatorsFinder<>(graph.getRawGraph());
-    DominatorTree<BasicBlock> dt = new DominatorTree<>(doms);
+  public CFGReconstructor(BodyContext ctxt, int duplicationBudget) {
+    this.layout(ctxt);
+    int budget = duplicationBudget;
+    while(true) {
+      BasicBlock join = null;
+      List<BasicBlock> preds = null;
+      for(BasicBlock h : new FlagInstrumentation(this).gatedHeads) {
+        preds = graph.getRawGraph().getPredsOf(h).stream().distinct().collect(Collectors.toList());
+        if(!lt.isLoopHeader(h) && preds.size() > 1 && h.units.size() <= MAX_DUPLICATED_UNITS
+            && h.units.size() * (preds.size() - 1) <= budget) {
+          join = h;
+          break;
+        }
+      }
+      if(join == null) {
+        break;
+      }
+      budget -= join.units.size() * (preds.size() - 1);
+      for(BasicBlock p : preds.subList(1, preds.size())) {
+        NodeSplitter.duplicate(ctxt, join, p);
+      }
+      ctxt.recompute();
+      this.layout(ctxt);
+    }
+  }
+
+  private void layout(final BodyContext ctxt) {
+    this.bbm = ctxt.getBlocks();
+    this.unitChain = ctxt.getBody().getUnits();
+    this.lt = ctxt.getLoops();
+    this.graph = new AnnotatedBasicBlockGraph(ctxt.getBlockGraph(), lt);
+    this.recurseJumps = new TreeSet<>();
+    computeCFG(ctxt.getDominatorTree());
+  }
+
+  private void computeCFG(final DominatorTree<BasicBlock> dt) {
     assert dt.getHead().getGode().equals(graph.getHead());
 
     this.cfgRoot = recursiveLayout(dt);
@@ -141,10 +181,22 @@ public class CFGReconstructor {
     return cfgRoot;
   }
 
-  public BlockTree<BasicBlock> getStructure() {
+  public BlockTree getStructure() {
     return this.bt;
   }
 
+  public BasicBlockGraph getBlockGraph() {
+    return this.graph.getRawGraph();
+  }
+
+  public int getBlockCount() {
+    return this.graph.getRawGraph().size();
+  }
+
+  public int getLoopCount() {
+    return this.lt.size();
+  }
+
   public String dump() {
     this.bbm.iterator().forEachRemaining(System.out::println);
     return this.cfgRoot.dump();
@@ -152,44 +204,104 @@ public class CFGReconstructor {
 
   private GraphElem recursiveLayout(DominatorTree<BasicBlock> dt) {
     // the block tree constructor generates the initial version of the block tree based on the dominator tree
-    this.bt = new BlockTree<>(dt);
+    this.bt = new BlockTree(dt);
     // recursive lift then shuffles children up so their immediate parent is not a loop header whose body does not contain the child node
-    recursiveLift(dt.getHead().getGode(), null, null);
+    recursiveLift(dt.getHead().getGode());
     // the actual layout and lifting to graph nodes (elems)
-    return recursiveLayout(bt, graph.getHead(), null);
+    return recursiveLayout(bt, graph.getHead());
   }
 
-  private void recursiveLift(final BasicBlock node, final BasicBlock head, final Builder<BasicBlock> outQueue) {
-    if(head != null) {
-      if(this.lt.containingLoops(node).stream().map(Loop::getHeader).noneMatch(head::equals)) {
-        outQueue.accept(node);
-        return;
-      }
+  /*
+    The lifting and the layout walk the block tree, whose depth grows with the length of the method (e.g., each conditional
+    in a sequence is dominated by the one before it). Both are therefore done with an explicit stack of frames rather than
+    by recursion, visiting the children in the same order.
+   */
+  private static class LiftFrame {
+    final BasicBlock node;
+    final BasicBlock head;
+    final List<BasicBlock> outQueue;
+    final List<BasicBlock> children;
+    // for a loop header, the children (and descendants) not within the body of its loop
+    final List<BasicBlock> lifted;
+    int next = 0;
+
+    LiftFrame(final BasicBlock node, final BasicBlock head, final List<BasicBlock> outQueue, final List<BasicBlock> children, final boolean isLoopHeader) {
+      this.node = node;
+      this.head = head;
+      this.outQueue = outQueue;
+      this.children = children;
+      this.lifted = isLoopHeader ? new ArrayList<>() : null;
     }
-    List<BasicBlock> children = new ArrayList<>(this.bt.children.getOrDefault(node, Collections.emptyList()));
-    if(lt.isLoopHeader(node)) {
-      Stream.Builder<BasicBlock> b = Stream.builder();
-      // lift each child. If the child is not within the body of the loop with this node as a header, it is added to the stream builder b.
-      children.forEach(n -> {
-        recursiveLift(n, node, b);
-      });
-      b.build().forEach(n -> {
+  }
+
+  private void recursiveLift(final BasicBlock root) {
+    Deque<LiftFrame> stack = new ArrayDeque<>();
+    stack.push(new LiftFrame(root, null, null, new ArrayList<>(this.bt.getChildren(root)), lt.isLoopHeader(root)));
+    while(!stack.isEmpty()) {
+      LiftFrame f = stack.peek();
+      if(f.next < f.children.size()) {
+        BasicBlock n = f.children.get(f.next++);
+        // the children of a loop header are lifted within its loop. If the child is not within the body of the loop, it is added to lifted
+        BasicBlock head = f.lifted != null ? f.node : f.head;
+        List<BasicBlock> outQueue = f.lifted != null ? f.lifted : f.outQueue;
+        if(head != null && !this.lt.isInLoop(n, head)) {
+          outQueue.add(n);
+        } else {
+          stack.push(new LiftFrame(n, head, outQueue, new ArrayList<>(this.bt.getChildren(n)), lt.isLoopHeader(n)));
+        }
+        continue;
+      }
+      stack.pop();
+      if(f.lifted == null) {
+        continue;
+      }
+      f.lifted.forEach(n -> {
         // if there are no further containing loops, or the child node being shifted up in the same loop as THIS containing loop,
         // add it to this node's parent
-        if((this.lt.containingLoops(n).isEmpty() && head == null) ||
-            this.lt.containingLoops(n).stream().map(Loop::getHeader).anyMatch(p -> p.equals(head))) {
-          this.bt.shiftTo(n, this.bt.parent.get(node));
+        if((this.lt.containingLoops(n).isEmpty() && f.head == null) ||
+            (f.head != null && this.lt.isInLoop(n, f.head))) {
+          this.bt.shiftTo(n, this.bt.getParent(f.node));
         } else {
           // other wise, push it out of this node's loop body
-          assert outQueue != null : n + " " + node;
-          outQueue.accept(n);
+          assert f.outQueue != null : n + " " + f.node;
+          f.outQueue.add(n);
         }
       });
-    } else {
-      children.forEach(b -> recursiveLift(b, head, outQueue));
     }
   }
 
+  private static class LayoutFrame {
+    final BasicBlock block;
+    final BasicBlock loopHeader;
+    int next = 0;
+
+    LayoutFrame(final BasicBlock block, final BasicBlock loopHeader) {
+      this.block = block;
+      this.loopHeader = loopHeader;
+    }
+  }
+
+  /*
+    Each block is laid out after its children, in the context of the immediately containing loop header (see layoutBlock).
+   */
+  private GraphElem recursiveLayout(final BlockTree bt, final BasicBlock root) {
+    GraphElem[] laidOut = new GraphElem[bt.size()];
+    Deque<LayoutFrame> stack = new ArrayDeque<>();
+    stack.push(new LayoutFrame(root, null));
+    while(!stack.isEmpty()) {
+      LayoutFrame f = stack.peek();
+      List<BasicBlock> childBlocks = bt.getChildren(f.block);
+      if(f.next < childBlocks.size()) {
+        stack.push(new LayoutFrame(childBlocks.get(f.next++), lt.isLoopHeader(f.block) ? f.block : f.loopHeader));
+      } else {
+        stack.pop();
+        List<GraphElem> gElem = childBlocks.stream().map(cb -> laidOut[cb.getId()]).collect(Collectors.toList());
+        laidOut[f.block.getId()] = layoutBlock(f.block, f.loopHeader, gElem);
+      }
+    }
+    return laidOut[root.getId()];
+  }
+
   private Unit fwMap(Unit u) {
     if(u.hasTag(RemapTag.REMAP)) {
       return ((RemapTag)u.getTag(RemapTag.REMAP)).target;
@@ -209,8 +321,7 @@ public class CFGReconstructor {
     return P.p(tgtEdge, ftEdge);
   }
 
-  private GraphElem recursiveLayout(final BlockTree<BasicBlock> bt, final BasicBlock curr, BasicBlock loopHeader) {
-    List<BasicBlock> childBlocks = bt.children.get(curr);
+  private GraphElem layoutBlock(final BasicBlock curr, BasicBlock loopHeader, List<GraphElem> gElem) {
     // a return then
     List<AnnotatedEdge> succ = this.graph.getSucc(curr);
     if(succ.size() == 0) {
@@ -230,9 +341,8 @@ public class CFGReconstructor {
     boolean isLoopHeader = lt.isLoopHeader(curr);
     /* The layout of a block happens within the context of the immediately containing loop header. This help determine whether a jump is
        a continue or not (continue's are modeled by returning after an invocation of the synthesized function corresponding to the current loop).
+       gElem are the elems of the children of curr, which are laid out with curr as their header if it is a loop header.
      */
-    BasicBlock childHeaders = isLoopHeader ? curr : loopHeader;
-    List<GraphElem> gElem = childBlocks.stream().map(cb -> recursiveLayout(bt, cb, childHeaders)).collect(Collectors.toList());
     // Each graph elem corresponds to the basic block rooting the subtree which generated the elem. This generates a map from those blocks to the corresponding graph elem
     // When resolving intra-child jumps we exclusively use this map. Note that we do NOT have to worry about jumps from one child to a basic block in a subtree of another child,
     // because the tree is based off the dominator tree; such a jump would violate the domination property.
@@ -252,8 +362,10 @@ public class CFGReconstructor {
       /* a continuation may be a jump (may set a control flag, return, recurse, or simply do nothing) or a graph elem, in which case the program fragment
         corresponding to the block is used directly as the body of the corresponding branch. If this occurs, the element is removed from the dependence graph
        */
-      Continuation trCont = this.toContinuation(Coord.of(true, curr), depGraph, v._1(), lkp);
-      Continuation flCont = this.toContinuation(Coord.of(false, curr), depGraph, v._2(), lkp);
+      // either branch may only be embedded if no other child flows to it, including the other branch
+      List<BasicBlock> heads = depGraph.getHeads();
+      Continuation trCont = this.toContinuation(Coord.of(true, curr), depGraph, heads, v._1(), lkp);
+      Continuation flCont = this.toContinuation(Coord.of(false, curr), depGraph, heads, v._2(), lkp);
       // Now compute the jumps for the hd element
       /*
         The hd jumps record the the remaining unresolved jumps from within the conditional node. Those jumps that
@@ -374,8 +486,8 @@ public class CFGReconstructor {
   }
 
   private Continuation toContinuation(final Coord coord, final HashMutableDirectedGraph<BasicBlock> depGraph,
-      final AnnotatedEdge annotatedEdge, Map<BasicBlock, GraphElem> lkp) {
-    if(!depGraph.containsNode(annotatedEdge.block) || !depGraph.getHeads().contains(annotatedEdge.block)) {
+      final List<BasicBlock> heads, final AnnotatedEdge annotatedEdge, Map<BasicBlock, GraphElem> lkp) {
+    if(!depGraph.containsNode(annotatedEdge.block) || !heads.contains(annotatedEdge.block)) {
       this.saveRecurse(coord, annotatedEdge);
       return JumpCont.of(coord, annotatedEdge);
     } else {
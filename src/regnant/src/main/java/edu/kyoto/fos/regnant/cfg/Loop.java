@@ -1,30 +1,49 @@
 package edu.kyoto.fos.regnant.cfg;
 
-import java.util.Collection;
-import java.util.HashSet;
+import java.util.BitSet;
 import java.util.Objects;
-import java.util.Set;
 
 public class Loop {
   private final BasicBlock header;
-  private final HashSet<BasicBlock> all;
-  private Collection<BasicBlock> body;
+  // block ids, the body excludes the header
+  private final BitSet all;
+  private final BitSet body;
+  // the innermost enclosing loop, null if this is outermost
+  private final Loop parent;
+  private final boolean reducible;
 
-  public Loop(final BasicBlock header, final Set<BasicBlock> body) {
+  public Loop(final BasicBlock header, final BitSet body, final Loop parent, final boolean reducible) {
     this.header = header;
-    this.all = new HashSet<>(body);
-    this.all.add(header);
+    this.all = (BitSet) body.clone();
+    this.all.set(header.getId());
     this.body = body;
+    this.parent = parent;
+    this.reducible = reducible;
   }
 
-  public Collection<BasicBlock> body() {
+  public Loop getParent() {
+    return parent;
+  }
+
+  /*
+    Whether the header is the only entry to the loop
+   */
+  public boolean isReducible() {
+    return reducible;
+  }
+
+  public BitSet body() {
     return body;
   }
 
-  public Collection<BasicBlock> all() {
+  public BitSet all() {
     return all;
   }
 
+  public boolean contains(final BasicBlock b) {
+    return all.get(b.getId());
+  }
+
   public BasicBlock getHeader() {
     return header;
   }
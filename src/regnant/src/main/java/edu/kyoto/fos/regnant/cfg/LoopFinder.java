@@ -1,62 +1,209 @@
 package edu.kyoto.fos.regnant.cfg;
 
-import soot.toolkits.graph.DominatorsFinder;
-import soot.toolkits.graph.MHGDominatorsFinder;
+import java.util.Arrays;
+import java.util.BitSet;
 
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.Map;
-import java.util.Set;
+/*
+  The loop nesting forest of Havlak ("Nesting of Reducible and Irreducible Loops"), which is near linear using union find.
 
+  The blocks are numbered in DFS preorder from the heads, and the predecessors of each block w are split into the back
+  predecessors (of which w is a DFS ancestor) and the rest. The blocks are then visited in reverse preorder: if w has back
+  predecessors it is a loop header, and the body of its loop is found by walking the non back predecessors backwards from
+  the back predecessors. Each block reached is represented by the header of the outermost loop found so far which contains
+  it (this is the union find), so that nested loops are skipped over in one step. A predecessor reached this way that is
+  not a DFS descendant of w enters the loop other than through w: the loop is irreducible, and the predecessor is treated as
+  a predecessor of w, so the enclosing loops still find it.
+
+  For reducible graphs the loops are the natural loops (merging those with the same header).
+ */
 public class LoopFinder {
   private final LoopTree tree;
-  private BasicBlockGraph bbg;
+  private final BasicBlockGraph bbg;
+  // the preorder number of each block (by id), -1 if it is not reachable
+  private final int[] number;
+  // by preorder number: the block id, and the greatest preorder number of its DFS descendants
+  private final int[] node;
+  private final int[] last;
+  private int count = 0;
+
+  public LoopFinder(BodyContext ctxt) {
+    this(ctxt.getBlockGraph());
+  }
 
   public LoopFinder(BasicBlockGraph bbg) {
     this.bbg = bbg;
+    this.number = new int[bbg.size()];
+    this.node = new int[bbg.size()];
+    this.last = new int[bbg.size()];
+    this.numberBlocks();
     this.tree = computeLoopTree();
   }
 
-  private LoopTree computeLoopTree() {
-    DominatorsFinder<BasicBlock> df = new MHGDominatorsFinder<>(this.bbg);
-
-    Map<BasicBlock, Set<BasicBlock>> loopMap = new HashMap<>();
-    for(BasicBlock bb : this.bbg) {
-      Set<BasicBlock> headers = new HashSet<>();
-      for(BasicBlock s : this.bbg.getSuccsOf(bb)) {
-        if(df.isDominatedBy(bb, s)) {
-          headers.add(s);
-        }
+  private void numberBlocks() {
+    Arrays.fill(number, -1);
+    // the block (preorder number), and the next successor edge to visit
+    int[] stack = new int[2 * bbg.size()];
+    for(BasicBlock h : bbg.getHeads()) {
+      if(number[h.getId()] != -1) {
+        continue;
       }
-      for(BasicBlock header : headers) {
-        Set<BasicBlock> body = bodyFor(header, bb);
-        loopMap.merge(header, body, (s1, s2) -> {
-          s1.addAll(s2); return s1;
-        });
+      int top = 0;
+      stack[top++] = visit(h.getId());
+      stack[top++] = bbg.succBegin(h.getId());
+      while(top > 0) {
+        int w = stack[top - 2];
+        int e = stack[top - 1];
+        if(e < bbg.succEnd(node[w])) {
+          stack[top - 1]++;
+          int s = bbg.succAt(e);
+          if(number[s] == -1) {
+            stack[top++] = visit(s);
+            stack[top++] = bbg.succBegin(s);
+          }
+        } else {
+          last[w] = count - 1;
+          top -= 2;
+        }
       }
     }
-    return new LoopTree(loopMap);
   }
 
-  public LoopTree getTree() {
-    return tree;
+  private int visit(final int id) {
+    number[id] = count;
+    node[count] = id;
+    return count++;
   }
 
-  private Set<BasicBlock> bodyFor(final BasicBlock header, final BasicBlock bb) {
-    LinkedList<BasicBlock> wl = new LinkedList<>();
-    wl.add(bb);
-    Set<BasicBlock> toRet = new HashSet<>();
-    while(!wl.isEmpty()) {
-      BasicBlock b = wl.pop();
-      if(b.equals(header)) {
-        continue;
+  private boolean isAncestor(final int w, final int v) {
+    return w <= v && v <= last[w];
+  }
+
+  private static int find(final int[] uf, final int v) {
+    int r = v;
+    while(uf[r] != r) {
+      r = uf[r];
+    }
+    for(int it = v; uf[it] != r; ) {
+      int nxt = uf[it];
+      uf[it] = r;
+      it = nxt;
+    }
+    return r;
+  }
+
+  private LoopTree computeLoopTree() {
+    int[][] backPreds = new int[count][];
+    int[][] nonBackPreds = new int[count][];
+    int[] nonBackCount = new int[count];
+    for(int w = 0; w < count; w++) {
+      int id = node[w];
+      int degree = bbg.predEnd(id) - bbg.predBegin(id);
+      int[] back = new int[degree];
+      int[] nonBack = new int[degree];
+      int nb = 0;
+      for(int e = bbg.predBegin(id); e < bbg.predEnd(id); e++) {
+        int v = number[bbg.predAt(e)];
+        if(v == -1) {
+          continue;
+        }
+        if(isAncestor(w, v)) {
+          back[nb++] = v;
+        } else {
+          nonBack[nonBackCount[w]++] = v;
+        }
       }
-      if(!toRet.add(b) ) {
+      backPreds[w] = Arrays.copyOf(back, nb);
+      nonBackPreds[w] = nonBack;
+    }
+
+    // by preorder number: the header of the innermost loop containing the block, -1 if none
+    int[] header = new int[count];
+    Arrays.fill(header, -1);
+    boolean[] isHeader = new boolean[count];
+    boolean[] irreducible = new boolean[count];
+    int[] uf = new int[count];
+    for(int i = 0; i < count; i++) {
+      uf[i] = i;
+    }
+    // the body of the current loop, which is also the worklist
+    int[] pool = new int[count];
+    BitSet inPool = new BitSet(count);
+    for(int w = count - 1; w >= 0; w--) {
+      int poolSize = 0;
+      for(int v : backPreds[w]) {
+        isHeader[w] = true;
+        int r = find(uf, v);
+        if(r != w && !inPool.get(r)) {
+          inPool.set(r);
+          pool[poolSize++] = r;
+        }
+      }
+      for(int i = 0; i < poolSize; i++) {
+        int x = pool[i];
+        for(int j = 0; j < nonBackCount[x]; j++) {
+          int y = find(uf, nonBackPreds[x][j]);
+          if(!isAncestor(w, y)) {
+            irreducible[w] = true;
+            if(nonBackCount[w] == nonBackPreds[w].length) {
+              nonBackPreds[w] = Arrays.copyOf(nonBackPreds[w], 2 * nonBackCount[w] + 1);
+            }
+            nonBackPreds[w][nonBackCount[w]++] = y;
+          } else if(y != w && !inPool.get(y)) {
+            inPool.set(y);
+            pool[poolSize++] = y;
+          }
+        }
+      }
+      for(int i = 0; i < poolSize; i++) {
+        header[pool[i]] = w;
+        uf[pool[i]] = w;
+        inPool.clear(pool[i]);
+      }
+    }
+
+    /*
+      The headers of the loops containing a block are those containing its innermost header, and the block itself if it is a
+      header. Headers are DFS ancestors of the blocks in their loops, so in preorder these are computed before they are needed.
+     */
+    int n = bbg.size();
+    BitSet[] containing = new BitSet[n];
+    BitSet[] bodies = new BitSet[n];
+    int[] parent = new int[n];
+    for(int x = 0; x < count; x++) {
+      BitSet outer = header[x] == -1 ? null : containing[node[header[x]]];
+      if(isHeader[x]) {
+        containing[node[x]] = outer == null ? new BitSet() : (BitSet) outer.clone();
+        containing[node[x]].set(node[x]);
+        bodies[node[x]] = new BitSet(n);
+        parent[node[x]] = header[x] == -1 ? -1 : node[header[x]];
+      } else {
+        containing[node[x]] = outer;
+      }
+    }
+    for(int x = 0; x < count; x++) {
+      int id = node[x];
+      BitSet loops = containing[id];
+      if(loops == null) {
         continue;
       }
-      wl.addAll(this.bbg.getPredsOf(b));
+      for(int h = loops.nextSetBit(0); h >= 0; h = loops.nextSetBit(h + 1)) {
+        if(h != id) {
+          bodies[h].set(id);
+        }
+      }
+    }
+    Loop[] loops = new Loop[n];
+    for(int x = 0; x < count; x++) {
+      int id = node[x];
+      if(isHeader[x]) {
+        Loop p = parent[id] == -1 ? null : loops[parent[id]];
+        loops[id] = new Loop(bbg.getBlock(id), bodies[id], p, !irreducible[x]);
+      }
     }
-    return toRet;
+    return new LoopTree(loops, containing);
+  }
+
+  public LoopTree getTree() {
+    return tree;
   }
 }
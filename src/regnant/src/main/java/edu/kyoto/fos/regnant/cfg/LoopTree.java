@@ -1,43 +1,51 @@
 package edu.kyoto.fos.regnant.cfg;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
+import java.util.Objects;
 import java.util.stream.Collectors;
 
 public class LoopTree {
-  private Map<BasicBlock, Loop> headerMap;
-  private Map<Loop, List<Loop>> parentRelation = new HashMap<>();
-  private Map<Loop, List<Loop>> childRelation = new HashMap<>();
-  private Map<BasicBlock, List<Loop>> containingLoops = new HashMap<>();
+  private static final BitSet NO_LOOPS = new BitSet();
 
-  public List<Loop> containingLoops(BasicBlock b) {
-    return this.containingLoops.getOrDefault(b, Collections.emptyList());
+  // by header id
+  private final Loop[] headerMap;
+  // by block id, the ids of the headers of the loops containing the block (null if there are none)
+  private final BitSet[] containingLoops;
+  private final int size;
+
+  LoopTree(final Loop[] headerMap, final BitSet[] containingLoops) {
+    this.headerMap = headerMap;
+    this.containingLoops = containingLoops;
+    this.size = (int) Arrays.stream(headerMap).filter(Objects::nonNull).count();
+  }
+
+  /*
+    The ids of the headers of the loops containing b. Not to be modified.
+   */
+  public BitSet containingLoops(final BasicBlock b) {
+    BitSet loops = containingLoops[b.getId()];
+    return loops == null ? NO_LOOPS : loops;
+  }
+
+  public boolean isInLoop(final BasicBlock b, final BasicBlock header) {
+    return containingLoops(b).get(header.getId());
   }
 
-  public LoopTree(final Map<BasicBlock,Set<BasicBlock>> loopMap) {
-    this.headerMap = loopMap.entrySet().stream().collect(Collectors.toMap(Entry::getKey, it ->
-      new Loop(it.getKey(), it.getValue())
-    ));
-    this.headerMap.values().forEach(l -> {
-      l.all().forEach(bb -> {
-        containingLoops.putIfAbsent(bb, new ArrayList<>());
-        containingLoops.get(bb).add(l);
-      });
-      childRelation.put(l, new ArrayList<>());
-      l.body().stream().filter(headerMap::containsKey).map(headerMap::get).forEach(c -> {
-        parentRelation.putIfAbsent(c, new ArrayList<>());
-        parentRelation.get(c).add(l);
-        childRelation.get(l).add(c);
-      });
-    });
+  public Loop getLoop(final int headerId) {
+    return headerMap[headerId];
+  }
+
+  public List<Loop> getIrreducibleLoops() {
+    return Arrays.stream(headerMap).filter(l -> l != null && !l.isReducible()).collect(Collectors.toList());
   }
 
   public boolean isLoopHeader(final BasicBlock head) {
-    return headerMap.containsKey(head);
+    return headerMap[head.getId()] != null;
+  }
+
+  public int size() {
+    return size;
   }
 }
@@ -0,0 +1,169 @@
+package edu.kyoto.fos.regnant.cfg;
+
+import soot.Unit;
+import soot.UnitBox;
+import soot.UnitPatchingChain;
+import soot.jimple.GotoStmt;
+import soot.jimple.Jimple;
+import soot.tagkit.Tag;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+/*
+  Makes an irreducible loop reducible by node splitting. The blocks of the body reachable from the entries other than the
+  header are copied (at the end of the method), and the entering jumps are redirected to the copies. Within the copies, jumps
+  to the header go to the original, and jumps to a copied block go to its copy: the original loop is then entered only
+  through its header, and any loop in the copies is smaller than the original loop (it does not contain the header).
+
+  The same copying is used for the tail duplication of the CFG reconstruction, copying a single block for one predecessor.
+ */
+class NodeSplitter {
+  private final BodyContext ctxt;
+  private final UnitPatchingChain units;
+  private final Map<Unit, Unit> clones = new HashMap<>();
+
+  private NodeSplitter(final BodyContext ctxt) {
+    this.ctxt = ctxt;
+    this.units = ctxt.getBody().getUnits();
+  }
+
+  static void split(final BodyContext ctxt, final Loop loop) {
+    new NodeSplitter(ctxt).split(loop);
+  }
+
+  /*
+    Copies the block b for its predecessor pred, which then jumps to the copy rather than to b (this is tail duplication)
+   */
+  static void duplicate(final BodyContext ctxt, final BasicBlock b, final BasicBlock pred) {
+    NodeSplitter splitter = new NodeSplitter(ctxt);
+    BitSet copy = new BitSet();
+    copy.set(b.getId());
+    splitter.copy(copy);
+    splitter.redirect(b, p -> p == pred.getId());
+  }
+
+  private void split(final Loop loop) {
+    BasicBlockGraph g = ctxt.getBlockGraph();
+    BitSet entries = new BitSet();
+    loop.body().stream().forEach(v -> {
+      for(int e = g.predBegin(v); e < g.predEnd(v); e++) {
+        if(!loop.all().get(g.predAt(e))) {
+          entries.set(v);
+        }
+      }
+    });
+    if(entries.isEmpty()) {
+      throw new IllegalStateException("Irreducible loop " + loop + " has no entry besides its header");
+    }
+    // the blocks of the body reachable from the entries
+    BitSet copy = (BitSet) entries.clone();
+    int[] stack = new int[g.size()];
+    int top = 0;
+    for(int v = entries.nextSetBit(0); v >= 0; v = entries.nextSetBit(v + 1)) {
+      stack[top++] = v;
+    }
+    while(top > 0) {
+      int v = stack[--top];
+      for(int e = g.succBegin(v); e < g.succEnd(v); e++) {
+        int s = g.succAt(e);
+        if(loop.body().get(s) && !copy.get(s)) {
+          copy.set(s);
+          stack[top++] = s;
+        }
+      }
+    }
+    this.copy(copy);
+
+    // redirect the jumps entering the loop
+    entries.stream().mapToObj(g::getBlock).forEach(v -> redirect(v, p -> !loop.all().get(p)));
+  }
+
+  private void copy(final BitSet copy) {
+    BasicBlockGraph g = ctxt.getBlockGraph();
+    copy.stream().mapToObj(g::getBlock).forEach(bb -> bb.units.forEach(u -> {
+      Unit c = (Unit) u.clone();
+      for(Tag t : u.getTags()) {
+        if(!(t instanceof RemapTag) && !(t instanceof RevMapTag)) {
+          c.addTag(t);
+        }
+      }
+      clones.put(u, c);
+    }));
+    copy.stream().mapToObj(g::getBlock).forEach(bb -> {
+      for(Unit u : bb.units) {
+        Unit c = clones.get(u);
+        for(UnitBox box : c.getUnitBoxes()) {
+          box.setUnit(target(box.getUnit()));
+        }
+        units.addLast(c);
+      }
+      Unit tl = bb.getTail();
+      if(tl.fallsThrough()) {
+        units.addLast(Jimple.v().newGotoStmt(target(units.getSuccOf(tl))));
+      }
+    });
+  }
+
+  /*
+    Redirects the jumps to v from the predecessors (by id) accepted by fromPred to the copy of v
+   */
+  private void redirect(final BasicBlock v, final IntPredicate fromPred) {
+    BasicBlockGraph g = ctxt.getBlockGraph();
+    Unit copyHead = clones.get(v.getHead());
+    BitSet done = new BitSet();
+    for(int e = g.predBegin(v.getId()); e < g.predEnd(v.getId()); e++) {
+      int p = g.predAt(e);
+      if(!fromPred.test(p) || done.get(p)) {
+        continue;
+      }
+      done.set(p);
+      Unit tl = g.getBlock(p).getTail();
+      Unit fallThrough = tl.fallsThrough() ? units.getSuccOf(tl) : null;
+      for(UnitBox box : tl.getUnitBoxes()) {
+        redirect(box.getUnit(), v, copyHead, box);
+      }
+      if(fallThrough != null && fwMap(fallThrough) == v.getHead()) {
+        if(fallThrough == v.getHead()) {
+          units.insertAfter(Jimple.v().newGotoStmt(copyHead), tl);
+        } else {
+          ((GotoStmt) fallThrough).setTarget(copyHead);
+        }
+      }
+    }
+  }
+
+  private void redirect(final Unit tgt, final BasicBlock v, final Unit copyHead, final UnitBox box) {
+    if(fwMap(tgt) != v.getHead()) {
+      return;
+    }
+    if(tgt == v.getHead()) {
+      box.setUnit(copyHead);
+    } else {
+      // a collapsed goto, whose only predecessor is the block being redirected
+      ((GotoStmt) tgt).setTarget(copyHead);
+    }
+  }
+
+  /*
+    The unit a copied unit jumping to u should jump to. The jumps within a block and to copied blocks go to the copies;
+    the collapsed gotos are bypassed.
+   */
+  private Unit target(final Unit u) {
+    if(clones.containsKey(u)) {
+      return clones.get(u);
+    }
+    Unit hd = fwMap(u);
+    return clones.getOrDefault(hd, hd);
+  }
+
+  private static Unit fwMap(final Unit u) {
+    if(u.hasTag(RemapTag.REMAP)) {
+      return ((RemapTag) u.getTag(RemapTag.REMAP)).target;
+    } else {
+      return u;
+    }
+  }
+}
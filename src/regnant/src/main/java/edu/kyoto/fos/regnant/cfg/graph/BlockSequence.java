@@ -5,7 +5,7 @@ import edu.kyoto.fos.regnant.cfg.BasicBlock;
 import java.util.List;
 import java.util.stream.Collectors;
 
-public class BlockSequence extends GraphElem {
+public class BlockSequence extends GraphElem implements Parts.Composite {
   private final boolean isLoop;
   public List<GraphElem> chain;
   public Jumps jumps;
@@ -25,10 +25,10 @@ public class BlockSequence extends GraphElem {
     return chain.get(0).getHead();
   }
 
-  @Override public void printAt(final int i, StringBuilder sb) {
-    indentAndLoop(i, sb).append("{\n");
-    chain.forEach(ge -> { ge.printAt(i + 1, sb); sb.append("\n"); });
-    indent(i, sb).append("}\n");
+  @Override public void printParts(final int i, final Parts out) {
+    out.text(indentAndLoop(i, new StringBuilder()).append("{\n"));
+    chain.forEach(ge -> out.nested(ge, i + 1).text("\n"));
+    out.text(indent(i, new StringBuilder()).append("}\n"));
   }
 
   @Override public boolean isLoop() {
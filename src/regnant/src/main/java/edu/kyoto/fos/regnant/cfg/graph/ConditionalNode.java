@@ -2,7 +2,7 @@ package edu.kyoto.fos.regnant.cfg.graph;
 
 import edu.kyoto.fos.regnant.cfg.BasicBlock;
 
-public class ConditionalNode extends GraphElem {
+public class ConditionalNode extends GraphElem implements Parts.Composite {
   public final Continuation tBranch, fBranch;
   public final BasicBlock head;
   private final Jumps jumps;
@@ -22,11 +22,11 @@ public class ConditionalNode extends GraphElem {
     return head;
   }
 
-  @Override public void printAt(final int i, final StringBuilder sb) {
-    indentAndLoop(i, sb).append(head.getId()).append(" : ite {\n");
-    tBranch.printAt(i + 1, sb); sb.append("\n");
-    indent(i, sb).append("} else {\n");
-    fBranch.printAt(i + 1, sb); sb.append("\n");
-    indent(i, sb).append("}");
+  @Override public void printParts(final int i, final Parts out) {
+    out.text(indentAndLoop(i, new StringBuilder()).append(head.getId()).append(" : ite {\n"));
+    out.nested(tBranch, i + 1).text("\n");
+    out.text(indent(i, new StringBuilder()).append("} else {\n"));
+    out.nested(fBranch, i + 1).text("\n");
+    out.text(indent(i, new StringBuilder()).append("}"));
   }
 }
@@ -35,6 +35,18 @@ public class Coord implements Comparable<Coord> {
     return cmp.compare(this, coord);
   }
 
+  public BasicBlock getSource() {
+    return src;
+  }
+
+  public boolean isConditional() {
+    return cond;
+  }
+
+  public boolean getBranch() {
+    return branch;
+  }
+
   public static Coord of(boolean b, BasicBlock c) {
     return new Coord(c, b);
 
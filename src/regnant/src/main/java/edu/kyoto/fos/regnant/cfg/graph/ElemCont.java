@@ -2,7 +2,7 @@ package edu.kyoto.fos.regnant.cfg.graph;
 
 import java.util.Optional;
 
-public class ElemCont extends Continuation {
+public class ElemCont extends Continuation implements Parts.Composite {
   public final GraphElem elem;
 
   public ElemCont(GraphElem e) {
@@ -13,8 +13,8 @@ public class ElemCont extends Continuation {
     return this.elem.getJumps();
   }
 
-  @Override public void printAt(final int level, final StringBuilder b) {
-    elem.printAt(level, b);
+  @Override public void printParts(final int level, final Parts out) {
+    out.nested(elem, level);
   }
 
   @Override public Optional<GraphElem> elem() {
@@ -5,7 +5,7 @@ import edu.kyoto.fos.regnant.cfg.BasicBlock;
 import java.util.List;
 import java.util.stream.Collectors;
 
-public class InstNode extends GraphElem {
+public class InstNode extends GraphElem implements Parts.Composite {
   public final List<GraphElem> hds;
 
   public InstNode(final List<GraphElem> hds) {
@@ -25,9 +25,9 @@ public class InstNode extends GraphElem {
     return hds.stream().map(GraphElem::getHead).collect(Collectors.toList());
   }
 
-  @Override public void printAt(final int i, final StringBuilder sb) {
-    indent(i, sb).append("choice {\n");
-    hds.forEach(ge -> { ge.printAt(i + 1, sb); sb.append('\n'); });
-    indent(i, sb).append("}\n");
+  @Override public void printParts(final int i, final Parts out) {
+    out.text(indent(i, new StringBuilder()).append("choice {\n"));
+    hds.forEach(ge -> out.nested(ge, i + 1).text("\n"));
+    out.text(indent(i, new StringBuilder()).append("}\n"));
   }
 }
@@ -2,7 +2,7 @@ package edu.kyoto.fos.regnant.cfg.graph;
 
 import edu.kyoto.fos.regnant.cfg.BasicBlock;
 
-public class LoopNode extends GraphElem {
+public class LoopNode extends GraphElem implements Parts.Composite {
   private final Jumps jumps;
   public final GraphElem loopBody;
 
@@ -20,11 +20,10 @@ public class LoopNode extends GraphElem {
     return this.loopBody.getHead();
   }
 
-  @Override public void printAt(final int level, final StringBuilder b) {
-    indent(level, b).append("loop (").append(this.loopBody.getHead().getId()).append(") {\n");
-    this.loopBody.printAt(level + 1, b);
-    b.append("\n");
-    indent(level, b).append("}\n");
+  @Override public void printParts(final int level, final Parts out) {
+    out.text(indent(level, new StringBuilder()).append("loop (").append(this.loopBody.getHead().getId()).append(") {\n"));
+    out.nested(this.loopBody, level + 1).text("\n");
+    out.text(indent(level, new StringBuilder()).append("}\n"));
   }
 
   @Override public Jumps getJumps() {
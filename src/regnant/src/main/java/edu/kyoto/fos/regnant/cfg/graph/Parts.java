@@ -0,0 +1,69 @@
+package edu.kyoto.fos.regnant.cfg.graph;
+
+import edu.kyoto.fos.regnant.Printable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/*
+  The printing of nested graph elements. A composite element gives its text as a sequence of parts, each either text or a
+  nested element (or continuation) at some level. The nesting grows with the length of the method (each block of a sequence
+  is nested in the one before it), so the parts are expanded with an explicit stack rather than recursively.
+ */
+public class Parts {
+  public interface Composite extends Printable {
+    void printParts(int level, Parts out);
+
+    @Override default void printAt(final int level, final StringBuilder sb) {
+      Parts.print(this, level, sb);
+    }
+  }
+
+  private static class Part {
+    final CharSequence text;
+    final Printable nested;
+    final int level;
+
+    Part(final CharSequence text, final Printable nested, final int level) {
+      this.text = text;
+      this.nested = nested;
+      this.level = level;
+    }
+  }
+
+  private final List<Part> parts = new ArrayList<>();
+
+  private Parts() {
+  }
+
+  public Parts text(final CharSequence s) {
+    parts.add(new Part(s, null, 0));
+    return this;
+  }
+
+  public Parts nested(final Printable p, final int level) {
+    parts.add(new Part(null, p, level));
+    return this;
+  }
+
+  private static void print(final Composite root, final int level, final StringBuilder sb) {
+    Deque<Part> todo = new ArrayDeque<>();
+    todo.push(new Part(null, root, level));
+    while(!todo.isEmpty()) {
+      Part p = todo.pop();
+      if(p.text != null) {
+        sb.append(p.text);
+      } else if(p.nested instanceof Composite) {
+        Parts out = new Parts();
+        ((Composite) p.nested).printParts(p.level, out);
+        for(int i = out.parts.size() - 1; i >= 0; i--) {
+          todo.push(out.parts.get(i));
+        }
+      } else {
+        p.nested.printAt(p.level, sb);
+      }
+    }
+  }
+}
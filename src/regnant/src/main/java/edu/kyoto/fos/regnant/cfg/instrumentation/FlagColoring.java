@@ -0,0 +1,120 @@
+package edu.kyoto.fos.regnant.cfg.instrumentation;
+
+import edu.kyoto.fos.regnant.cfg.BasicBlock;
+import edu.kyoto.fos.regnant.cfg.BasicBlockGraph;
+import edu.kyoto.fos.regnant.cfg.RemapTag;
+import edu.kyoto.fos.regnant.cfg.graph.Coord;
+import soot.Unit;
+import soot.jimple.IfStmt;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/*
+  Assigns the values written to the control flag. The flag is only read by the checks (gates, choices, and the return/recurse
+  checks after a loop call), each of which tests if the flag is one of a set of coordinates. Two coordinates thus need
+  distinct values only if some check contains one but not the other: the coordinates are partitioned by the set of checks
+  containing them, and each class shares one value. The coordinates in no check share 0, the initial value of the flag.
+
+  A write of 0 is then dropped if the flag is known to be 0 at the jump, i.e., no path from the start of the method to the
+  jump writes any other value. As the writes happen at the jumps between basic blocks, this is computed on the block graph.
+ */
+class FlagColoring {
+  private final Map<Coord, Integer> ids = new TreeMap<>();
+  private final Set<Coord> deadWrites = new TreeSet<>();
+
+  FlagColoring(final BasicBlockGraph bbg, final List<Set<Coord>> checks, final Set<Coord> written) {
+    Map<Coord, BitSet> inChecks = new TreeMap<>();
+    for(Coord c : written) {
+      inChecks.put(c, new BitSet());
+    }
+    for(int i = 0; i < checks.size(); i++) {
+      for(Coord c : checks.get(i)) {
+        inChecks.computeIfAbsent(c, ign -> new BitSet()).set(i);
+      }
+    }
+    Map<BitSet, Integer> classes = new HashMap<>();
+    classes.put(new BitSet(), 0);
+    inChecks.forEach((c, in) -> ids.put(c, classes.computeIfAbsent(in, ign -> classes.size())));
+
+    // the blocks on entry to which the flag may be non-zero
+    BitSet nonZero = new BitSet(bbg.size());
+    int[] stack = new int[bbg.size()];
+    int top = 0;
+    for(Coord c : written) {
+      if(ids.get(c) == 0) {
+        continue;
+      }
+      for(int s : targets(bbg, c)) {
+        if(!nonZero.get(s)) {
+          nonZero.set(s);
+          stack[top++] = s;
+        }
+      }
+    }
+    while(top > 0) {
+      int v = stack[--top];
+      for(int e = bbg.succBegin(v); e < bbg.succEnd(v); e++) {
+        int s = bbg.succAt(e);
+        if(!nonZero.get(s)) {
+          nonZero.set(s);
+          stack[top++] = s;
+        }
+      }
+    }
+    for(Coord c : written) {
+      if(ids.get(c) == 0 && !nonZero.get(c.getSource().getId())) {
+        deadWrites.add(c);
+      }
+    }
+  }
+
+  /*
+    The blocks the jump at c may go to: for the branches of a conditional, the successors headed by the target of the if
+    (true) or the others (false; if the two branches go to the same block, that block).
+   */
+  private static int[] targets(final BasicBlockGraph bbg, final Coord c) {
+    int src = c.getSource().getId();
+    int[] succs = new int[bbg.succEnd(src) - bbg.succBegin(src)];
+    for(int e = bbg.succBegin(src); e < bbg.succEnd(src); e++) {
+      succs[e - bbg.succBegin(src)] = bbg.succAt(e);
+    }
+    if(!c.isConditional()) {
+      return succs;
+    }
+    Unit tgt = ((IfStmt) c.getSource().getTail()).getTarget();
+    if(tgt.hasTag(RemapTag.REMAP)) {
+      tgt = ((RemapTag) tgt.getTag(RemapTag.REMAP)).target;
+    }
+    BitSet toTarget = new BitSet();
+    for(int s : succs) {
+      if(bbg.getBlock(s).getHead() == tgt) {
+        toTarget.set(s);
+      }
+    }
+    if(c.getBranch()) {
+      return toTarget.stream().toArray();
+    }
+    BitSet rest = new BitSet();
+    for(int s : succs) {
+      if(!toTarget.get(s)) {
+        rest.set(s);
+      }
+    }
+    return rest.isEmpty() ? toTarget.stream().toArray() : rest.stream().toArray();
+  }
+
+  int getId(final Coord c) {
+    assert ids.containsKey(c) : c;
+    return ids.get(c);
+  }
+
+  Set<Coord> getDeadWrites() {
+    return deadWrites;
+  }
+}
@@ -10,10 +10,15 @@ import edu.kyoto.fos.regnant.cfg.graph.InstNode;
 import edu.kyoto.fos.regnant.cfg.graph.JumpNode;
 import edu.kyoto.fos.regnant.cfg.graph.Jumps;
 import edu.kyoto.fos.regnant.cfg.graph.LoopNode;
+import fj.P;
 import fj.P2;
 
-import java.util.HashSet;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
@@ -36,6 +41,9 @@ import java.util.stream.Collectors;
   ensures before performing the jump (by either falling through or returning, i.e., breaking out of a loop)
   the special control flag it set to some unique value. This analysis then annotates the current node, indicating it
   only conditionally executes if execution arrived from points p1, p2, ... etc.
+
+  The values of the flag are then assigned by FlagColoring, which shares values between coordinates no check distinguishes,
+  and removes from setFlag the writes which cannot change the flag.
 */
 public class FlagInstrumentation {
   public static final String GATE_ON = "gate-on";
@@ -45,21 +53,89 @@ public class FlagInstrumentation {
   public Set<Coord> setFlag = new TreeSet<>();
   public Set<Coord> returnJump = new TreeSet<>();
   public Set<Coord> recurseFlag = new TreeSet<>();
+  // the heads of the elements executed (or chosen) depending on the path taken to them
+  public Set<BasicBlock> gatedHeads = new LinkedHashSet<>();
+  private final FlagColoring coloring;
 
   public FlagInstrumentation(CFGReconstructor cfg) {
     recurseFlag.addAll(cfg.getRecurseLocations());
     GraphElem root = cfg.getReconstructedGraph();
-    this.assignFlags(root, null);
+    /*
+      Each element is processed after all the elements nested within it. The nesting grows with the length of the method, so
+      the elements are first listed (each with its immediately containing loop) with an explicit stack, and then processed
+      in reverse.
+     */
+    List<P2<GraphElem, BasicBlock>> elems = new ArrayList<>();
+    Deque<P2<GraphElem, BasicBlock>> worklist = new ArrayDeque<>();
+    worklist.push(P.p(root, null));
+    while(!worklist.isEmpty()) {
+      P2<GraphElem, BasicBlock> it = worklist.pop();
+      elems.add(it);
+      GraphElem graph = it._1();
+      BasicBlock childLoop = graph.isLoop() ? graph.getHead() : it._2();
+      children(graph, c -> worklist.push(P.p(c, childLoop)));
+    }
+    for(int i = elems.size() - 1; i >= 0; i--) {
+      this.assignFlags(elems.get(i)._1(), elems.get(i)._2());
+    }
+    List<Set<Coord>> checks = new ArrayList<>();
+    elems.forEach(p -> checks(p._1(), checks::add));
+    this.coloring = new FlagColoring(cfg.getBlockGraph(), checks, setFlag);
+    setFlag.removeAll(coloring.getDeadWrites());
+  }
+
+  /*
+    The value the control flag is set to at c
+   */
+  public int getCoordId(final Coord c) {
+    return coloring.getId(c);
+  }
+
+  /*
+    The sets of coordinates against which Translate checks the control flag for graph (the last choice of an InstNode is
+    taken without a check)
+   */
+  @SuppressWarnings("unchecked")
+  private static void checks(final GraphElem graph, final Consumer<Set<Coord>> f) {
+    Map<String, Object> annot = graph.getAnnot();
+    if(annot.containsKey(GATE_ON)) {
+      f.accept(graph.getAnnotation(GATE_ON, Set.class));
+    }
+    if(annot.containsKey(CHOOSE_BY)) {
+      Map<BasicBlock, Set<Coord>> chooseBy = graph.getAnnotation(CHOOSE_BY, Map.class);
+      List<GraphElem> hds = ((InstNode) graph).hds;
+      for(int i = 0; i < hds.size() - 1; i++) {
+        f.accept(chooseBy.get(hds.get(i).getHead()));
+      }
+    }
+    for(String k : new String[]{RECURSE_ON, RETURN_ON}) {
+      if(annot.containsKey(k) && !graph.getAnnotation(k, Set.class).isEmpty()) {
+        f.accept(graph.getAnnotation(k, Set.class));
+      }
+    }
+  }
+
+  /*
+    The elements nested directly within graph (the false branch of a conditional before the true branch)
+   */
+  public static void children(final GraphElem graph, final Consumer<GraphElem> f) {
+    if(graph instanceof ConditionalNode) {
+      ConditionalNode cond = (ConditionalNode) graph;
+      cond.fBranch.elem().ifPresent(f);
+      cond.tBranch.elem().ifPresent(f);
+    } else if(graph instanceof BlockSequence) {
+      ((BlockSequence) graph).chain.forEach(f);
+    } else if(graph instanceof LoopNode) {
+      f.accept(((LoopNode) graph).loopBody);
+    } else if(graph instanceof InstNode) {
+      ((InstNode) graph).hds.forEach(f);
+    }
   }
 
   private void assignFlags(final GraphElem graph, BasicBlock parentLoop) {
-    BasicBlock childLoop = graph.isLoop() ? graph.getHead() : parentLoop;
-    Consumer<GraphElem> curry = g -> assignFlags(g, childLoop);
     if(graph instanceof JumpNode) {
     } else if(graph instanceof ConditionalNode) {
       ConditionalNode cond = (ConditionalNode) graph;
-      cond.fBranch.elem().ifPresent(curry);
-      cond.tBranch.elem().ifPresent(curry);
 
       /*
         Given the number of times I add coordinates to the return jump set, I suspect
@@ -69,21 +145,21 @@ public class FlagInstrumentation {
       cond.fBranch.getJumps().brk.keySet().stream().map(P2::_1).forEach(returnJump::add);
     } else if(graph instanceof BlockSequence) {
       BlockSequence toCheck = (BlockSequence) graph;
-      toCheck.chain.forEach(curry);
 
       Iterator<GraphElem> iterator = toCheck.chain.iterator();
       GraphElem hd = iterator.next();
       assert !(hd instanceof InstNode);
       // get the flow successors from the head, mapping those successors to the set of source jumps targeting those nodes
-      Map<BasicBlock, Set<Coord>> flows = hd.getJumps().flow.stream().collect(Collectors.groupingBy(P2::_2, Collectors.mapping(P2::_1, Collectors.toSet())));
+      Map<BasicBlock, Set<Coord>> flows = hd.getJumps().flow.stream().collect(Collectors.groupingBy(P2::_2, Collectors.mapping(P2::_1, Collectors.toCollection(TreeSet::new))));
       while(iterator.hasNext()) {
         hd = iterator.next();
         // Is the next element in the sequence executed unconditionally; i.e., do all successors remaining from the previous element have this current block as their target.
         boolean unconditional = hd.heads().stream().distinct().filter(flows::containsKey).count() == flows.size();
         // If not, we must conditionally execute this block. This is achieve with the GATE_ON annotation, which contains the set of coordinates with this as their target.
         if(!unconditional) {
-          Set<Coord> gate = hd.heads().stream().flatMap(p -> flows.get(p).stream()).collect(Collectors.toSet());
+          Set<Coord> gate = hd.heads().stream().flatMap(p -> flows.get(p).stream()).collect(Collectors.toCollection(TreeSet::new));
           hd.putAnnotation(GATE_ON, gate);
+          gatedHeads.addAll(hd.heads());
           // all outstanding jumps must set their flag to determine whether to conditionally execute this node
           flows.values().forEach(setFlag::addAll);
         }
@@ -96,6 +172,7 @@ public class FlagInstrumentation {
           // generate a map from basic blocks to the set of jump coordinates with that basic block as the target
           Map<BasicBlock, Set<Coord>> chooseBy = inst.hds.stream().map(GraphElem::getHead).collect(Collectors.toMap(i -> i, flows::get));
           hd.putAnnotation(CHOOSE_BY, chooseBy);
+          gatedHeads.addAll(chooseBy.keySet());
         }
         hd.heads().forEach(flows::remove);
         // for each successor from this current node, update the list of expected targets and the jump coordinates as their source
@@ -103,11 +180,8 @@ public class FlagInstrumentation {
           flows.computeIfAbsent(pp._2(), ign -> new TreeSet<>()).add(pp._1());
         });
       }
-    } else if(graph instanceof LoopNode) {
-      curry.accept(((LoopNode) graph).loopBody);
     } else {
-      assert graph instanceof InstNode;
-      ((InstNode)graph).hds.forEach(curry);
+      assert graph instanceof LoopNode || graph instanceof InstNode;
     }
 
     Jumps jumps = graph.getJumps();
@@ -119,8 +193,8 @@ public class FlagInstrumentation {
     jumps.brk.keySet().stream().map(P2::_1).forEach(returnJump::add);
 
     if(graph.isLoop()) {
-      Set<Coord> recurseOn = new HashSet<>();
-      Set<Coord> returnOn = new HashSet<>();
+      Set<Coord> recurseOn = new TreeSet<>();
+      Set<Coord> returnOn = new TreeSet<>();
 
       /* now instrument on "return on" or "recurse on"
          Return on is for implementing breaking out of multiple loops.
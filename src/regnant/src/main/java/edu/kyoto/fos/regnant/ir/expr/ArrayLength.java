@@ -1,5 +1,7 @@
 package edu.kyoto.fos.regnant.ir.expr;
 
+import java.util.List;
+
 public class ArrayLength extends ImpExpr implements CompoundExpr {
   private final ImpExpr arrayExpr;
 
@@ -11,6 +13,14 @@ public class ArrayLength extends ImpExpr implements CompoundExpr {
     return true;
   }
 
+  @Override public List<ImpExpr> children() {
+    return List.of(arrayExpr);
+  }
+
+  @Override public ImpExpr withChildren(final List<ImpExpr> children) {
+    return new ArrayLength(children.get(0));
+  }
+
   @Override public void printOn(final StringBuilder sb) {
     this.printCompound(sb, arrayExpr);
     sb.append(".length");
@@ -1,5 +1,7 @@
 package edu.kyoto.fos.regnant.ir.expr;
 
+import java.util.List;
+
 public class ArrayRead extends ImpExpr {
 
   private final ImpExpr arrayExpr, indExpr;
@@ -13,6 +15,14 @@ public class ArrayRead extends ImpExpr {
     return true;
   }
 
+  @Override public List<ImpExpr> children() {
+    return List.of(arrayExpr, indExpr);
+  }
+
+  @Override public ImpExpr withChildren(final List<ImpExpr> children) {
+    return new ArrayRead(children.get(0), children.get(1));
+  }
+
   @Override public void printOn(final StringBuilder sb) {
     this.arrayExpr.printOn(sb);
     sb.append("[");
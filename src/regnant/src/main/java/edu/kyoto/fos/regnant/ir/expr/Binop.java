@@ -1,5 +1,7 @@
 package edu.kyoto.fos.regnant.ir.expr;
 
+import java.util.List;
+
 public class Binop extends ImpExpr implements CompoundExpr {
   private final ImpExpr rhs;
   private final ImpExpr lhs;
@@ -11,10 +13,30 @@ public class Binop extends ImpExpr implements CompoundExpr {
     this.rhs = rhs;
   }
 
+  public ImpExpr getLhs() {
+    return lhs;
+  }
+
+  public String getSym() {
+    return sym;
+  }
+
+  public ImpExpr getRhs() {
+    return rhs;
+  }
+
   @Override public boolean isCompound() {
     return true;
   }
 
+  @Override public List<ImpExpr> children() {
+    return List.of(lhs, rhs);
+  }
+
+  @Override public ImpExpr withChildren(final List<ImpExpr> children) {
+    return new Binop(children.get(0), sym, children.get(1));
+  }
+
   @Override public void printOn(final StringBuilder sb) {
     this.printCompound(sb, this.lhs);
     sb.append(" ").append(this.sym).append(" ");
@@ -15,6 +15,14 @@ public class Call extends ImpExpr implements CompoundExpr, InterleavedDo {
     return true;
   }
 
+  @Override public List<ImpExpr> children() {
+    return arguments;
+  }
+
+  @Override public ImpExpr withChildren(final List<ImpExpr> children) {
+    return new Call(callee, children);
+  }
+
   @Override public void printOn(final StringBuilder sb) {
     sb.append(this.callee).append("(");
     this.doInterleaved(arguments.stream(), sb, ImpExpr::printOn, b -> b.append(", "));
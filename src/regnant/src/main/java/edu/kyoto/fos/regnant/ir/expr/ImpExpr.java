@@ -1,6 +1,5 @@
 package edu.kyoto.fos.regnant.ir.expr;
 
-import edu.kyoto.fos.regnant.translation.FlagTranslation;
 import edu.kyoto.fos.regnant.translation.Translate;
 import soot.Local;
 import soot.PrimType;
@@ -10,11 +9,11 @@ import soot.VoidType;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
 public abstract class ImpExpr implements ProgFragment {
-  public static ImpExpr controlFlag(final List<Integer> collect) {
-    String genName = FlagTranslation.allocate(collect);
+  public static ImpExpr controlFlag(final String genName) {
     return Call.v(
         genName, Collections.singletonList(Variable.deref(Translate.CONTROL_FLAG))
     );
@@ -68,6 +67,27 @@ public abstract class ImpExpr implements ProgFragment {
 
   public abstract boolean isCompound();
 
+  /*
+    The immediate subexpressions of this expression, and this expression rebuilt with new ones (in the same order).
+    These are for the rewriting of the translated IMP (see ImpOptimizer).
+   */
+  public List<ImpExpr> children() {
+    return Collections.emptyList();
+  }
+
+  public ImpExpr withChildren(List<ImpExpr> children) {
+    return this;
+  }
+
+  /*
+    Rewrites this expression bottom up with f
+   */
+  public ImpExpr transform(UnaryOperator<ImpExpr> f) {
+    List<ImpExpr> c = this.children();
+    ImpExpr e = c.isEmpty() ? this : this.withChildren(c.stream().map(ch -> ch.transform(f)).collect(Collectors.toList()));
+    return f.apply(e);
+  }
+
   @Override public String toString() {
     StringBuilder sb = new StringBuilder();
     printOn(sb);
@@ -11,6 +11,10 @@ public class IntLiteral extends ImpExpr {
     return new IntLiteral(v);
   }
 
+  public int getValue() {
+    return value;
+  }
+
   @Override public boolean isCompound() {
     return false;
   }
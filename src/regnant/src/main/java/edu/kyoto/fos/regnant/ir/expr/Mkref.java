@@ -1,5 +1,7 @@
 package edu.kyoto.fos.regnant.ir.expr;
 
+import java.util.List;
+
 public class Mkref extends ImpExpr {
   private final ImpExpr referent;
 
@@ -11,6 +13,14 @@ public class Mkref extends ImpExpr {
     return true;
   }
 
+  @Override public List<ImpExpr> children() {
+    return List.of(referent);
+  }
+
+  @Override public ImpExpr withChildren(final List<ImpExpr> children) {
+    return new Mkref(children.get(0));
+  }
+
   @Override public void printOn(final StringBuilder sb) {
     sb.append("mkref ");
     if(this.referent.isCompound()) {
@@ -1,5 +1,7 @@
 package edu.kyoto.fos.regnant.ir.expr;
 
+import java.util.List;
+
 public class NewArray extends ImpExpr implements CompoundExpr {
   private final ImpExpr dim;
   public NewArray(final ImpExpr dim) {
@@ -10,6 +12,14 @@ public class NewArray extends ImpExpr implements CompoundExpr {
     return true;
   }
 
+  @Override public List<ImpExpr> children() {
+    return List.of(dim);
+  }
+
+  @Override public ImpExpr withChildren(final List<ImpExpr> children) {
+    return new NewArray(children.get(0));
+  }
+
   @Override public void printOn(final StringBuilder sb) {
     sb.append("mkarray ");
     this.printCompound(sb, this.dim);
@@ -23,4 +23,12 @@ public class Tuple extends ImpExpr implements InterleavedDo {
   @Override public boolean isCompound() {
     return false;
   }
+
+  @Override public List<ImpExpr> children() {
+    return contents;
+  }
+
+  @Override public ImpExpr withChildren(final List<ImpExpr> children) {
+    return new Tuple(children);
+  }
 }
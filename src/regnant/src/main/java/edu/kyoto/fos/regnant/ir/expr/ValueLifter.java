@@ -26,6 +26,7 @@ import soot.util.queue.ChunkedQueue;
 
 import java.util.List;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static edu.kyoto.fos.regnant.ir.expr.ImpExpr.call;
@@ -73,14 +74,15 @@ public class ValueLifter {
       // hoo boy
       NewExpr alloc = (NewExpr) op;
       SootClass alloced = alloc.getBaseType().getSootClass();
-      // we can use Soot's numbering scheme
-      int tag = alloced.getNumber();
+      int tag = layout.runtimeTag(alloced);
       List<SootField> f = layout.getMetaLayout(alloced);
+      List<SootField> slots = layout.getSlotFields(alloced);
       List<ImpExpr> flds = Stream.concat(
           // runtime tag
           Stream.of(IntLiteral.v(tag)),
-          // the initial, default values
-          f.stream().map(sf -> om.allocFieldOfType(sf.getType()))).collect(Collectors.toList());
+          // the initial, default values (the slots of fields of other meta classes in the layout are never accessed, but
+          // hold a value of the same type as in those meta classes)
+          IntStream.range(0, f.size()).mapToObj(i -> om.allocField(f.get(i) == null ? slots.get(i) : f.get(i)))).collect(Collectors.toList());
       return new Mkref(Tuple.v(flds));
     } else if(op instanceof NewArrayExpr) {
       NewArrayExpr arrayExpr = (NewArrayExpr) op;
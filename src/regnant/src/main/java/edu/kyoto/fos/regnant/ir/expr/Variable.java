@@ -19,6 +19,14 @@ public class Variable extends ImpExpr {
     return immut(basePtr.getName());
   }
 
+  public String getName() {
+    return name;
+  }
+
+  public boolean isDeref() {
+    return isDeref;
+  }
+
   @Override public boolean isCompound() {
     return this.isDeref;
   }
@@ -1,6 +1,10 @@
 package edu.kyoto.fos.regnant.ir.stmt;
 
+import edu.kyoto.fos.regnant.ir.expr.ImpExpr;
 import edu.kyoto.fos.regnant.ir.stmt.aliasing.AliasOp;
+import edu.kyoto.fos.regnant.translation.InstructionStream;
+
+import java.util.List;
 
 public class Alias extends Effect {
   private final AliasOp lhs;
@@ -16,6 +20,22 @@ public class Alias extends Effect {
     this.rhs = rhs;
   }
 
+  public AliasOp getLhs() {
+    return lhs;
+  }
+
+  public AliasOp getRhs() {
+    return rhs;
+  }
+
+  @Override public List<String> names() {
+    return List.of(lhs.getRoot(), rhs.getRoot());
+  }
+
+  @Override public Alias with(final List<ImpExpr> exprs, final List<String> names, final List<InstructionStream> streams) {
+    return new Alias(lhs.withRoot(names.get(0)), rhs.withRoot(names.get(1)));
+  }
+
   @Override public void printAt(final int level, final StringBuilder b) {
     indent(level, b).append("alias(");
     lhs.printOn(b);
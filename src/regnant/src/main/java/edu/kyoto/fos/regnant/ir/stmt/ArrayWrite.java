@@ -1,6 +1,9 @@
 package edu.kyoto.fos.regnant.ir.stmt;
 
 import edu.kyoto.fos.regnant.ir.expr.ImpExpr;
+import edu.kyoto.fos.regnant.translation.InstructionStream;
+
+import java.util.List;
 
 public class ArrayWrite extends Effect {
   private final ImpExpr basePtr;
@@ -13,6 +16,14 @@ public class ArrayWrite extends Effect {
     this.val = val;
   }
 
+  @Override public List<ImpExpr> exprs() {
+    return List.of(basePtr, ind, val);
+  }
+
+  @Override public ArrayWrite with(final List<ImpExpr> exprs, final List<String> names, final List<InstructionStream> streams) {
+    return new ArrayWrite(exprs.get(0), exprs.get(1), exprs.get(2));
+  }
+
   @Override public void printAt(final int level, final StringBuilder b) {
     this.indent(level, b);
     basePtr.printOn(b);
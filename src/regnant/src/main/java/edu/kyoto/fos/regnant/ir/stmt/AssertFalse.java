@@ -1,6 +1,15 @@
 package edu.kyoto.fos.regnant.ir.stmt;
 
+import edu.kyoto.fos.regnant.ir.expr.ImpExpr;
+import edu.kyoto.fos.regnant.translation.InstructionStream;
+
+import java.util.List;
+
 public class AssertFalse extends Effect {
+  @Override public AssertFalse with(final List<ImpExpr> exprs, final List<String> names, final List<InstructionStream> streams) {
+    return this;
+  }
+
   @Override public void printAt(final int level, final StringBuilder b) {
     indent(level, b).append("fail");
   }
@@ -1,6 +1,9 @@
 package edu.kyoto.fos.regnant.ir.stmt;
 
 import edu.kyoto.fos.regnant.ir.expr.ImpExpr;
+import edu.kyoto.fos.regnant.translation.InstructionStream;
+
+import java.util.List;
 
 public class Assign extends Effect {
   private final String name;
@@ -11,6 +14,18 @@ public class Assign extends Effect {
     this.val = val;
   }
 
+  @Override public List<ImpExpr> exprs() {
+    return List.of(val);
+  }
+
+  @Override public List<String> names() {
+    return List.of(name);
+  }
+
+  @Override public Assign with(final List<ImpExpr> exprs, final List<String> names, final List<InstructionStream> streams) {
+    return new Assign(names.get(0), exprs.get(0));
+  }
+
   @Override public void printAt(final int level, final StringBuilder b) {
     indent(level, b).append(this.name).append(" := ");
     this.val.printOn(b);
@@ -1,6 +1,4 @@
 package edu.kyoto.fos.regnant.ir.stmt;
 
-import edu.kyoto.fos.regnant.Printable;
-
-public abstract class Bind implements Printable {
+public abstract class Bind implements Instruction {
 }
@@ -1,7 +1,10 @@
 package edu.kyoto.fos.regnant.ir.stmt;
 
+import edu.kyoto.fos.regnant.ir.expr.ImpExpr;
 import edu.kyoto.fos.regnant.translation.InstructionStream;
 
+import java.util.List;
+
 public class Block extends Effect {
   private final InstructionStream is;
 
@@ -9,6 +12,14 @@ public class Block extends Effect {
     this.is = is;
   }
 
+  @Override public List<InstructionStream> streams() {
+    return List.of(is);
+  }
+
+  @Override public Block with(final List<ImpExpr> exprs, final List<String> names, final List<InstructionStream> streams) {
+    return new Block(streams.get(0));
+  }
+
   @Override public void printAt(final int level, final StringBuilder b) {
     indent(level, b).append("{\n");
     this.is.printAt(level + 1, b);
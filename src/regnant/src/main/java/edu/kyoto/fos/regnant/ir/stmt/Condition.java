@@ -1,18 +1,32 @@
 package edu.kyoto.fos.regnant.ir.stmt;
 
-import edu.kyoto.fos.regnant.Printable;
 import edu.kyoto.fos.regnant.ir.expr.ImpExpr;
+import edu.kyoto.fos.regnant.translation.InstructionStream;
+
+import java.util.List;
 
 public class Condition extends Effect {
   private final ImpExpr cond;
-  private final Printable tBranch;
-  private final Printable fBranch;
+  private final InstructionStream tBranch;
+  private final InstructionStream fBranch;
 
-  public Condition(ImpExpr cond, Printable tBranch, Printable fBranch) {
+  public Condition(ImpExpr cond, InstructionStream tBranch, InstructionStream fBranch) {
     this.cond = cond;
     this.tBranch = tBranch;
     this.fBranch = fBranch;
   }
+
+  @Override public List<ImpExpr> exprs() {
+    return List.of(cond);
+  }
+
+  @Override public List<InstructionStream> streams() {
+    return List.of(tBranch, fBranch);
+  }
+
+  @Override public Condition with(final List<ImpExpr> exprs, final List<String> names, final List<InstructionStream> streams) {
+    return new Condition(exprs.get(0), streams.get(0), streams.get(1));
+  }
   @Override public void printAt(final int level, final StringBuilder b) {
     indent(level, b).append("if ");
     cond.printOn(b);
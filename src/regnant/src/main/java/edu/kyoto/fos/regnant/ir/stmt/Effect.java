@@ -1,8 +1,6 @@
 package edu.kyoto.fos.regnant.ir.stmt;
 
-import edu.kyoto.fos.regnant.Printable;
-
-public abstract class Effect implements Printable {
+public abstract class Effect implements Instruction {
   @Override public String toString() {
     StringBuilder sb = new StringBuilder();
     this.printAt(0, sb);
@@ -0,0 +1,36 @@
+package edu.kyoto.fos.regnant.ir.stmt;
+
+import edu.kyoto.fos.regnant.Printable;
+import edu.kyoto.fos.regnant.ir.expr.ImpExpr;
+import edu.kyoto.fos.regnant.translation.InstructionStream;
+
+import java.util.Collections;
+import java.util.List;
+
+/*
+  A binding or effect of an InstructionStream. The parts of an instruction are exposed (and replaced) for the rewriting of
+  the translated IMP (see ImpOptimizer): the expressions it evaluates, the variables it refers to by name only (e.g., in
+  alias statements), the streams nested in it, and the variables it binds for the rest of its stream.
+ */
+public interface Instruction extends Printable {
+  default List<ImpExpr> exprs() {
+    return Collections.emptyList();
+  }
+
+  default List<String> names() {
+    return Collections.emptyList();
+  }
+
+  default List<InstructionStream> streams() {
+    return Collections.emptyList();
+  }
+
+  default List<String> bound() {
+    return Collections.emptyList();
+  }
+
+  /*
+    This instruction with the given expressions, names and streams, in the order of the above
+   */
+  Instruction with(List<ImpExpr> exprs, List<String> names, List<InstructionStream> streams);
+}
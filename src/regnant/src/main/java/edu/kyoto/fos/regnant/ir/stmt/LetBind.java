@@ -2,6 +2,9 @@ package edu.kyoto.fos.regnant.ir.stmt;
 
 import edu.kyoto.fos.regnant.ir.expr.ImpExpr;
 import edu.kyoto.fos.regnant.ir.expr.Mkref;
+import edu.kyoto.fos.regnant.translation.InstructionStream;
+
+import java.util.List;
 
 public class LetBind extends Bind {
   private String varName;
@@ -12,6 +15,27 @@ public class LetBind extends Bind {
     this.rhs = mutable ? new Mkref(rhs) : rhs;
   }
 
+  public String getVarName() {
+    return varName;
+  }
+
+  public ImpExpr getRhs() {
+    return rhs;
+  }
+
+  @Override public List<ImpExpr> exprs() {
+    return List.of(rhs);
+  }
+
+  @Override public List<String> bound() {
+    return List.of(varName);
+  }
+
+  @Override public LetBind with(final List<ImpExpr> exprs, final List<String> names, final List<InstructionStream> streams) {
+    // a mutable binding keeps its mkref in the rhs
+    return new LetBind(varName, exprs.get(0), false);
+  }
+
   @Override public void printAt(final int level, final StringBuilder b) {
     StringBuilder sb = indent(level, b).append("let ").append(varName).append(" = ");
     this.rhs.printOn(sb);
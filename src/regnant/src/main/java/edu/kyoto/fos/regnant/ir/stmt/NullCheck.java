@@ -3,6 +3,8 @@ package edu.kyoto.fos.regnant.ir.stmt;
 import edu.kyoto.fos.regnant.ir.expr.ImpExpr;
 import edu.kyoto.fos.regnant.translation.InstructionStream;
 
+import java.util.List;
+
 public class NullCheck extends Effect {
   private final ImpExpr value;
   private final InstructionStream trueBranch;
@@ -15,6 +17,18 @@ public class NullCheck extends Effect {
     this.falseBranch = falseBranch;
   }
 
+  @Override public List<ImpExpr> exprs() {
+    return List.of(value);
+  }
+
+  @Override public List<InstructionStream> streams() {
+    return List.of(trueBranch, falseBranch);
+  }
+
+  @Override public NullCheck with(final List<ImpExpr> exprs, final List<String> names, final List<InstructionStream> streams) {
+    return new NullCheck(exprs.get(0), streams.get(0), streams.get(1));
+  }
+
   @Override public void printAt(final int level, final StringBuilder b) {
     indent(level, b).append("ifnull ");
     value.printOn(b);
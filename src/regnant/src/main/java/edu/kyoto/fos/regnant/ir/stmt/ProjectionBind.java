@@ -0,0 +1,46 @@
+package edu.kyoto.fos.regnant.ir.stmt;
+
+import edu.kyoto.fos.regnant.ir.expr.ImpExpr;
+import edu.kyoto.fos.regnant.translation.InstructionStream;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/*
+  let (x_0, ..., x_n) = *base in, where the slots not bound are null (printed as _)
+ */
+public class ProjectionBind extends Bind {
+  private final List<String> slots;
+  private final String base;
+
+  public ProjectionBind(final List<String> slots, final String base) {
+    this.slots = slots;
+    this.base = base;
+  }
+
+  public List<String> getSlots() {
+    return slots;
+  }
+
+  public String getBase() {
+    return base;
+  }
+
+  @Override public List<String> names() {
+    return List.of(base);
+  }
+
+  @Override public List<String> bound() {
+    return slots.stream().filter(Objects::nonNull).collect(Collectors.toList());
+  }
+
+  @Override public ProjectionBind with(final List<ImpExpr> exprs, final List<String> names, final List<InstructionStream> streams) {
+    return new ProjectionBind(slots, names.get(0));
+  }
+
+  @Override public void printAt(final int level, final StringBuilder b) {
+    String bind = slots.stream().map(s -> s == null ? "_" : s).collect(Collectors.joining(", ", "(", ")"));
+    indent(level, b).append("let ").append(bind).append(" = *").append(base).append(" in ");
+  }
+}
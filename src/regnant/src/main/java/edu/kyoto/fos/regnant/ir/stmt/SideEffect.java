@@ -2,6 +2,7 @@ package edu.kyoto.fos.regnant.ir.stmt;
 
 import edu.kyoto.fos.regnant.ir.expr.ImpExpr;
 import edu.kyoto.fos.regnant.ir.expr.Variable;
+import edu.kyoto.fos.regnant.translation.InstructionStream;
 import soot.Local;
 
 import java.util.List;
@@ -19,6 +20,14 @@ public class SideEffect extends Effect {
     return new SideEffect(new edu.kyoto.fos.regnant.ir.expr.Call(name, l));
   }
 
+  @Override public List<ImpExpr> exprs() {
+    return List.of(wrapped);
+  }
+
+  @Override public SideEffect with(final List<ImpExpr> exprs, final List<String> names, final List<InstructionStream> streams) {
+    return new SideEffect(exprs.get(0));
+  }
+
   @Override public void printAt(final int level, final StringBuilder b) {
     indent(level, b);
     wrapped.printOn(b);
@@ -19,6 +19,14 @@ public class AliasOp implements ProgFragment {
     this.elems = elems;
   }
 
+  public String getRoot() {
+    return root;
+  }
+
+  public AliasOp withRoot(final String newRoot) {
+    return new AliasOp(newRoot, elems);
+  }
+
   public static Builder buildAt(String v) {
     return new Builder(v);
   }
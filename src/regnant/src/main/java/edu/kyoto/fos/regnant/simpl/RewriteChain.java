@@ -1,21 +1,26 @@
 package edu.kyoto.fos.regnant.simpl;
 
+import edu.kyoto.fos.regnant.Metrics;
 import edu.kyoto.fos.regnant.aliasing.AliasInsertion;
+import edu.kyoto.fos.regnant.analysis.TypeAnalysis;
+import fj.P;
+import fj.P2;
 import soot.Body;
 
 import java.util.List;
-import java.util.function.Function;
+import java.util.function.BiFunction;
 
 public class RewriteChain {
-  private static final List<Function<Body, Body>> rewriters = List.of(
-      AssertionRewriter::rewrite,
-      RandomRewriter::rewriteRandom,
-      AliasInsertion::rewrite
+  private static final List<P2<String, BiFunction<Body, TypeAnalysis, Body>>> rewriters = List.of(
+      P.p("assertions", (b, types) -> AssertionRewriter.rewrite(b)),
+      P.p("random", (b, types) -> RandomRewriter.rewriteRandom(b)),
+      P.p("alias-insertion", AliasInsertion::rewrite)
   );
-  public static Body rewrite(Body b) {
+  public static Body rewrite(Body b, TypeAnalysis types, Metrics metrics) {
     Body it = b;
     for(var f : rewriters) {
-      it = f.apply(it);
+      Body curr = it;
+      it = metrics.time("rewrite." + f._1(), () -> f._2().apply(curr, types));
     }
     return it;
   }
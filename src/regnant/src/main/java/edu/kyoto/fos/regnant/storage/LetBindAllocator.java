@@ -5,23 +5,20 @@ import edu.kyoto.fos.regnant.cfg.BlockTree;
 import soot.Local;
 import soot.ValueBox;
 
-import java.util.Collections;
+import java.util.BitSet;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 public class LetBindAllocator {
   public final Map<BasicBlock, Map<Local, Binding>> letBind = new HashMap<>();
-  public LetBindAllocator(BlockTree<BasicBlock> tree) {
+  public LetBindAllocator(BlockTree tree) {
     this.computeBinds(tree);
   }
 
-  private void computeBinds(final BlockTree<BasicBlock> tree) {
-    Map<Local, Set<BasicBlock>> use = new HashMap<>();
-    Map<Local, Set<BasicBlock>> def = new HashMap<>();
+  private void computeBinds(final BlockTree tree) {
+    // the blocks using and defining each local, by block id
+    Map<Local, BitSet> use = new HashMap<>();
+    Map<Local, BitSet> def = new HashMap<>();
     Map<Local, Integer> writeCounts = new HashMap<>();
 
     tree.nodes.forEach(bb -> bb.units.forEach(u -> {
@@ -29,20 +26,14 @@ public class LetBindAllocator {
               .map(ValueBox::getValue)
               .filter(v -> v instanceof Local)
               .map(v -> (Local) v)
-              .forEach(v -> use.merge(v, Collections.singleton(bb), (a1, a2) -> {
-                HashSet<BasicBlock> b1 = new HashSet<>(a1);
-                b1.addAll(a2);
-                return b1;
-          }));
+              .forEach(v -> use.computeIfAbsent(v, ign -> new BitSet()).set(bb.getId()));
           u.getDefBoxes().stream()
               .map(ValueBox::getValue)
               .filter(v -> v instanceof Local)
               .map(v -> (Local)v)
               .forEach(v -> {
                 writeCounts.merge(v, 1, Integer::sum);
-                def.merge(v, Collections.singleton(bb), (v1,v2) -> {
-                  Set<BasicBlock> m = new HashSet<>(v1); m.addAll(v2); return m;
-            });
+                def.computeIfAbsent(v, ign -> new BitSet()).set(bb.getId());
           });
         }
       ));
@@ -51,17 +42,8 @@ public class LetBindAllocator {
       if(writeCounts.get(l) == 1) {
         // check if each write dominates (is the parent of in the tree) every use.
         // Note that this is trivially true for values used only within the def block
-        BasicBlock defBlock = def.get(l).iterator().next();
-        boolean dominates = use.getOrDefault(l, Collections.emptySet()).stream().allMatch(useBlock -> {
-          BasicBlock it = useBlock;
-          while(it != null) {
-            if(it.equals(defBlock)) {
-              return true;
-            }
-            it = tree.parent.get(it);
-          }
-          return false;
-        });
+        int defBlock = def.get(l).nextSetBit(0);
+        boolean dominates = use.getOrDefault(l, new BitSet()).stream().allMatch(useBlock -> tree.isAncestor(defBlock, useBlock));
         if(dominates) {
           bindingTypes.put(l, Binding.CONST);
         } else {
@@ -73,26 +55,14 @@ public class LetBindAllocator {
     });
     // now determine where the bindings are introduced
     def.forEach((l, defSites)-> {
-      Set<BasicBlock> s = new HashSet<>(defSites);
+      // the deepest block dominating every def and use
+      BitSet s = (BitSet) defSites.clone();
       if(use.containsKey(l)) {
-        s.addAll(use.get(l));
+        s.or(use.get(l));
       }
-      Set<BasicBlock> levels =  new HashSet<>(s);
-      assert levels.size() > 0;
-      while(levels.size() != 1) {
-        Stream.Builder<BasicBlock> toParent = Stream.builder();
-        int maxLevel = levels.stream().collect(Collectors.summarizingInt(tree.level::get)).getMax();
-        levels.stream().filter(p -> tree.level.get(p) == maxLevel).forEach(toParent);
-        toParent.build().forEach(bb -> {
-          levels.remove(bb);
-          assert tree.parent.containsKey(bb);
-          assert tree.level.get(bb) == maxLevel;
-          BasicBlock parent = tree.parent.get(bb);
-          assert tree.level.get(parent) == maxLevel - 1;
-          levels.add(parent);
-        });
-      }
-      BasicBlock bb = levels.iterator().next();
+      int site = s.stream().reduce(tree::lca).getAsInt();
+      assert site != -1;
+      BasicBlock bb = tree.getBlock(site);
       letBind.computeIfAbsent(bb, basicBlock -> new HashMap<>()).put(l, bindingTypes.get(l));
     });
   }
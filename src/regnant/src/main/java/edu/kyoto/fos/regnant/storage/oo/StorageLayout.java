@@ -1,45 +1,159 @@
 package edu.kyoto.fos.regnant.storage.oo;
 
-import edu.kyoto.fos.regnant.storage.oo.UnionFind.Node;
-import edu.kyoto.fos.regnant.translation.Translate;
-import soot.PointsToAnalysis;
+import edu.kyoto.fos.regnant.analysis.TypeAnalysis;
+import soot.Local;
+import soot.MethodOrMethodContext;
+import soot.PrimType;
 import soot.RefLikeType;
 import soot.RefType;
+import soot.Scene;
 import soot.SootClass;
 import soot.SootField;
+import soot.SootMethod;
 import soot.Type;
-import soot.jimple.spark.pag.LocalVarNode;
-import soot.jimple.spark.pag.PAG;
+import soot.Unit;
+import soot.Value;
+import soot.ValueBox;
+import soot.jimple.CastExpr;
+import soot.jimple.InstanceInvokeExpr;
+import soot.jimple.InstanceOfExpr;
+import soot.jimple.SpecialInvokeExpr;
+import soot.util.queue.QueueReader;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class StorageLayout {
+  /*
+    A field has the same slot in every object that has it. In the merged mode (the default), classes inheriting fields from
+    a common superclass share a representation, and the fields of a meta class take consecutive slots.
+
+    In the precise mode, only the classes whose objects may reach a location where the translation compares runtime tags
+    (the receiver of a virtual call, or the operand of a cast or instanceof check, by the type analysis, e.g., the PAG)
+    share a representation, that is, a meta class and its runtime tags. The meta classes with a common field, or whose
+    objects may be stored in a common location (e.g., the receiver of a superclass constructor), are laid out together
+    as a group, whose tuples all have the same type: a field takes the first slot not taken by another field of the same
+    objects, nor by a field of another type (or of a reference type) of the group (see assignSlots), and the slots of the
+    fields of other meta classes hold the default value of one of these fields. Fields of different meta classes share
+    slots, so the tuples can be narrower than the union of the fields of the group. The hybrid object model may store
+    fields sharing a slot differently, so it only supports the merged mode.
+   */
+  public enum Mode {
+    MERGED,
+    PRECISE
+  }
+
   private UnionFind<SootClass> uf = new UnionFind<>();
+  private final Predicate<SootField> live;
+
+  /*
+    Only the storage locations of methods in scope (and of no method at all, e.g., globals) are considered
+    when unifying representations; the translation never looks at storage locations of other methods.
+   */
+  public StorageLayout(TypeAnalysis types, Predicate<SootMethod> inScope) {
+    this(types, inScope, Mode.MERGED);
+  }
+
+  public StorageLayout(TypeAnalysis types, Predicate<SootMethod> inScope, Mode mode) {
+    this(types, inScope, mode, f -> true);
+  }
+
+  /*
+    Fields that are not live (e.g., never read by the program) get no slot, see assignSlots
+   */
+  public StorageLayout(TypeAnalysis types, Predicate<SootMethod> inScope, Mode mode, Predicate<SootField> live) {
+    this.live = live;
+    this.analyze(types, inScope, mode);
+  }
 
-  public StorageLayout(PointsToAnalysis pta) {
-    this.analyze(pta);
+  private void analyze(final TypeAnalysis types, final Predicate<SootMethod> inScope, final Mode mode) {
+    List<Set<Type>> shared = types.sharedLocations(inScope).collect(Collectors.toList());
+    if(mode == Mode.MERGED) {
+      shared.forEach(this::unifyRepr);
+      // a field has the same slot in every object, so classes inheriting fields from a common superclass must share a representation
+      Map<SootClass, SootClass> inheritedBy = new HashMap<>();
+      uf.universe().collect(Collectors.toList()).forEach(sc -> getClassHierarhcy(sc).filter(k -> !k.getFields().isEmpty())
+          .forEach(k -> uf.union(sc, inheritedBy.computeIfAbsent(k, ign -> sc))));
+    } else {
+      shared.forEach(tys -> classesOf(tys).forEach(uf::find));
+      taggedLocations(types, inScope).forEach(this::unifyRepr);
+    }
+
+    // the meta classes with a common field or location are laid out together (in the merged mode, each meta class is on its own)
+    UnionFind<SootClass> groups = new UnionFind<>();
+    Map<SootClass, SootClass> declaredIn = new HashMap<>();
+    uf.universe().forEach(sc -> {
+      SootClass meta = uf.find(sc);
+      metaClassOf.put(sc, meta);
+      metaMembers.computeIfAbsent(meta, ign -> new ArrayList<>()).add(sc);
+      groups.find(meta);
+      getClassHierarhcy(sc).filter(k -> !k.getFields().isEmpty()).forEach(k -> groups.union(meta, declaredIn.computeIfAbsent(k, ign -> meta)));
+    });
+    shared.forEach(tys -> classesOf(tys).map(metaClassOf::get).reduce(groups::union));
+    uf.universe().forEach(sc -> {
+      SootClass meta = metaClassOf.get(sc);
+      SootClass group = groups.find(meta);
+      if(!groupOf.containsKey(meta)) {
+        groupOf.put(meta, group);
+        groupMembers.computeIfAbsent(group, ign -> new ArrayList<>()).add(meta);
+      }
+      getClassHierarhcy(sc).forEach(k -> {
+        SootClass prev = fieldMeta.putIfAbsent(k, group);
+        assert prev == null || prev == group || k.getFields().isEmpty();
+      });
+    });
+    metaMembers.values().forEach(members -> {
+      members.sort(Comparator.comparing(SootClass::getName));
+      for(int i = 0; i < members.size(); i++) {
+        runtimeTags.put(members.get(i), i);
+      }
+    });
   }
 
-  private void analyze(final PointsToAnalysis pta) {
-    assert pta instanceof PAG;
-    PAG pag = (PAG) pta;
-    unifyRepr(pag.allocSources().stream().flatMap(n -> n.getAllFieldRefs().stream()));
-    unifyRepr(pag.simpleInvSources().stream());
+  /*
+    The types reaching the receivers of virtual calls, and the operands of casts and instanceof checks, in the methods in scope
+   */
+  private static Stream<Set<Type>> taggedLocations(final TypeAnalysis types, final Predicate<SootMethod> inScope) {
+    List<Set<Type>> toReturn = new ArrayList<>();
+    for(QueueReader<MethodOrMethodContext> it = Scene.v().getReachableMethods().listener(); it.hasNext(); ) {
+      SootMethod m = it.next().method();
+      if(!m.isConcrete() || !inScope.test(m)) {
+        continue;
+      }
+      for(Unit u : m.retrieveActiveBody().getUnits()) {
+        for(ValueBox vb : u.getUseBoxes()) {
+          Value v = vb.getValue();
+          Value op = null;
+          if(v instanceof InstanceInvokeExpr && !(v instanceof SpecialInvokeExpr)) {
+            op = ((InstanceInvokeExpr) v).getBase();
+          } else if(v instanceof CastExpr) {
+            op = ((CastExpr) v).getOp();
+          } else if(v instanceof InstanceOfExpr) {
+            op = ((InstanceOfExpr) v).getOp();
+          }
+          if(op instanceof Local && op.getType() instanceof RefLikeType) {
+            toReturn.add(types.reachingObjects((Local) op).possibleTypes());
+          }
+        }
+      }
+    }
+    return toReturn.stream();
+  }
 
-    uf.universe().forEach(sc -> getTransitiveFields(sc).forEach(sf -> {
-      addMetaField(uf.find(sc).getData(), sf);
-    }));
-    
-    this.assignSlots();
+  private static Stream<SootClass> classesOf(final Set<Type> types) {
+    return types.stream().filter(RefType.class::isInstance).map(RefType.class::cast).map(RefType::getSootClass);
   }
 
   public static Stream<SootClass> getClassHierarhcy(SootClass kls) {
@@ -50,81 +164,181 @@ public class StorageLayout {
     return getClassHierarhcy(kls).flatMap(k -> k.getFields().stream());
   }
 
+  // the classes unified into each meta class, the meta classes laid out together (by a representative meta class), and the
+  // group whose layout includes the fields declared in a class
+  private Map<SootClass, List<SootClass>> metaMembers = new HashMap<>();
+  private Map<SootClass, SootClass> groupOf = new HashMap<>();
+  private Map<SootClass, List<SootClass>> groupMembers = new HashMap<>();
+  private Map<SootClass, SootClass> fieldMeta = new HashMap<>();
+
+  /*
+    The layout of a group is only computed when first queried, most meta classes (e.g., those of library classes)
+    are never allocated or accessed by the translated program. Translations may run concurrently, hence the concurrent maps.
+   */
+  private Map<SootField, Integer> fieldSlots = new ConcurrentHashMap<>();
+  private Map<SootClass, Optional<Map<SootClass, List<SootField>>>> groupLayout = new ConcurrentHashMap<>();
+  // a field of each slot (from 1) of a group
+  private Map<SootClass, List<SootField>> groupSlots = new ConcurrentHashMap<>();
+
+  private Optional<Map<SootClass, List<SootField>>> layoutOfGroup(final SootClass group) {
+    return groupLayout.computeIfAbsent(group, this::assignSlots);
+  }
 
-  private Map<SootField, Integer> fieldSlots = new HashMap<>();
-  private Map<SootClass, List<SootField>> metaLayout = new HashMap<>();
-  private Map<SootField, SootClass> invMeta = new HashMap<>();
+  /*
+    The fields of a meta class by slot (from 1), null where the slot holds a field of another meta class of its group
+   */
+  private List<SootField> layoutOf(final SootClass meta) {
+    return layoutOfGroup(groupOf.getOrDefault(meta, meta)).map(l -> l.get(meta)).orElse(null);
+  }
 
-  private void assignSlots() {
+  private Optional<Map<SootClass, List<SootField>>> assignSlots(final SootClass group) {
     Comparator<SootField> cmp = Comparator.comparingInt((SootField sf) -> sf.getType() instanceof RefLikeType ? 0 : 1).thenComparing(
         (Function<? super SootField, ? extends String>) SootField::getSignature);
-    metaClasses.forEach((meta, fields) -> {
-      List<SootField> f = fields.stream().sorted(cmp).collect(Collectors.toList());
-      metaLayout.put(meta, f);
-      for(int i = 0; i < f.size(); i++) {
-        assert !fieldSlots.containsKey(f.get(i));
-        fieldSlots.put(f.get(i), i + 1);
-        invMeta.put(f.get(i), meta);
+    Map<SootClass, Set<SootField>> fieldsOf = new HashMap<>();
+    for(SootClass meta : groupMembers.getOrDefault(group, List.of(group))) {
+      fieldsOf.put(meta, metaMembers.getOrDefault(meta, List.of()).stream().flatMap(StorageLayout::getTransitiveFields).collect(Collectors.toSet()));
+    }
+    List<SootField> all = fieldsOf.values().stream().flatMap(Set::stream).distinct().sorted(cmp).collect(Collectors.toList());
+    if(all.isEmpty()) {
+      return Optional.empty();
+    }
+    // dead fields are not stored, but an object keeps at least one field besides its runtime tag
+    List<SootField> stored = all.stream().filter(live).collect(Collectors.toList());
+    List<SootField> f = stored.isEmpty() ? all.subList(0, 1) : stored;
+    fieldsOf.values().forEach(fs -> fs.retainAll(f));
+    /*
+      each field takes the first slot not taken by a field of the same meta class, nor by a field of another type (or of a
+      reference type, whose objects may have different representations); within a single meta class, the slots are consecutive
+     */
+    Map<SootField, Integer> slots = new HashMap<>();
+    List<SootField> slotFields = new ArrayList<>();
+    for(SootField fld : f) {
+      Set<Integer> taken = fieldsOf.values().stream().filter(fs -> fs.contains(fld)).flatMap(Set::stream)
+          .map(slots::get).filter(Objects::nonNull).collect(Collectors.toSet());
+      slots.forEach((other, sl) -> {
+        if(!(fld.getType() instanceof PrimType) || !other.getType().equals(fld.getType())) {
+          taken.add(sl);
+        }
+      });
+      int slot = 1;
+      while(taken.contains(slot)) {
+        slot++;
       }
-    });
+      slots.put(fld, slot);
+      if(slot > slotFields.size()) {
+        slotFields.add(fld);
+      }
+    }
+    int width = slotFields.size();
+    Map<SootClass, List<SootField>> layouts = new HashMap<>();
+    for(Map.Entry<SootClass, Set<SootField>> e : fieldsOf.entrySet()) {
+      List<SootField> l = new ArrayList<>(Collections.nCopies(width, null));
+      e.getValue().forEach(fld -> l.set(slots.get(fld) - 1, fld));
+      layouts.put(e.getKey(), l);
+    }
+    fieldSlots.putAll(slots);
+    groupSlots.put(group, slotFields);
+    return Optional.of(layouts);
+  }
+
+  private List<SootField> layoutOf(final SootField f) {
+    SootClass group = fieldMeta.get(f.getDeclaringClass());
+    return group == null ? null : layoutOf(group);
   }
 
   public boolean haveSameRepr(Stream<SootClass> str) {
-    var d = str.map(uf::find).map(Optional::of).reduce((o1, o2) -> o1.flatMap(n1 -> o2.flatMap(n2 -> {
-      if(n1.getData().equals(n2.getData())) {
-        return Optional.of(n1);
-      } else {
-        return Optional.<UnionFind.Node<SootClass>>empty();
-      }
-    })));
-    return d.flatMap(i -> i).isPresent();
+    return str.map(this::getMetaClass).distinct().count() == 1;
   }
 
-  private Map<SootClass, Set<SootField>> metaClasses = new HashMap<>();
+  /*
+    The union find is only consulted during the analysis; afterwards the meta classes are read only (and may be shared
+    by concurrent translations) so they are looked up in this precomputed map.
+   */
+  private Map<SootClass, SootClass> metaClassOf = new HashMap<>();
 
-  private void addMetaField(final SootClass data, final SootField sf) {
-    metaClasses.computeIfAbsent(data, ign -> new HashSet<>()).add(sf);
+  private SootClass getMetaClass(final SootClass kls) {
+    return metaClassOf.getOrDefault(kls, kls);
   }
 
-  private void unifyRepr(final Stream<? extends soot.jimple.spark.pag.Node> nodeStream) {
-    nodeStream.forEach(adf -> {
-      if(adf instanceof LocalVarNode) {
-        LocalVarNode vn = (LocalVarNode) adf;
-        if(vn.isInterProcTarget() && vn.getMethod().getDeclaringClass().getName().equals(Translate.ALIASING_CLASS)) {
-          return;
-        }
-      }
-      if(adf instanceof LocalVarNode) {
-        LocalVarNode varNode = (LocalVarNode) adf;
-        if(varNode.getMethod().getDeclaringClass().getName().equals("java.lang.Object")) {
-          return;
-        }
-      }
-      Set<Type> types = adf.getP2Set().possibleTypes();
-      Optional<SootClass> n = types.stream().filter(RefType.class::isInstance).map(RefType.class::cast).map(RefType::getSootClass).map(uf::find).reduce(uf::union).map(Node::getData);
-    });
+  /*
+    The runtime tag of the objects of a class is its index (by name) among the classes of its meta class. Tags are only
+    compared between objects with the same representation, so they are dense from 0 within each meta class, and do not
+    depend on soot's numbering of the classes.
+   */
+  private Map<SootClass, Integer> runtimeTags = new HashMap<>();
+
+  public int runtimeTag(final SootClass kls) {
+    return runtimeTags.getOrDefault(kls, 0);
+  }
+
+  private void unifyRepr(final Set<Type> types) {
+    classesOf(types).map(uf::find).reduce(uf::union);
   }
 
   public List<SootField> getMetaLayout(SootClass kls) {
-    SootClass meta = uf.find(kls).getData();
-    assert metaLayout.containsKey(meta);
-    return metaLayout.get(meta);
+    List<SootField> layout = layoutOf(getMetaClass(kls));
+    assert layout != null;
+    return layout;
+  }
+
+  /*
+    A field stored in each slot (from 1) of the objects of kls, by an object of kls or of another meta class of its group.
+    These fields have the same type in every object of the group.
+   */
+  public List<SootField> getSlotFields(SootClass kls) {
+    SootClass meta = getMetaClass(kls);
+    layoutOf(meta);
+    return groupSlots.get(groupOf.getOrDefault(meta, meta));
+  }
+
+  /*
+    The fields laid out together with f (in the merged mode, those of its meta class)
+   */
+  public List<SootField> getMetaLayout(SootField f) {
+    Optional<Map<SootClass, List<SootField>>> layouts = layoutOfGroup(fieldMeta.get(f.getDeclaringClass()));
+    assert layouts.isPresent();
+    return layouts.get().values().stream().flatMap(List::stream).filter(Objects::nonNull).distinct().collect(Collectors.toList());
   }
 
   public int getStorageSlot(SootField f) {
+    layoutOf(f);
     assert fieldSlots.containsKey(f);
     assert fieldSlots.get(f) > 0;
     return fieldSlots.get(f);
   }
 
+  public boolean isLive(SootField f) {
+    return live.test(f);
+  }
+
   public int metaStorageSize(SootField f) {
-    SootClass kls = invMeta.get(f);
     // plus the runtime tag
-    return metaLayout.get(kls).size() + 1;
+    return layoutOf(f).size() + 1;
   }
 
   public int metaStorageSize(final SootClass klassSz) {
-    SootClass meta = uf.find(klassSz).getData();
-    return metaLayout.get(meta).size() + 1;
+    return layoutOf(getMetaClass(klassSz)).size() + 1;
+  }
+
+  /*
+    Textual summaries of the layout facts consulted when translating an access to f (resp. an object of class kls).
+    Unlike the queries above these are total, classes and fields without a layout are described as such.
+   */
+  public String describe(final SootField f) {
+    if(layoutOf(f) == null) {
+      return "no-slot";
+    } else if(!live.test(f)) {
+      return "dead";
+    }
+    return fieldSlots.get(f) + "/" + this.describe(fieldMeta.get(f.getDeclaringClass()));
+  }
+
+  public String describe(final SootClass kls) {
+    SootClass meta = getMetaClass(kls);
+    List<SootField> layout = layoutOf(meta);
+    if(layout == null) {
+      return "no-layout";
+    }
+    return meta.getName() + layout.stream().map(f -> f == null ? "_" : f.getSignature()).collect(Collectors.joining(",", "[", "]"));
   }
 }
@@ -1,60 +1,74 @@
 package edu.kyoto.fos.regnant.storage.oo;
 
-import java.util.HashMap;
+import soot.util.Numberable;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
-public class UnionFind<N> {
+/*
+  Union find over soot's numbered objects; the forest is kept in arrays indexed by getNumber(), which soot assigns densely.
+ */
+public class UnionFind<N extends Numberable> {
+  // parent[i] == -1 iff the element numbered i is not in the universe
+  private int[] parent = new int[0];
+  private int[] rank = new int[0];
+  private Object[] elems = new Object[0];
+
   public Stream<N> universe() {
-    return universe.keySet().stream();
+    return IntStream.range(0, parent.length).filter(i -> parent[i] != -1).mapToObj(this::elem);
   }
 
-  public static class Node<U> {
-    Node<U> parent = this;
-    int rank = 0;
-    U data;
-    Node(U data) {
-      this.data = data;
-    }
-
-    public U getData() {
-      return this.data;
-    }
+  @SuppressWarnings("unchecked")
+  private N elem(final int i) {
+    return (N) elems[i];
   }
 
-  private HashMap<N, Node<N>> universe = new HashMap<>();
-
-  private Node<N> get(N x) {
-    return universe.computeIfAbsent(x, Node::new);
+  private int get(N x) {
+    int n = x.getNumber();
+    if(n >= parent.length) {
+      int sz = Math.max(n + 1, parent.length * 2);
+      int old = parent.length;
+      parent = Arrays.copyOf(parent, sz);
+      Arrays.fill(parent, old, sz, -1);
+      rank = Arrays.copyOf(rank, sz);
+      elems = Arrays.copyOf(elems, sz);
+    }
+    if(parent[n] == -1) {
+      parent[n] = n;
+      elems[n] = x;
+    }
+    return n;
   }
 
-  private Node<N> find(final Node<N> node) {
+  private int find(final int node) {
     var it = node;
-    while(it.parent != it) {
-      it.parent = it.parent.parent;
-      it = it.parent;
+    while(parent[it] != it) {
+      parent[it] = parent[parent[it]];
+      it = parent[it];
     }
     return it;
   }
 
-  public Node<N> find(N n) {
-    return find(get(n));
+  public N find(N n) {
+    return elem(find(get(n)));
   }
 
-  public Node<N> union(final Node<N> n1, final Node<N> n2) {
-    var xRoot = find(n1);
-    var yRoot = find(n2);
+  public N union(final N n1, final N n2) {
+    var xRoot = find(get(n1));
+    var yRoot = find(get(n2));
     if(xRoot == yRoot) {
-      return xRoot;
+      return elem(xRoot);
     }
-    if(xRoot.rank < yRoot.rank) {
+    if(rank[xRoot] < rank[yRoot]) {
       var t = xRoot;
       xRoot = yRoot;
       yRoot = t;
     }
-    yRoot.parent = xRoot;
-    if(xRoot.rank == yRoot.rank) {
-      xRoot.rank += 1;
+    parent[yRoot] = xRoot;
+    if(rank[xRoot] == rank[yRoot]) {
+      rank[xRoot] += 1;
     }
-    return xRoot;
+    return elem(xRoot);
   }
 }
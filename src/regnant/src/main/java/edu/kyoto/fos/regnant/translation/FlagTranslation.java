@@ -3,48 +3,86 @@ package edu.kyoto.fos.regnant.translation;
 import fj.P;
 import fj.P2;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
+/*
+  The flag predicates generated during the translation of a single method. Predicate names are qualified by
+  the (mangled) name of the method being translated, so tables for different methods may be filled independently
+  (and concurrently) without coordination.
+ */
 public final class FlagTranslation {
-  private static int counter = 1;
-  private static Map<String, P2<List<Integer>, Boolean>> flags = new HashMap<>();
-  private static final String FMT = "regnant$flag_%d";
-  public static String allocate(List<Integer> l) {
+  private static final String FMT = "regnant$%s__flag_%d";
+  private static final Pattern FLAG_LINE = Pattern.compile("\\((\\S+) \\(([-\\d ]+)\\) (true|false)\\)");
+  private final String owner;
+  private int counter = 1;
+  private final Map<String, P2<List<Integer>, Boolean>> flags = new LinkedHashMap<>();
+  // predicates over the same keys are shared
+  private final Map<P2<List<Integer>, Boolean>, String> byKeys = new HashMap<>();
+
+  public FlagTranslation(final String owner) {
+    this.owner = owner;
+  }
+
+  public String allocate(List<Integer> l) {
     return allocate(l, false);
   }
 
-  public static String allocate(final List<Integer> l, final boolean b) {
-    String nm = String.format(FMT, counter++);
-    flags.put(nm, P.p(new ArrayList<>(l), b));
+  public String allocate(final List<Integer> l, final boolean b) {
+    P2<List<Integer>, Boolean> keys = P.p(new ArrayList<>(l), b);
+    String existing = byKeys.get(keys);
+    if(existing != null) {
+      return existing;
+    }
+    String nm = String.format(FMT, owner, counter++);
+    flags.put(nm, keys);
+    byKeys.put(keys, nm);
     return nm;
   }
 
-  public static void outputTo(final String flagsFile) {
-    try(PrintStream ps = new PrintStream(new FileOutputStream(new File(flagsFile)))) {
-      ps.println("(");
-      for(var kv : flags.entrySet()) {
-        ps.print("(");
-        // extremely unsafe
-        ps.print(kv.getKey());
-        ps.print(" ");
-        assert kv.getValue()._1().size() > 0;
-        String keys = kv.getValue()._1().stream().map(Object::toString).collect(Collectors.joining(" ", "(", ")"));
-        ps.print(keys);
-        ps.print(" ");
-        ps.print(kv.getValue()._2() ? "true" : "false");
-        ps.println(")");
+  /*
+    Rebuilds a table from the lines printed by printOn (used to replay cached translations)
+   */
+  public static FlagTranslation parse(final String owner, final List<String> lines) {
+    FlagTranslation toReturn = new FlagTranslation(owner);
+    for(String line : lines) {
+      Matcher m = FLAG_LINE.matcher(line);
+      if(!m.matches()) {
+        throw new IllegalArgumentException("Malformed flag line: " + line);
       }
-      ps.println(")");
-    } catch (IOException ignore) {
+      List<Integer> keys = Arrays.stream(m.group(2).split(" ")).map(Integer::parseInt).collect(Collectors.toList());
+      P2<List<Integer>, Boolean> k = P.p(keys, Boolean.parseBoolean(m.group(3)));
+      toReturn.flags.put(m.group(1), k);
+      toReturn.byKeys.put(k, m.group(1));
+      toReturn.counter++;
+    }
+    return toReturn;
+  }
 
+  public int size() {
+    return flags.size();
+  }
+
+  public void printOn(final PrintStream ps) {
+    for(var kv : flags.entrySet()) {
+      ps.print("(");
+      // extremely unsafe
+      ps.print(kv.getKey());
+      ps.print(" ");
+      assert kv.getValue()._1().size() > 0;
+      String keys = kv.getValue()._1().stream().map(Object::toString).collect(Collectors.joining(" ", "(", ")"));
+      ps.print(keys);
+      ps.print(" ");
+      ps.print(kv.getValue()._2() ? "true" : "false");
+      ps.println(")");
     }
   }
 }
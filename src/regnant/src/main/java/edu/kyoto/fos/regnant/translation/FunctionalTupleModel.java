@@ -10,7 +10,6 @@ import edu.kyoto.fos.regnant.ir.stmt.aliasing.AliasOp.Builder;
 import edu.kyoto.fos.regnant.storage.oo.StorageLayout;
 import soot.RefLikeType;
 import soot.SootField;
-import soot.Type;
 
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -32,6 +31,10 @@ public class FunctionalTupleModel implements ObjectModel {
 
   @Override public void writeField(final InstructionStream l, final String objectVar, final SootField f, final ImpExpr lhs, final VarManager vm,
       final LinkedList<Cleanup> handlers) {
+    if(!layout.isLive(f)) {
+      // the field is never read, so the write is dropped
+      return;
+    }
     int sz = layout.metaStorageSize(f);
     // Project out all fields
     List<String> fields = l.bindProjections(sz, objectVar, vm::getField, layout.getStorageSlot(f));
@@ -64,9 +67,9 @@ public class FunctionalTupleModel implements ObjectModel {
     return b.deref().proj(layout.getStorageSlot(f));
   }
 
-  @Override public ImpExpr allocFieldOfType(final Type t) {
+  @Override public ImpExpr allocField(final SootField f) {
     // just the dummy values
-    if(t instanceof RefLikeType) {
+    if(f.getType() instanceof RefLikeType) {
       return NullConstant.v();
     } else {
       return IntLiteral.v(0);
@@ -0,0 +1,58 @@
+package edu.kyoto.fos.regnant.translation;
+
+import edu.kyoto.fos.regnant.aliasing.FieldAliasing;
+import edu.kyoto.fos.regnant.ir.expr.ImpExpr;
+import edu.kyoto.fos.regnant.ir.stmt.aliasing.AliasOp.Builder;
+import edu.kyoto.fos.regnant.storage.oo.StorageLayout;
+import soot.SootField;
+
+import java.util.LinkedList;
+import java.util.List;
+
+/*
+  Fields which are never written after the construction of their object (e.g., final fields) are stored by value, as in
+  the functional model, so they need no ownership variables; the remaining fields are references, as in the mutable model.
+  Writes to the fields stored by value (in the constructors) replace the whole tuple.
+
+  The representation is also chosen per meta class, by the frequency of writes: a meta class whose fields are written after
+  construction less than once each on average (counting the writes in the program text, see FieldAliasing.processWrites) is
+  stored by value altogether, trading the few functional updates for the ownership variables of all its fields.
+ */
+public class HybridTupleModel implements ObjectModel {
+  private final StorageLayout layout;
+  private final FieldAliasing as;
+  private final ObjectModel byValue;
+  private final ObjectModel byRef;
+
+  public HybridTupleModel(final StorageLayout sl, final FieldAliasing as) {
+    this.layout = sl;
+    this.as = as;
+    this.byValue = new FunctionalTupleModel(sl);
+    this.byRef = new MutableTupleModel(sl);
+  }
+
+  private ObjectModel modelOf(final SootField f) {
+    if(as.writesAfterConstruction(f) == 0) {
+      return byValue;
+    }
+    List<SootField> meta = layout.getMetaLayout(f);
+    int writes = meta.stream().mapToInt(as::writesAfterConstruction).sum();
+    return writes < meta.size() ? byValue : byRef;
+  }
+
+  @Override public void writeField(final InstructionStream l, final String objectVar, final SootField f, final ImpExpr lhs, final VarManager vm, final LinkedList<Cleanup> handlers) {
+    modelOf(f).writeField(l, objectVar, f, lhs, vm, handlers);
+  }
+
+  @Override public FieldContents readField(final InstructionStream l, final String objectVar, final SootField f, final VarManager vm, final LinkedList<Cleanup> handlers) {
+    return modelOf(f).readField(l, objectVar, f, vm, handlers);
+  }
+
+  @Override public Builder extendAP(final Builder b, final SootField f) {
+    return modelOf(f).extendAP(b, f);
+  }
+
+  @Override public ImpExpr allocField(final SootField f) {
+    return modelOf(f).allocField(f);
+  }
+}
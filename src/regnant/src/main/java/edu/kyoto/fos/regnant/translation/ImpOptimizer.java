@@ -0,0 +1,590 @@
+package edu.kyoto.fos.regnant.translation;
+
+import edu.kyoto.fos.regnant.ir.expr.ArrayLength;
+import edu.kyoto.fos.regnant.ir.expr.ArrayRead;
+import edu.kyoto.fos.regnant.ir.expr.Binop;
+import edu.kyoto.fos.regnant.ir.expr.Call;
+import edu.kyoto.fos.regnant.ir.expr.ImpExpr;
+import edu.kyoto.fos.regnant.ir.expr.IntLiteral;
+import edu.kyoto.fos.regnant.ir.expr.Mkref;
+import edu.kyoto.fos.regnant.ir.expr.NewArray;
+import edu.kyoto.fos.regnant.ir.expr.Tuple;
+import edu.kyoto.fos.regnant.ir.expr.Variable;
+import edu.kyoto.fos.regnant.ir.stmt.Alias;
+import edu.kyoto.fos.regnant.ir.stmt.Assign;
+import edu.kyoto.fos.regnant.ir.stmt.Bind;
+import edu.kyoto.fos.regnant.ir.stmt.Block;
+import edu.kyoto.fos.regnant.ir.stmt.Condition;
+import edu.kyoto.fos.regnant.ir.stmt.Instruction;
+import edu.kyoto.fos.regnant.ir.stmt.LetBind;
+import edu.kyoto.fos.regnant.ir.stmt.ProjectionBind;
+import edu.kyoto.fos.regnant.ir.stmt.SideEffect;
+import edu.kyoto.fos.regnant.ir.stmt.aliasing.AliasOp;
+import fj.P;
+import fj.P2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+/*
+  Rewrites the translated IMP of each function before it is printed. The passes, each of which may be turned off with the
+  optimize option (all, none, or passes joined by +), run in this order:
+
+    copy: copy propagation. A binding let x = y (of an immutable variable) or let x = n (of a literal) is removed, and y
+      (resp. n) substituted for x in its scope. So that y cannot be captured, it must be bound once in the function (counting
+      the parameters), and literals are not substituted for variables referred to by name (e.g., in aliases) or dereferenced.
+    project: reuse of field projections. A projection of a slot of an object already projected (with no call, no write to
+      the object, no write through a projected field which is not open, and no write through a field of, or of a tuple to,
+      an object which may alias another projected one in between) is dropped, and the earlier variable used instead. Two
+      objects may alias unless both are distinct allocations of the function. The cleanup alias of the earlier projection
+      (see MutableTupleModel) is dropped in favor of the cleanup following the later access, so it is emitted once at the
+      end of the accesses. A projection leading a block is moved before the block when a later statement can reuse it
+      (under the same conditions), so the accesses of consecutive statements share it.
+    fold: arithmetic over literals is folded when the result fits in an int (where Java and IMP agree), and conditionals
+      comparing literals are replaced by the branch taken.
+    dead: bindings of pure values (no calls, array accesses or division) which are not used are removed, along with
+      effects which do nothing: expressions evaluated for their effect which have none, alias(x = x), and an alias repeating
+      the one just before it.
+    blocks: blocks without bindings or returns are spliced into the enclosing stream (empty blocks disappear).
+
+  Each binding removed is a variable for which ConSORT no longer infers a refinement and ownership.
+ */
+public class ImpOptimizer {
+  public enum Pass {
+    COPY, PROJECT, FOLD, DEAD, BLOCKS
+  }
+
+  private final Set<Pass> passes;
+
+  private ImpOptimizer(final Set<Pass> passes) {
+    this.passes = passes;
+  }
+
+  public static ImpOptimizer parse(final String spec) {
+    if(spec.equals("all")) {
+      return new ImpOptimizer(EnumSet.allOf(Pass.class));
+    } else if(spec.equals("none")) {
+      return new ImpOptimizer(EnumSet.noneOf(Pass.class));
+    }
+    Set<Pass> p = EnumSet.noneOf(Pass.class);
+    Arrays.stream(spec.split("\\+")).map(String::trim).map(String::toUpperCase).map(Pass::valueOf).forEach(p::add);
+    return new ImpOptimizer(p);
+  }
+
+  @Override public String toString() {
+    if(passes.isEmpty()) {
+      return "none";
+    }
+    return passes.stream().map(p -> p.name().toLowerCase()).collect(Collectors.joining("+"));
+  }
+
+  /*
+    The body of the function with the given parameters and body, after the passes
+   */
+  public InstructionStream optimize(final List<String> params, final InstructionStream body) {
+    InstructionStream it = body;
+    for(Pass p : passes) {
+      switch(p) {
+        case COPY:
+          Map<String, Integer> bindCount = new HashMap<>();
+          Set<String> named = new HashSet<>();
+          params.forEach(v -> bindCount.merge(v, 1, Integer::sum));
+          scan(it, bindCount, named);
+          it = copy(it, new HashMap<>(), bindCount, named);
+          break;
+        case PROJECT:
+          Map<String, Integer> bindings = new HashMap<>();
+          Set<String> projected = new HashSet<>();
+          params.forEach(v -> bindings.merge(v, 1, Integer::sum));
+          scan(it, bindings, new HashSet<>());
+          scanProjections(it, projected);
+          Set<String> unique = bindings.keySet().stream().filter(v -> bindings.get(v) == 1).collect(Collectors.toSet());
+          Set<String> allocated = new HashSet<>();
+          Set<String> assigned = new HashSet<>();
+          scanAllocations(it, allocated, assigned);
+          allocated.retainAll(unique);
+          allocated.removeAll(assigned);
+          it = project(it, new HashMap<>(), unique, projected, allocated);
+          break;
+        case FOLD:
+          it = fold(it);
+          break;
+        case DEAD:
+          it = dead(it, new HashSet<>());
+          break;
+        case BLOCKS:
+          it = blocks(it);
+          break;
+      }
+    }
+    return it;
+  }
+
+  /*
+    The number of bindings in s (including nested streams)
+   */
+  public static int bindings(final InstructionStream s) {
+    int count = 0;
+    for(Instruction i : s.instructions()) {
+      if(i instanceof Bind) {
+        count++;
+      }
+      for(InstructionStream n : i.streams()) {
+        count += bindings(n);
+      }
+    }
+    return count;
+  }
+
+  /*
+    Counts the bindings of each variable, and collects the variables referred to by name or dereferenced
+   */
+  private static void scan(final InstructionStream s, final Map<String, Integer> bindCount, final Set<String> named) {
+    for(Instruction i : s.instructions()) {
+      i.bound().forEach(v -> bindCount.merge(v, 1, Integer::sum));
+      named.addAll(i.names());
+      i.exprs().forEach(e -> e.transform(v -> {
+        if(v instanceof Variable && ((Variable) v).isDeref()) {
+          named.add(((Variable) v).getName());
+        }
+        return v;
+      }));
+      i.streams().forEach(n -> scan(n, bindCount, named));
+    }
+  }
+
+  private InstructionStream copy(final InstructionStream s, final Map<String, ImpExpr> outer, final Map<String, Integer> bindCount, final Set<String> named) {
+    Map<String, ImpExpr> subst = new HashMap<>(outer);
+    List<Instruction> out = new ArrayList<>();
+    for(Instruction i : s.instructions()) {
+      Instruction r = i.with(
+          map(i.exprs(), e -> substitute(e, subst)),
+          map(i.names(), n -> subst.containsKey(n) ? ((Variable) subst.get(n)).getName() : n),
+          map(i.streams(), n -> copy(n, subst, bindCount, named)));
+      if(r instanceof LetBind && isCopy((LetBind) r, bindCount, named)) {
+        subst.put(((LetBind) r).getVarName(), ((LetBind) r).getRhs());
+        continue;
+      }
+      // a binding shadows any substitution for the variable
+      r.bound().forEach(subst::remove);
+      out.add(r);
+    }
+    ImpExpr ret = s.returnValue();
+    return s.rebuild(out, ret == null ? null : substitute(ret, subst));
+  }
+
+  private static boolean isCopy(final LetBind b, final Map<String, Integer> bindCount, final Set<String> named) {
+    ImpExpr rhs = b.getRhs();
+    if(rhs instanceof Variable && !((Variable) rhs).isDeref()) {
+      return bindCount.getOrDefault(((Variable) rhs).getName(), 0) <= 1;
+    }
+    return rhs instanceof IntLiteral && !named.contains(b.getVarName());
+  }
+
+  private static ImpExpr substitute(final ImpExpr e, final Map<String, ImpExpr> subst) {
+    return e.transform(v -> {
+      if(!(v instanceof Variable) || !subst.containsKey(((Variable) v).getName())) {
+        return v;
+      }
+      ImpExpr r = subst.get(((Variable) v).getName());
+      if(((Variable) v).isDeref()) {
+        return Variable.deref(((Variable) r).getName());
+      }
+      return r;
+    });
+  }
+
+  private static Instruction substitute(final Instruction i, final Map<String, ImpExpr> subst) {
+    if(subst.isEmpty()) {
+      return i;
+    }
+    return i.with(
+        map(i.exprs(), e -> substitute(e, subst)),
+        map(i.names(), n -> subst.containsKey(n) ? ((Variable) subst.get(n)).getName() : n),
+        map(i.streams(), n -> substitute(n, subst)));
+  }
+
+  private static InstructionStream substitute(final InstructionStream s, final Map<String, ImpExpr> outer) {
+    Map<String, ImpExpr> subst = new HashMap<>(outer);
+    List<Instruction> out = new ArrayList<>();
+    for(Instruction i : s.instructions()) {
+      out.add(substitute(i, subst));
+      i.bound().forEach(subst::remove);
+    }
+    ImpExpr ret = s.returnValue();
+    return s.rebuild(out, ret == null ? null : substitute(ret, subst));
+  }
+
+  private static void scanProjections(final InstructionStream s, final Set<String> projected) {
+    for(Instruction i : s.instructions()) {
+      if(i instanceof ProjectionBind) {
+        projected.addAll(i.bound());
+      }
+      i.streams().forEach(n -> scanProjections(n, projected));
+    }
+  }
+
+  /*
+    Collects the variables bound to new objects (let o = mkref ...) and those assigned to
+   */
+  private static void scanAllocations(final InstructionStream s, final Set<String> allocated, final Set<String> assigned) {
+    for(Instruction i : s.instructions()) {
+      if(i instanceof LetBind && ((LetBind) i).getRhs() instanceof Mkref) {
+        allocated.add(((LetBind) i).getVarName());
+      } else if(i instanceof Assign) {
+        assigned.addAll(i.names());
+      }
+      i.streams().forEach(n -> scanAllocations(n, allocated, assigned));
+    }
+  }
+
+  /*
+    Reuses the projections open (by object and slot) before s, and those made in s. The variables of allocated are bound
+    once, each to a distinct object
+   */
+  private InstructionStream project(final InstructionStream s, final Map<P2<String, Integer>, String> inherited, final Set<String> unique, final Set<String> projected,
+      final Set<String> allocated) {
+    Map<P2<String, Integer>, String> open = new HashMap<>(inherited);
+    // the position in out of the last cleanup (in s) of each projected variable
+    Map<String, Integer> cleanups = new HashMap<>();
+    Map<String, ImpExpr> reused = new HashMap<>();
+    LinkedList<Instruction> work = new LinkedList<>(s.instructions());
+    List<Instruction> out = new ArrayList<>();
+    while(!work.isEmpty()) {
+      Instruction i = substitute(work.removeFirst(), reused);
+      if(i instanceof Block) {
+        InstructionStream b = i.streams().get(0);
+        List<Instruction> body = b.instructions();
+        if(!body.isEmpty() && body.get(0) instanceof ProjectionBind &&
+            isHoistable((ProjectionBind) body.get(0), body.subList(1, body.size()), work, open, unique, projected, allocated)) {
+          work.addFirst(new Block(b.rebuild(body.subList(1, body.size()), b.returnValue())));
+          work.addFirst(body.get(0));
+          continue;
+        }
+      }
+      if(i instanceof ProjectionBind) {
+        ProjectionBind p = (ProjectionBind) i;
+        List<String> slots = new ArrayList<>(p.getSlots());
+        for(int k = 0; k < slots.size(); k++) {
+          String v = slots.get(k);
+          if(v == null) {
+            continue;
+          }
+          P2<String, Integer> key = P.p(p.getBase(), k);
+          if(open.containsKey(key)) {
+            reused.put(v, Variable.immut(open.get(key)));
+            slots.set(k, null);
+          } else {
+            open.put(key, v);
+          }
+        }
+        if(slots.stream().anyMatch(Objects::nonNull)) {
+          out.add(new ProjectionBind(slots, p.getBase()));
+        }
+        continue;
+      }
+      if(i instanceof Alias && isCleanup((Alias) i, open)) {
+        Integer prev = cleanups.put(((Alias) i).getLhs().getRoot(), out.size());
+        if(prev != null) {
+          out.set(prev, null);
+        }
+        out.add(i);
+        continue;
+      }
+      if(!i.streams().isEmpty()) {
+        i = i.with(i.exprs(), i.names(), map(i.streams(), n -> project(n, open, unique, projected, allocated)));
+      }
+      if(invalidates(i, open, projected, allocated)) {
+        open.clear();
+        cleanups.clear();
+      }
+      for(String v : i.bound()) {
+        open.entrySet().removeIf(e -> e.getKey()._1().equals(v) || e.getValue().equals(v));
+        cleanups.remove(v);
+        reused.remove(v);
+      }
+      out.add(i);
+    }
+    out.removeIf(Objects::isNull);
+    ImpExpr ret = s.returnValue();
+    return s.rebuild(out, ret == null ? null : substitute(ret, reused));
+  }
+
+  /*
+    Whether the projection p leading a block (followed by rest) should be moved before the block: the variables it binds are
+    bound nowhere else, and a later statement projects the same slot of the same object, with nothing in between
+    invalidating the projection
+   */
+  private static boolean isHoistable(final ProjectionBind p, final List<Instruction> rest, final List<Instruction> later, final Map<P2<String, Integer>, String> open,
+      final Set<String> unique, final Set<String> projected, final Set<String> allocated) {
+    if(!unique.containsAll(p.bound())) {
+      return false;
+    }
+    Map<P2<String, Integer>, String> hoisted = new HashMap<>(open);
+    for(int k = 0; k < p.getSlots().size(); k++) {
+      if(p.getSlots().get(k) != null) {
+        hoisted.put(P.p(p.getBase(), k), p.getSlots().get(k));
+      }
+    }
+    if(rest.stream().anyMatch(i -> invalidates(i, hoisted, projected, allocated))) {
+      return false;
+    }
+    for(Instruction i : later) {
+      if(projects(i, p)) {
+        return true;
+      }
+      if(invalidates(i, hoisted, projected, allocated)) {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  private static boolean projects(final Instruction i, final ProjectionBind p) {
+    if(i instanceof ProjectionBind && ((ProjectionBind) i).getBase().equals(p.getBase())) {
+      List<String> slots = ((ProjectionBind) i).getSlots();
+      for(int k = 0; k < slots.size() && k < p.getSlots().size(); k++) {
+        if(slots.get(k) != null && p.getSlots().get(k) != null) {
+          return true;
+        }
+      }
+    }
+    return i.streams().stream().anyMatch(n -> n.instructions().stream().anyMatch(j -> projects(j, p)));
+  }
+
+  /*
+    Whether the cleanup alias(v = (*o).k) of an open projection
+   */
+  private static boolean isCleanup(final Alias a, final Map<P2<String, Integer>, String> open) {
+    String lhs = a.getLhs().toString();
+    String rhs = a.getRhs().toString();
+    return open.entrySet().stream().anyMatch(e -> lhs.equals(AliasOp.var(e.getValue()).toString()) &&
+        rhs.equals(AliasOp.buildAt(e.getKey()._1()).deref().proj(e.getKey()._2()).build().toString()));
+  }
+
+  /*
+    Whether i may change the contents of the open projections: it calls a function, writes to a projected object or
+    through a projected field which is not open, writes through an open field of an object which may alias another
+    projected one, or replaces the tuple of an object (stored by value, see FunctionalTupleModel) which may alias a
+    projected one. Only distinct allocations are known not to alias.
+   */
+  private static boolean invalidates(final Instruction i, final Map<P2<String, Integer>, String> open, final Set<String> projected, final Set<String> allocated) {
+    if(hasCall(i)) {
+      return true;
+    }
+    Set<String> written = new HashSet<>();
+    Set<String> tuples = new HashSet<>();
+    writes(i, written, tuples);
+    for(String v : written) {
+      if((projected.contains(v) && !open.containsValue(v)) || open.keySet().stream().anyMatch(key -> key._1().equals(v))) {
+        return true;
+      }
+      // a write through an open field of o changes the projections of any object which may be o
+      for(P2<String, Integer> base : open.keySet()) {
+        if(open.get(base).equals(v) && open.keySet().stream().anyMatch(key -> !key._1().equals(base._1()) &&
+            (!allocated.contains(base._1()) || !allocated.contains(key._1())))) {
+          return true;
+        }
+      }
+    }
+    for(String v : tuples) {
+      if(open.keySet().stream().anyMatch(key -> !allocated.contains(v) || !allocated.contains(key._1()))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void writes(final Instruction i, final Set<String> written, final Set<String> tuples) {
+    if(i instanceof Assign) {
+      written.addAll(i.names());
+      if(i.exprs().get(0) instanceof Tuple) {
+        tuples.addAll(i.names());
+      }
+    }
+    i.streams().forEach(n -> n.instructions().forEach(j -> writes(j, written, tuples)));
+  }
+
+  private static boolean hasCall(final Instruction i) {
+    return i.exprs().stream().anyMatch(ImpOptimizer::hasCall) || i.streams().stream().anyMatch(n ->
+        n.instructions().stream().anyMatch(ImpOptimizer::hasCall) || (n.returnValue() != null && hasCall(n.returnValue())));
+  }
+
+  private static boolean hasCall(final ImpExpr e) {
+    return e instanceof Call || e.children().stream().anyMatch(ImpOptimizer::hasCall);
+  }
+
+  private InstructionStream fold(final InstructionStream s) {
+    List<Instruction> out = new ArrayList<>();
+    for(Instruction i : s.instructions()) {
+      Instruction r = i.with(map(i.exprs(), ImpOptimizer::fold), i.names(), map(i.streams(), this::fold));
+      if(r instanceof Condition) {
+        Boolean taken = evaluate(r.exprs().get(0));
+        if(taken != null) {
+          r = new Block(r.streams().get(taken ? 0 : 1));
+        }
+      }
+      out.add(r);
+    }
+    ImpExpr ret = s.returnValue();
+    return s.rebuild(out, ret == null ? null : fold(ret));
+  }
+
+  private static ImpExpr fold(final ImpExpr e) {
+    return e.transform(v -> {
+      if(!(v instanceof Binop) || !(((Binop) v).getLhs() instanceof IntLiteral) || !(((Binop) v).getRhs() instanceof IntLiteral)) {
+        return v;
+      }
+      int l = ((IntLiteral) ((Binop) v).getLhs()).getValue();
+      int r = ((IntLiteral) ((Binop) v).getRhs()).getValue();
+      try {
+        switch(((Binop) v).getSym()) {
+          case "+":
+            return IntLiteral.v(Math.addExact(l, r));
+          case "-":
+            return IntLiteral.v(Math.subtractExact(l, r));
+          case "*":
+            return IntLiteral.v(Math.multiplyExact(l, r));
+          default:
+            return v;
+        }
+      } catch (ArithmeticException ex) {
+        // overflows, Java wraps around while IMP does not
+        return v;
+      }
+    });
+  }
+
+  /*
+    The outcome of a comparison of literals, or null if cond is not one
+   */
+  private static Boolean evaluate(final ImpExpr cond) {
+    if(!(cond instanceof Binop) || !(((Binop) cond).getLhs() instanceof IntLiteral) || !(((Binop) cond).getRhs() instanceof IntLiteral)) {
+      return null;
+    }
+    int l = ((IntLiteral) ((Binop) cond).getLhs()).getValue();
+    int r = ((IntLiteral) ((Binop) cond).getRhs()).getValue();
+    switch(((Binop) cond).getSym()) {
+      case "=":
+      case "==":
+        return l == r;
+      case "!=":
+        return l != r;
+      case "<":
+        return l < r;
+      case "<=":
+        return l <= r;
+      case ">":
+        return l > r;
+      case ">=":
+        return l >= r;
+      default:
+        return null;
+    }
+  }
+
+  /*
+    Removes the dead bindings and effects of s, adding the variables free in the result to live
+   */
+  private InstructionStream dead(final InstructionStream s, final Set<String> live) {
+    List<Instruction> in = s.instructions();
+    Set<String> used = new HashSet<>();
+    ImpExpr ret = s.returnValue();
+    if(ret != null) {
+      variables(ret, used);
+    }
+    LinkedList<Instruction> out = new LinkedList<>();
+    for(int k = in.size() - 1; k >= 0; k--) {
+      Instruction i = in.get(k);
+      if(i instanceof LetBind && isPure(((LetBind) i).getRhs()) && !used.contains(((LetBind) i).getVarName())) {
+        continue;
+      }
+      if(isNoOp(i, k == 0 ? null : in.get(k - 1))) {
+        continue;
+      }
+      Set<String> nested = new HashSet<>();
+      if(!i.streams().isEmpty()) {
+        i = i.with(i.exprs(), i.names(), map(i.streams(), n -> dead(n, nested)));
+      }
+      used.removeAll(i.bound());
+      i.exprs().forEach(e -> variables(e, used));
+      used.addAll(i.names());
+      used.addAll(nested);
+      out.addFirst(i);
+    }
+    live.addAll(used);
+    return s.rebuild(out, ret);
+  }
+
+  private static boolean isNoOp(final Instruction i, final Instruction prev) {
+    if(i instanceof SideEffect) {
+      return isPure(i.exprs().get(0));
+    } else if(i instanceof Alias) {
+      List<String> sides = aliasSides((Alias) i);
+      if(sides.get(0).equals(sides.get(1))) {
+        return true;
+      }
+      if(prev instanceof Alias) {
+        List<String> p = aliasSides((Alias) prev);
+        return p.equals(sides) || (p.get(0).equals(sides.get(1)) && p.get(1).equals(sides.get(0)));
+      }
+    }
+    return false;
+  }
+
+  private static List<String> aliasSides(final Alias a) {
+    return List.of(a.getLhs().toString(), a.getRhs().toString());
+  }
+
+  private static boolean isPure(final ImpExpr e) {
+    if(e instanceof Call || e instanceof ArrayRead || e instanceof ArrayLength || e instanceof NewArray) {
+      return false;
+    }
+    if(e instanceof Binop && (((Binop) e).getSym().equals("/") || ((Binop) e).getSym().equals("%"))) {
+      return false;
+    }
+    return e.children().stream().allMatch(ImpOptimizer::isPure);
+  }
+
+  private static void variables(final ImpExpr e, final Set<String> out) {
+    e.transform(v -> {
+      if(v instanceof Variable) {
+        out.add(((Variable) v).getName());
+      }
+      return v;
+    });
+  }
+
+  private InstructionStream blocks(final InstructionStream s) {
+    List<Instruction> out = new ArrayList<>();
+    for(Instruction i : s.instructions()) {
+      if(!i.streams().isEmpty()) {
+        i = i.with(i.exprs(), i.names(), map(i.streams(), this::blocks));
+      }
+      if(i instanceof Block) {
+        InstructionStream b = i.streams().get(0);
+        List<Instruction> inner = b.instructions();
+        if(b.returnValue() == null && inner.stream().noneMatch(Bind.class::isInstance)) {
+          out.addAll(inner);
+          continue;
+        }
+      }
+      out.add(i);
+    }
+    return s.rebuild(out, s.returnValue());
+  }
+
+  private static <T> List<T> map(final List<T> l, final UnaryOperator<T> f) {
+    return l.stream().map(f).collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,45 @@
+package edu.kyoto.fos.regnant.translation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/*
+  Writes a translated program, and the flag predicates it uses, method by method as the translations are produced.
+  Nothing but the output buffers is retained between methods. Closing the writer adds the call to the entry point
+  and finishes the flags file.
+ */
+public class ImpWriter implements Closeable {
+  private final Writer out;
+  private final PrintStream flagsOut;
+  private final String entry;
+
+  public ImpWriter(final String outputFile, final String flagsFile, final String entry) throws IOException {
+    this.out = Files.newBufferedWriter(Paths.get(outputFile), StandardCharsets.UTF_8);
+    this.flagsOut = new PrintStream(Files.newOutputStream(Paths.get(flagsFile)), false, StandardCharsets.UTF_8);
+    this.entry = entry;
+    flagsOut.println("(");
+  }
+
+  public void write(final MethodTranslation t) {
+    try {
+      t.printOn(out);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    t.getFlags().printOn(flagsOut);
+  }
+
+  @Override public void close() throws IOException {
+    try(out; flagsOut) {
+      out.write("\n");
+      out.write(String.format("{ %s() }\n", entry));
+      flagsOut.println(")");
+    }
+  }
+}
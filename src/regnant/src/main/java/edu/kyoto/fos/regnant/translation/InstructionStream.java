@@ -10,29 +10,30 @@ import edu.kyoto.fos.regnant.ir.stmt.Bind;
 import edu.kyoto.fos.regnant.ir.stmt.Block;
 import edu.kyoto.fos.regnant.ir.stmt.Condition;
 import edu.kyoto.fos.regnant.ir.stmt.Effect;
+import edu.kyoto.fos.regnant.ir.stmt.Instruction;
 import edu.kyoto.fos.regnant.ir.stmt.LetBind;
 import edu.kyoto.fos.regnant.ir.stmt.NullCheck;
+import edu.kyoto.fos.regnant.ir.stmt.ProjectionBind;
 import edu.kyoto.fos.regnant.ir.stmt.SideEffect;
 import edu.kyoto.fos.regnant.ir.stmt.aliasing.AliasOp;
 import fj.P;
-import fj.P3;
+import fj.P2;
 import soot.Local;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 public class InstructionStream implements Printable  {
 
   private final String tag;
-  public List<P3<String, List<String>, InstructionStream>> sideFunctions = new ArrayList<>();
 
   public InstructionStream(final String tag) {
     this.tag = tag;
@@ -54,19 +55,19 @@ public class InstructionStream implements Printable  {
 
   public void printAt(final int level, final StringBuilder sb) {
     assert this.isTerminal() : sb.toString() + " " + this.tag;
-    printLoop(level, sb, this.stateStack.iterator());
-  }
-
-  private void printLoop(final int level, final StringBuilder sb, final Iterator<StreamState> iterator) {
-    if(!iterator.hasNext()) {
-      this.termNode.printAt(level, sb);
-      return;
+    // each state is printed nested in the body of the one before it, so open them in order and close them innermost first
+    Deque<P2<StreamState, Integer>> opened = new ArrayDeque<>();
+    int bodyLevel = level;
+    for(StreamState st : this.stateStack) {
+      opened.push(P.p(st, bodyLevel));
+      bodyLevel = st.open(bodyLevel, sb);
+      st.printAt(bodyLevel, sb);
+    }
+    this.termNode.printAt(bodyLevel, sb);
+    while(!opened.isEmpty()) {
+      P2<StreamState, Integer> st = opened.pop();
+      st._1().close(st._2(), sb);
     }
-    StreamState st = iterator.next();
-    int bodyLevel = st.open(level, sb);
-    st.printAt(bodyLevel, sb);
-    printLoop(bodyLevel, sb, iterator);
-    st.close(level, sb);
   }
 
   public InstructionStream andClose() {
@@ -258,21 +259,16 @@ public class InstructionStream implements Printable  {
   public void addCond(ImpExpr cond, InstructionStream tr, InstructionStream fls) {
     tr.close();
     fls.close();
-    this.inheritFunctions(tr);
-    this.inheritFunctions(fls);
     this.addEffect(new Condition(cond, tr, fls));
   }
 
   public void addNullCond(final ImpExpr value, final InstructionStream tBranch, final InstructionStream falseBranch) {
     tBranch.close();
     falseBranch.close();
-    this.inheritFunctions(tBranch);
-    this.inheritFunctions(falseBranch);
     this.addEffect(new NullCheck(value, tBranch, falseBranch));
   }
 
   public void addBlock(final InstructionStream is) {
-    this.inheritFunctions(is);
     is.close();
     if(is.termNode instanceof Skip && is.stateStack.size() == 1 && is.stateStack.peekFirst() instanceof SideEffectState) {
       SideEffectState effects = (SideEffectState) is.stateStack.peekFirst();
@@ -291,20 +287,9 @@ public class InstructionStream implements Printable  {
   }
 
   public void bindProjection(final String fieldTemp, final int slot, final int slotOf, final String fieldBase) {
-    this.addBind(new Bind() {
-      @Override public void printAt(final int level, final StringBuilder b) {
-        Stream.Builder<String> builder = Stream.builder();
-        for(int i = 0; i < slot; i++) {
-          builder.add("_");
-        }
-        builder.add(fieldTemp);
-        for(int i = slot + 1; i < slotOf; i++) {
-          builder.add("_");
-        }
-        String bind = builder.build().collect(Collectors.joining(", ", "(", ")"));
-        indent(level, b).append("let ").append(bind).append(" = *").append(fieldBase).append(" in ");
-      }
-    });
+    List<String> slots = new ArrayList<>(Collections.nCopies(slotOf, null));
+    slots.set(slot, fieldTemp);
+    this.addBind(new ProjectionBind(slots, fieldBase));
   }
 
   public List<String> bindProjections(int totalSlots, String fieldBase, Supplier<String> freshVar, int... skip) {
@@ -312,30 +297,21 @@ public class InstructionStream implements Printable  {
     Arrays.sort(sk);
     List<String> toReturn = new ArrayList<>();
     int skipInd = 0;
-    Stream.Builder<String> builder = Stream.builder();
+    List<String> slots = new ArrayList<>();
     for(int i = 0; i < totalSlots; i++) {
       if(skipInd < sk.length && sk[skipInd] == i) {
         while(skipInd < sk.length && sk[skipInd] == i) skipInd++;
-        builder.add("_");
+        slots.add(null);
       } else {
         String v = freshVar.get();
-        builder.add(v);
+        slots.add(v);
         toReturn.add(v);
       }
     }
-    String bind = builder.build().collect(Collectors.joining(", ", "(", ")"));
-    this.addBind(new Bind() {
-      @Override public void printAt(final int level, final StringBuilder b) {
-        indent(level, b).append("let ").append(bind).append(" = *").append(fieldBase).append(" in ");
-      }
-    });
+    this.addBind(new ProjectionBind(slots, fieldBase));
     return toReturn;
   }
 
-  private void inheritFunctions(final InstructionStream fls) {
-    this.sideFunctions.addAll(fls.sideFunctions);
-  }
-
   public static InstructionStream unit(String tag) {
     InstructionStream i = new InstructionStream(tag);
     i.close();
@@ -347,18 +323,63 @@ public class InstructionStream implements Printable  {
     this.termNode = new Return(val);
   }
 
-  public void returnUnit() {
-    this.ret(ImpExpr.unitValue());
+  /*
+    Adds the instructions of the closed stream body, which must end with a return, to this stream (so the bindings of body
+    scope over the rest of this stream), and returns the returned value
+   */
+  public ImpExpr splice(final InstructionStream body) {
+    assert body.termNode instanceof Return;
+    body.instructions().forEach(this::add);
+    return body.returnValue();
+  }
+
+  /*
+    The bindings and effects of this (closed) stream, in order
+   */
+  public List<Instruction> instructions() {
+    assert this.isTerminal();
+    List<Instruction> toReturn = new ArrayList<>();
+    for(StreamState st : this.stateStack) {
+      if(st instanceof BindState) {
+        toReturn.addAll(((BindState) st).binds);
+      } else {
+        toReturn.addAll(((SideEffectState) st).currEffects);
+      }
+    }
+    return toReturn;
   }
 
-  public void addSideFunction(String name, List<String> l, InstructionStream s) {
-    this.inheritFunctions(s);
-    this.sideFunctions.add(P.p(name, l, s));
+  /*
+    The value returned at the end of this stream, or null if it does not end with a return
+   */
+  public ImpExpr returnValue() {
+    return this.termNode instanceof Return ? ((Return) this.termNode).returnOp : null;
   }
 
-  public void addSideFunction(String name, Collection<Local> l, InstructionStream s) {
-    this.addSideFunction(name, l.stream().map(Local::getName).collect(Collectors.toList()), s);
+  /*
+    A stream of the given instructions, which ends as this one does (returning ret if this stream ends with a return)
+   */
+  public InstructionStream rebuild(final List<Instruction> instructions, final ImpExpr ret) {
+    InstructionStream toReturn = fresh(this.tag);
+    instructions.forEach(toReturn::add);
+    if(this.termNode instanceof Return) {
+      toReturn.ret(ret);
+    } else {
+      toReturn.close();
+    }
+    return toReturn;
+  }
 
+  private void add(final Instruction i) {
+    if(i instanceof Bind) {
+      this.addBind((Bind) i);
+    } else {
+      this.addEffect((Effect) i);
+    }
+  }
+
+  public void returnUnit() {
+    this.ret(ImpExpr.unitValue());
   }
 
   public void addLoopInvoke(String name, List<Local> args) {
@@ -0,0 +1,130 @@
+package edu.kyoto.fos.regnant.translation;
+
+import soot.Body;
+import soot.Scene;
+import soot.SootMethod;
+import soot.Unit;
+import soot.Value;
+import soot.ValueBox;
+import soot.jimple.CastExpr;
+import soot.jimple.InstanceOfExpr;
+import soot.jimple.InvokeExpr;
+import soot.jimple.MonitorStmt;
+import soot.jimple.ReturnStmt;
+import soot.jimple.ReturnVoidStmt;
+import soot.jimple.SpecialInvokeExpr;
+import soot.jimple.Stmt;
+import soot.jimple.toolkits.callgraph.CallGraph;
+import soot.jimple.toolkits.callgraph.Edge;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/*
+  Inlining of small leaf methods, configured with the inline option (the budget, in units; 0, the default, disables
+  inlining).
+
+  A leaf is a method whose simplified body is straight line code of at most budget units, without calls (besides the
+  constructor of Object, which the translation skips), casts or instanceof checks: the latter consult the type analysis
+  for the locals of the method, which the copies inlined into a caller do not share. Getters, setters and trivial
+  constructors are leaves. A call with a unique callee which is a leaf is translated in place by Translate (see
+  Translate.inline), so the leaf does not become a function of its own.
+
+  The callees of a method are found from the call graph, under the translation lock, before the method is translated
+  (prepare); the translations then only take copies of the bodies kept here. A method is itself recorded under the lock
+  before its translation modifies its simplified body (record), so no body is inspected while it is modified.
+ */
+public class LeafInliner {
+  private final int budget;
+  private final Map<SootMethod, Optional<Body>> leaves = new ConcurrentHashMap<>();
+
+  public LeafInliner(final int budget) {
+    this.budget = budget;
+  }
+
+  /*
+    Finds the leaves among the callees (in the call graph) of the simplified body b, given the simplified bodies of methods.
+    Returns a description of these leaves and their bodies (on which the translation of b depends).
+   */
+  public String prepare(final Body b, final Function<SootMethod, Body> simplify) {
+    if(budget <= 0) {
+      return "";
+    }
+    CallGraph cg = Scene.v().getCallGraph();
+    Map<String, Body> found = new TreeMap<>();
+    for(Unit u : b.getUnits()) {
+      for(Iterator<Edge> it = cg.edgesOutOf(u); it.hasNext(); ) {
+        SootMethod m = it.next().tgt();
+        Optional<Body> leaf = leaves.computeIfAbsent(m, k -> this.copyIfLeaf(k, simplify));
+        leaf.ifPresent(l -> found.put(m.getSignature(), l));
+      }
+    }
+    StringBuilder sb = new StringBuilder();
+    found.forEach((sig, l) -> sb.append("inline ").append(sig).append('\n').append(l).append('\n'));
+    return sb.toString();
+  }
+
+  /*
+    Records whether m is a leaf, given its simplified body b, before the translation of m modifies b (outside of the lock):
+    the callers of m prepared later must not inspect b
+   */
+  public void record(final SootMethod m, final Body b) {
+    if(budget > 0) {
+      leaves.computeIfAbsent(m, k -> this.copyIfLeaf(k, ign -> b));
+    }
+  }
+
+  private Optional<Body> copyIfLeaf(final SootMethod m, final Function<SootMethod, Body> simplify) {
+    if(!m.isConcrete() || Scene.v().isExcluded(m.getDeclaringClass())) {
+      return Optional.empty();
+    }
+    Body simpl = simplify.apply(m);
+    // the body of the method is modified by its own translation, so this keeps a copy
+    return isLeaf(simpl) ? Optional.of((Body) simpl.clone()) : Optional.empty();
+  }
+
+  /*
+    A copy of the body of m, if it is a leaf found by prepare, or null
+   */
+  public Body leafBody(final SootMethod m) {
+    Optional<Body> leaf = leaves.getOrDefault(m, Optional.empty());
+    return leaf.map(l -> (Body) l.clone()).orElse(null);
+  }
+
+  private boolean isLeaf(final Body b) {
+    if(b.getUnits().size() > budget) {
+      return false;
+    }
+    Unit last = b.getUnits().getLast();
+    if(!(last instanceof ReturnStmt) && !(last instanceof ReturnVoidStmt)) {
+      return false;
+    }
+    for(Unit u : b.getUnits()) {
+      if(u != last && (!u.fallsThrough() || u.branches())) {
+        return false;
+      }
+      if(u instanceof MonitorStmt || u.hasTag(UnreachableTag.NAME)) {
+        return false;
+      }
+      if(((Stmt) u).containsInvokeExpr() && !isObjectConstructor(((Stmt) u).getInvokeExpr())) {
+        return false;
+      }
+      for(ValueBox vb : u.getUseBoxes()) {
+        Value v = vb.getValue();
+        if(v instanceof CastExpr || v instanceof InstanceOfExpr) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  static boolean isObjectConstructor(final InvokeExpr expr) {
+    return expr instanceof SpecialInvokeExpr && expr.getMethodRef().getDeclaringClass().getName().equals("java.lang.Object") &&
+        expr.getMethodRef().getName().equals("<init>");
+  }
+}
@@ -0,0 +1,11 @@
+package edu.kyoto.fos.regnant.translation;
+
+import java.io.IOException;
+
+/*
+  The output of translating a single method: the generated functions, and the flag predicates they use.
+ */
+public interface MethodTranslation {
+  void printOn(Appendable app) throws IOException;
+  FlagTranslation getFlags();
+}
@@ -10,7 +10,6 @@ import edu.kyoto.fos.regnant.ir.stmt.aliasing.AliasOp.Builder;
 import edu.kyoto.fos.regnant.storage.oo.StorageLayout;
 import soot.RefLikeType;
 import soot.SootField;
-import soot.Type;
 
 import java.util.LinkedList;
 
@@ -22,6 +21,9 @@ import java.util.LinkedList;
   a non-trivial access path.
 
   Reading is also non-trivial: the reference must be projected out, dereferenced, and then aliased back in.
+
+  Each access projects and aliases on its own; the project pass of ImpOptimizer shares the projection (and the alias back)
+  between consecutive accesses to the same object.
  */
 public class MutableTupleModel implements ObjectModel {
   private final StorageLayout layout;
@@ -31,6 +33,10 @@ public class MutableTupleModel implements ObjectModel {
   }
 
   @Override public void writeField(final InstructionStream l, final String objectVar, final SootField f, ImpExpr lhs, final VarManager vm, final LinkedList<Cleanup> handlers) {
+    if(!layout.isLive(f)) {
+      // the field is never read, so the write is dropped
+      return;
+    }
     int slot = layout.getStorageSlot(f);
     int d = layout.metaStorageSize(f);
     String fld = vm.getField();
@@ -61,8 +67,8 @@ public class MutableTupleModel implements ObjectModel {
     return b.deref().proj(this.layout.getStorageSlot(f)).deref();
   }
 
-  @Override public ImpExpr allocFieldOfType(final Type t) {
-    if(t instanceof RefLikeType) {
+  @Override public ImpExpr allocField(final SootField f) {
+    if(f.getType() instanceof RefLikeType) {
       return new Mkref(NullConstant.v());
     } else {
       return new Mkref(IntLiteral.v(0));
@@ -4,25 +4,26 @@ import edu.kyoto.fos.regnant.ir.expr.ImpExpr;
 import edu.kyoto.fos.regnant.ir.stmt.aliasing.AliasOp;
 import edu.kyoto.fos.regnant.ir.stmt.aliasing.AliasOp.Builder;
 import edu.kyoto.fos.regnant.storage.oo.StorageLayout;
+import edu.kyoto.fos.regnant.aliasing.FieldAliasing;
 import soot.SootField;
-import soot.Type;
 
 import java.util.LinkedList;
-import java.util.function.Function;
+import java.util.function.BiFunction;
 
 public interface ObjectModel {
   enum Impl {
-    FUNCTIONAL(FunctionalTupleModel::new),
-    MUTABLE(MutableTupleModel::new);
+    FUNCTIONAL((sl, as) -> new FunctionalTupleModel(sl)),
+    MUTABLE((sl, as) -> new MutableTupleModel(sl)),
+    HYBRID(HybridTupleModel::new);
 
-    private final Function<StorageLayout, ObjectModel> fact;
+    private final BiFunction<StorageLayout, FieldAliasing, ObjectModel> fact;
 
-    Impl(Function<StorageLayout, ObjectModel> factory) {
+    Impl(BiFunction<StorageLayout, FieldAliasing, ObjectModel> factory) {
       this.fact = factory;
     }
 
-    public ObjectModel make(StorageLayout sl) {
-      return fact.apply(sl);
+    public ObjectModel make(StorageLayout sl, FieldAliasing as) {
+      return fact.apply(sl, as);
     }
   }
 
@@ -34,5 +35,5 @@ public interface ObjectModel {
   default void iterAP(SootField f, AliasOp.Builder b) {
     extendAP(b, f);
   }
-  ImpExpr allocFieldOfType(Type t);
+  ImpExpr allocField(SootField f);
 }
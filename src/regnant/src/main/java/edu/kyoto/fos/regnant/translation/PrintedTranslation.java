@@ -0,0 +1,39 @@
+package edu.kyoto.fos.regnant.translation;
+
+import java.io.IOException;
+
+/*
+  A translation reduced to its printed text and flag predicates, for translations that have to be kept around
+  (or were read back from the cache); this releases the body and instruction streams of the original translation.
+ */
+public class PrintedTranslation implements MethodTranslation {
+  private final String text;
+  private final FlagTranslation flags;
+
+  public PrintedTranslation(final String text, final FlagTranslation flags) {
+    this.text = text;
+    this.flags = flags;
+  }
+
+  public static PrintedTranslation of(final MethodTranslation t) {
+    if(t instanceof PrintedTranslation) {
+      return (PrintedTranslation) t;
+    }
+    StringBuilder sb = new StringBuilder();
+    try {
+      t.printOn(sb);
+    } catch (IOException e) {
+      // StringBuilders do not throw
+      throw new IllegalStateException(e);
+    }
+    return new PrintedTranslation(sb.toString(), t.getFlags());
+  }
+
+  @Override public void printOn(final Appendable app) throws IOException {
+    app.append(text);
+  }
+
+  @Override public FlagTranslation getFlags() {
+    return flags;
+  }
+}
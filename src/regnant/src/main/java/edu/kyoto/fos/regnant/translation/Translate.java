@@ -1,7 +1,9 @@
 package edu.kyoto.fos.regnant.translation;
 
 import edu.kyoto.fos.regnant.aliasing.FieldAliasing;
+import edu.kyoto.fos.regnant.analysis.TypeAnalysis;
 import edu.kyoto.fos.regnant.cfg.BasicBlock;
+import edu.kyoto.fos.regnant.cfg.CFGReconstructor;
 import edu.kyoto.fos.regnant.cfg.graph.BlockSequence;
 import edu.kyoto.fos.regnant.cfg.graph.ConditionalNode;
 import edu.kyoto.fos.regnant.cfg.graph.Continuation;
@@ -15,6 +17,7 @@ import edu.kyoto.fos.regnant.cfg.graph.LoopNode;
 import edu.kyoto.fos.regnant.cfg.instrumentation.FlagInstrumentation;
 import edu.kyoto.fos.regnant.ir.expr.ArrayLength;
 import edu.kyoto.fos.regnant.ir.expr.ArrayRead;
+import edu.kyoto.fos.regnant.ir.expr.Binop;
 import edu.kyoto.fos.regnant.ir.expr.ImpExpr;
 import edu.kyoto.fos.regnant.ir.expr.IntLiteral;
 import edu.kyoto.fos.regnant.ir.expr.ValueLifter;
@@ -28,13 +31,14 @@ import edu.kyoto.fos.regnant.storage.oo.StorageLayout;
 import fj.Ord;
 import fj.P;
 import fj.P2;
+import fj.P3;
+import fj.P4;
 import fj.data.Option;
 import fj.data.TreeMap;
 import soot.Body;
 import soot.FastHierarchy;
 import soot.IntType;
 import soot.Local;
-import soot.PointsToAnalysis;
 import soot.RefLikeType;
 import soot.RefType;
 import soot.Scene;
@@ -71,16 +75,25 @@ import soot.jimple.ThisRef;
 import soot.jimple.ThrowStmt;
 import soot.jimple.internal.JimpleLocal;
 import soot.jimple.toolkits.callgraph.VirtualCalls;
+import soot.toolkits.graph.BriefUnitGraph;
+import soot.toolkits.graph.UnitGraph;
+import soot.toolkits.scalar.LiveLocals;
+import soot.toolkits.scalar.SimpleLiveLocals;
 import soot.util.NumberedString;
+import soot.util.MapNumberer;
 import soot.util.Numberer;
 import soot.util.queue.ChunkedQueue;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -103,31 +116,58 @@ import static edu.kyoto.fos.regnant.cfg.instrumentation.FlagInstrumentation.*;
 
 
 */
-public class Translate {
+public class Translate implements MethodTranslation {
   private static final String THIS_PARAM = "reg$this_in";
   public static final String ALIASING_CLASS = "edu.kyoto.fos.regnant.runtime.Aliasing";
   private final FlagInstrumentation flg;
   private final Body b;
   private final LetBindAllocator alloc;
-  private final InstructionStream stream;
+  private InstructionStream stream;
   private final ChunkedQueue<SootMethod> worklist;
   private final StorageLayout layout;
+  private final TypeAnalysis types;
   private final ValueLifter lifter;
   private final FieldAliasing as;
   private final ObjectModel objectModel;
-  private int coordCounter = 1;
-  private Map<Coord, Integer> coordAssignment = new HashMap<>();
+  private final FlagTranslation flags;
+  // the loop bodies and devirtualized calls generated so far, in the order they are printed (before the method itself)
+  private final List<P3<String, List<String>, InstructionStream>> functions = new ArrayList<>();
+  // the dispatch functions generated so far, by their runs of callees, last tag, receiver size and parameter count
+  private final Map<P4<List<P2<Integer, String>>, Integer, Integer, Integer>, String> dispatchers = new HashMap<>();
+  private final Numberer<Unit> unitNumberer;
+  private final LeafInliner inliner;
+  // the names of the receiver and the arguments, when this body is inlined into a caller (null otherwise)
+  private final List<String> inlinedArgs;
   public static final String CONTROL_FLAG = "reg$control";
+  private final Local controlFlagLocal = new JimpleLocal(CONTROL_FLAG, IntType.v());
+  // the liveness of the locals, computed for the first loop
+  private UnitGraph unitGraph = null;
+  private LiveLocals liveness = null;
 
-  public Translate(Body b, GraphElem startElem, FlagInstrumentation flg, LetBindAllocator alloc, final ChunkedQueue<SootMethod> worklist, StorageLayout sl, final FieldAliasing as, ObjectModel.Impl om) {
+  public Translate(Body b, GraphElem startElem, FlagInstrumentation flg, LetBindAllocator alloc, final ChunkedQueue<SootMethod> worklist, StorageLayout sl, final TypeAnalysis types, final FieldAliasing as, ObjectModel.Impl om) {
+    this(b, startElem, flg, alloc, worklist, sl, types, as, om, null);
+  }
+
+  public Translate(Body b, GraphElem startElem, FlagInstrumentation flg, LetBindAllocator alloc, final ChunkedQueue<SootMethod> worklist, StorageLayout sl, final TypeAnalysis types, final FieldAliasing as, ObjectModel.Impl om,
+      final LeafInliner inliner) {
+    this(b, startElem, flg, alloc, worklist, sl, types, as, om.make(sl, as), inliner, new MapNumberer<>(), null);
+  }
+
+  private Translate(Body b, GraphElem startElem, FlagInstrumentation flg, LetBindAllocator alloc, final ChunkedQueue<SootMethod> worklist, StorageLayout sl, final TypeAnalysis types, final FieldAliasing as, ObjectModel objectModel,
+      final LeafInliner inliner, final Numberer<Unit> unitNumberer, final List<String> inlinedArgs) {
     this.flg = flg;
     this.b = b;
     this.alloc = alloc;
     this.worklist = worklist;
     this.layout = sl;
-    this.objectModel = om.make(layout);
+    this.types = types;
+    this.objectModel = objectModel;
+    this.inliner = inliner;
+    this.unitNumberer = unitNumberer;
+    this.inlinedArgs = inlinedArgs;
     this.lifter = new ValueLifter(worklist, layout, objectModel);
     this.as = as;
+    this.flags = new FlagTranslation(getMangledName(b.getMethod()));
     /* the instructionstream.fresh takes a lambda which builds the instruction stream
      "in place."
      */
@@ -138,7 +178,7 @@ public class Translate {
       // if we need to track flags during this execution, allocate the special control flag variable.
       if(flg.setFlag.size() > 0) {
         l.addBinding(CONTROL_FLAG, ImpExpr.literalInt(0), true);
-        e = e.updateBound(Collections.singletonMap(new JimpleLocal(CONTROL_FLAG, IntType.v()), Binding.MUTABLE));
+        e = e.updateBound(Collections.singletonMap(controlFlagLocal, Binding.MUTABLE));
       }
       // translate the root start elem
       translateElem(l, startElem, e);
@@ -146,12 +186,17 @@ public class Translate {
     this.stream.close();
   }
 
-  public StringBuilder print() {
-    StringBuilder sb = new StringBuilder();
-    this.stream.sideFunctions.forEach(p -> {
-      List<String> argNames = p._2();
-      sb.append(p._3().dumpAs(p._1(), argNames));
-    });
+  /*
+    Each function is printed on its own and appended to app, so the translation of a method is never held as a whole in memory
+   */
+  @Override public void printOn(Appendable app) throws IOException {
+    for(P3<String, List<String>, InstructionStream> f : this.functions) {
+      app.append(f._3().dumpAs(f._1(), f._2()));
+    }
+    app.append(this.stream.dumpAs(this.getMangledName(), this.getParams()));
+  }
+
+  private List<String> getParams() {
     List<String> params = new ArrayList<>();
     if(!this.b.getMethod().isStatic()) {
       params.add(THIS_PARAM);
@@ -159,13 +204,32 @@ public class Translate {
     for(int i = 0; i < this.b.getMethod().getParameterCount(); i++) {
       params.add(this.getParamName(i));
     }
+    return params;
+  }
 
-    sb.append(this.stream.dumpAs(this.getMangledName(), params));
-    return sb;
+  /*
+    Rewrites the generated functions with opt (see ImpOptimizer) before they are printed; returns the number of bindings removed
+   */
+  public int optimize(final ImpOptimizer opt) {
+    int removed = 0;
+    for(int i = 0; i < this.functions.size(); i++) {
+      P3<String, List<String>, InstructionStream> f = this.functions.get(i);
+      InstructionStream o = opt.optimize(f._2(), f._3());
+      removed += ImpOptimizer.bindings(f._3()) - ImpOptimizer.bindings(o);
+      this.functions.set(i, P.p(f._1(), f._2(), o));
+    }
+    InstructionStream o = opt.optimize(this.getParams(), this.stream);
+    removed += ImpOptimizer.bindings(this.stream) - ImpOptimizer.bindings(o);
+    this.stream = o;
+    return removed;
+  }
+
+  @Override public FlagTranslation getFlags() {
+    return flags;
   }
 
-  public void printOn(Appendable app) throws IOException {
-    app.append(this.print());
+  public int getFunctionCount() {
+    return functions.size();
   }
 
 
@@ -181,7 +245,8 @@ public class Translate {
     }
 
     public Env enterLoop(String nm, List<Local> locs) {
-      return new Env(true, boundVars, P.p(nm, locs));
+      TreeMap<Local, Binding> inLoop = boundVars.keys().filter(l -> !locs.contains(l)).foldLeft(TreeMap::delete, boundVars);
+      return new Env(true, inLoop, P.p(nm, locs));
     }
 
     public Env updateBound(Map<Local, Binding> b) {
@@ -207,7 +272,7 @@ public class Translate {
       translateElemChoose(i, elem, e);
       outStream.addCond(
           // this will generate a new conditional to check the value of the control flag
-          ImpExpr.controlFlag(cond.stream().map(this::getCoordId).collect(Collectors.toList())),
+          this.controlFlag(cond.stream().map(this::getCoordId).collect(Collectors.toList())),
           i.andClose(),
           InstructionStream.unit("gate"));
       return e;
@@ -260,7 +325,7 @@ public class Translate {
        */
       translateElemChoose(rest, iterator, chooseBy, e);
       /* then place the conditional, decided based on the choice flag, on the stream i given to us */
-      i.addCond(ImpExpr.controlFlag(choiceBy), curr, rest.andClose());
+      i.addCond(this.controlFlag(choiceBy), curr, rest.andClose());
     }
   }
 
@@ -268,6 +333,11 @@ public class Translate {
     return tmp.stream().map(this::getCoordId).collect(Collectors.toList());
   }
 
+  private ImpExpr controlFlag(final List<Integer> collect) {
+    // coordinates may share a value, so the same check may be reached from different coordinate sets
+    return ImpExpr.controlFlag(flags.allocate(collect.stream().distinct().sorted().collect(Collectors.toList())));
+  }
+
   /*
     If this is a loop, lift it into a separate function, and then insert a call to that function.
 
@@ -280,22 +350,31 @@ public class Translate {
       String loopName = this.getLoopName(elem);
       List<Local> args = new ArrayList<>();
       /*
-        Collect all variables in scope
+        Collect the variables in scope which the loop refers to
        */
-      e.boundVars.keys().forEach(args::add);
+      Set<Local> written = new HashSet<>();
+      Set<Local> loopLocals = this.loopLocals(elem, written);
+      e.boundVars.keys().filter(loopLocals::contains).forEach(args::add);
+      /*
+        The variables in scope which the loop overwrites before reading, and which are dead after it, are declared anew
+       */
+      Map<Local, Binding> redeclared = new HashMap<>();
+      e.boundVars.keys().filter(l -> written.contains(l) && !loopLocals.contains(l)).forEach(l -> redeclared.put(l, Binding.MUTABLE));
 
       InstructionStream lBody = InstructionStream.fresh("loop-body");
+      redeclared.keySet().stream().sorted(Comparator.comparing(Local::getName))
+          .forEach(l -> lBody.addBinding(l.getName(), ImpExpr.dummyValue(l.getType()), true));
       /*
         Translate the loop body on the (fresh) lbody scheme
        */
-      translateElemBase(lBody, elem, e.enterLoop(loopName, args));
+      translateElemBase(lBody, elem, e.enterLoop(loopName, args).updateBound(redeclared));
       lBody.close();
       assert lBody.isTerminal();
       /*
-        Attach the body of the function as an auxiliary function to i,
+        Record the body of the loop as an auxiliary function of this method,
         the aux function has body lBody, name loopName, and arguments args,
        */
-      i.addSideFunction(loopName, args, lBody);
+      this.functions.add(P.p(loopName, args.stream().map(Local::getName).collect(Collectors.toList()), lBody));
 
       /*
         Invoke the new loop function, passing in all live arguments;
@@ -328,12 +407,88 @@ public class Translate {
       return translateElemBase(i, elem, e);
     }
   }
+  /*
+    The locals a loop function takes: those it refers to which are live on entry to its header, and those it writes which are
+    live on its exits (the code after a loop runs in the caller, which sees the writes through the passed references). The control flag is passed if
+    the loop sets it or checks it (apart from the checks around the loop itself, which are in the caller), and the
+    parameters if the loop returns from the method, as the return aliases them back. The locals written by the loop are
+    added to written.
+   */
+  private Set<Local> loopLocals(final GraphElem loop, final Set<Local> written) {
+    Set<Unit> units = new HashSet<>();
+    Set<Local> referenced = new HashSet<>();
+    boolean usesFlag = false;
+    boolean returns = false;
+    Deque<GraphElem> worklist = new ArrayDeque<>();
+    worklist.push(loop);
+    while(!worklist.isEmpty()) {
+      GraphElem g = worklist.pop();
+      FlagInstrumentation.children(g, worklist::push);
+      if(g != loop) {
+        Map<String, Object> annot = g.getAnnot();
+        usesFlag |= annot.containsKey(GATE_ON) || annot.containsKey(CHOOSE_BY);
+        for(String k : new String[]{RECURSE_ON, RETURN_ON}) {
+          usesFlag |= g.isLoop() && annot.containsKey(k) && !g.getAnnotation(k, Set.class).isEmpty();
+        }
+      }
+      if(g instanceof ConditionalNode) {
+        usesFlag |= flg.setFlag.contains(Coord.of(true, g.getHead())) || flg.setFlag.contains(Coord.of(false, g.getHead()));
+      } else if(g instanceof JumpNode) {
+        usesFlag |= flg.setFlag.contains(Coord.of(g.getHead()));
+      } else {
+        continue;
+      }
+      for(Unit u : g.getHead().units) {
+        units.add(u);
+        for(ValueBox vb : u.getUseAndDefBoxes()) {
+          if(vb.getValue() instanceof Local) {
+            referenced.add((Local) vb.getValue());
+          }
+        }
+        for(ValueBox vb : u.getDefBoxes()) {
+          if(vb.getValue() instanceof Local) {
+            written.add((Local) vb.getValue());
+          }
+        }
+        returns |= u instanceof ReturnStmt || u instanceof ReturnVoidStmt;
+      }
+    }
+    if(this.liveness == null) {
+      this.unitGraph = new BriefUnitGraph(this.b);
+      this.liveness = new SimpleLiveLocals(this.unitGraph);
+    }
+    Set<Local> toReturn = new HashSet<>(this.liveness.getLiveLocalsBefore(loop.getHead().getHead()));
+    toReturn.retainAll(referenced);
+    for(Unit u : units) {
+      for(Unit succ : this.unitGraph.getSuccsOf(u)) {
+        // the gotos collapsed into their sources belong to no block, so look through them
+        Set<Unit> seen = new HashSet<>();
+        while(succ instanceof GotoStmt && !units.contains(succ) && seen.add(succ)) {
+          succ = ((GotoStmt) succ).getTarget();
+        }
+        if(!units.contains(succ)) {
+          this.liveness.getLiveLocalsBefore(succ).stream().filter(written::contains).forEach(toReturn::add);
+        }
+      }
+    }
+    if(returns) {
+      toReturn.addAll(this.b.getParameterLocals());
+      if(!this.b.getMethod().isStatic()) {
+        toReturn.add(this.b.getThisLocal());
+      }
+    }
+    if(usesFlag) {
+      toReturn.add(this.controlFlagLocal);
+    }
+    return toReturn;
+  }
+
   /*
     Translate a seties of instruction streams and control flag values into a series of if/else statements.
    */
   private void gateLoop(InstructionStream tgt,
       Iterator<P2<List<Integer>, InstructionStream>> instStream) {
-    gateLoop(tgt, instStream, ImpExpr::controlFlag, InstructionStream::close);
+    gateLoop(tgt, instStream, this::controlFlag, InstructionStream::close);
   }
 
   private void gateLoop(final InstructionStream tgt,
@@ -496,6 +651,14 @@ public class Translate {
       LinkedList<GraphElem> list = new LinkedList<>(sequence.chain);
       while(!list.isEmpty()) {
         GraphElem hd = list.pop();
+        /*
+          A nested sequence which is neither gated nor a loop is translated in place: the nesting grows with the length of
+          the method, and (as the environment of a sequence is discarded) this is the same as translating it recursively.
+         */
+        if(hd instanceof BlockSequence && !hd.isLoop() && !hd.getAnnot().containsKey(GATE_ON)) {
+          list.addAll(0, ((BlockSequence) hd).chain);
+          continue;
+        }
         it = translateElem(lBody, hd, it);
       }
     } else if(elem instanceof LoopNode) {
@@ -523,7 +686,7 @@ public class Translate {
       Local l = this.b.getThisLocal();
       Binding bind = env_.boundVars.get(l).some();
       if(bind == Binding.CONST) {
-        lBody.addAlias(l.getName(), THIS_PARAM);
+        lBody.addAlias(l.getName(), this.getThisName());
       }
     }
   }
@@ -559,7 +722,7 @@ public class Translate {
       needDefine.remove(defn);
       boolean mutableParam = env.get(defn).some() == Binding.MUTABLE;
       if(rhs instanceof ThisRef) {
-        str.addBinding(defn.getName(), ImpExpr.var(THIS_PARAM), mutableParam);
+        str.addBinding(defn.getName(), ImpExpr.var(this.getThisName()), mutableParam);
       } else {
         assert rhs instanceof ParameterRef;
         int paramNumber = ((ParameterRef) rhs).getIndex();
@@ -612,7 +775,7 @@ public class Translate {
       InstructionStream call = InstructionStream.fresh("call");
       InvokeStmt is = (InvokeStmt) unit;
       // skip super object constructors
-      if(is.getInvokeExpr() instanceof SpecialInvokeExpr && is.getInvokeExpr().getMethodRef().getDeclaringClass().getName().equals("java.lang.Object") && is.getInvokeExpr().getMethodRef().getName().equals("<init>")) {
+      if(LeafInliner.isObjectConstructor(is.getInvokeExpr())) {
         return;
       }
       // local contents here actually contains the call expression, which must be added to the stream
@@ -659,35 +822,36 @@ public class Translate {
     final VarManager vm = new BindCall(ctxt);
     List<LocalContents> args = new ArrayList<>();
     String callee;
+    // the callee, if it is unique
+    SootMethod target = null;
     List<Value> v = expr.getArgs();
-    if(expr instanceof StaticInvokeExpr) {
+    if(expr instanceof StaticInvokeExpr || expr instanceof SpecialInvokeExpr) {
       // straightforward, the method we call is the one statically named in the java bytecode.
-      callee = getMangledName(expr.getMethod());
-      worklist.add(expr.getMethod());
-    } else if(expr instanceof SpecialInvokeExpr) {
-      SootMethod m = expr.getMethod();
-      worklist.add(m);
-      callee = getMangledName(m);
+      target = expr.getMethod();
+      callee = getMangledName(target);
     } else {
       assert expr instanceof InstanceInvokeExpr;
       // Points to analysis time!
       var inv = (InstanceInvokeExpr) expr;
       Local l = (Local) inv.getBase();
-      PointsToAnalysis pta = Scene.v().getPointsToAnalysis();
       NumberedString subSig = expr.getMethodRef().getSubSignature();
-      // find the possible callees
-      Map<SootMethod, Set<SootClass>> callees =
-          pta.reachingObjects(l).possibleTypes().stream()
+      // find the possible callees (the virtual call resolver caches lookups and is shared between translations)
+      Map<SootMethod, Set<SootClass>> byCallee;
+      synchronized(VirtualCalls.v()) {
+        byCallee = types.reachingObjects(l).possibleTypes().stream()
               .filter(RefType.class::isInstance)
               .map(RefType.class::cast)
               .collect(Collectors
                   .groupingBy(refTy -> VirtualCalls.v().resolveNonSpecial(refTy, subSig, false),
                       Collectors.mapping(RefType::getSootClass, Collectors.toSet())));
+      }
+      // ordered by signature, the translation must not depend on the hashing of methods
+      Map<SootMethod, Set<SootClass>> callees = new LinkedHashMap<>();
+      byCallee.keySet().stream().sorted(Comparator.comparing(SootMethod::getSignature)).forEach(m -> callees.put(m, byCallee.get(m)));
       if(callees.size() == 1) {
         // if there is just one, then this is easy, the call is direct
-        SootMethod m = callees.keySet().iterator().next();
-        callee = getMangledName(m);
-        worklist.add(m);
+        target = callees.keySet().iterator().next();
+        callee = getMangledName(target);
       } else {
         // de-virtualize. The result of this operation will be a function with exactly the interface of the expected callee
         callee = devirtualize(ctxt, str, callees);
@@ -702,12 +866,46 @@ public class Translate {
       var lifted = liftValue(ctxt, a, vm, str, BindMode.IMMEDIATE, env);
       args.add(lifted);
     }
+    Body leaf = target == null || inliner == null ? null : inliner.leafBody(target);
+    if(leaf != null) {
+      return new CompoundCleanup(this.inline(ctxt, str, leaf, args), args.stream());
+    }
+    if(target != null) {
+      worklist.add(target);
+    }
     // Generate the call itself, using the immediate forms generated above
     ImpExpr call = ImpExpr.call(callee, args.stream().map(LocalContents::getValue).collect(Collectors.toList()));
     // this translated call, and the cleanups of each argument form the cleanup-annotated value of the call
     return new CompoundCleanup(call, args.stream());
   }
 
+  /*
+    Translates the call at ctxt of a leaf method (see LeafInliner) in place. The (copied) body of the leaf is translated as the
+    method itself would be, with its locals renamed apart, and with the receiver and parameters bound to the arguments of the
+    call rather than to the formals of a function. Its instructions are added to str, and the value it returns is the value
+    of the call.
+   */
+  private ImpExpr inline(final Unit ctxt, final InstructionStream str, final Body leaf, final List<LocalContents> args) {
+    long id = getUnitId(ctxt);
+    List<String> argNames = new ArrayList<>();
+    for(int i = 0; i < args.size(); i++) {
+      ImpExpr a = args.get(i).getValue();
+      if(a instanceof Variable && !a.isCompound()) {
+        argNames.add(((Variable) a).getName());
+      } else {
+        String tmp = String.format("reg$arg_%d_%d", id, i);
+        str.addBinding(tmp, a, false);
+        argNames.add(tmp);
+      }
+    }
+    leaf.getLocals().forEach(l -> l.setName(String.format("reg$inl_%d_%s", id, l.getName())));
+    CFGReconstructor cfg = new CFGReconstructor(leaf);
+    Translate t = new Translate(leaf, cfg.getReconstructedGraph(), new FlagInstrumentation(cfg), new LetBindAllocator(cfg.getStructure()), worklist, layout,
+        types, as, objectModel, inliner, unitNumberer, argNames);
+    assert t.functions.isEmpty() && t.flags.size() == 0;
+    return str.splice(t.stream);
+  }
+
   private LocalContents handleIntrinsic(Unit ctxt, final InstructionStream str, TreeMap<Local, Binding> env, final InvokeExpr expr) {
     if(expr.getMethodRef().getName().equals("rand")) {
       assert expr.getMethodRef().getDeclaringClass().getName().equals(RandomRewriter.RANDOM_CLASS);
@@ -813,19 +1011,45 @@ public class Translate {
             expr.getMethodRef().getDeclaringClass().getName().equals(ALIASING_CLASS));
   }
 
+  /*
+    A call with several possible callees is translated into a call to a dispatch function, which takes the same arguments
+    and calls the callee for the runtime tag of the receiver. The tags of the receiver classes are dense within their meta
+    class, so the callees form runs over the sorted tags, and the dispatch is a balanced tree of comparisons with the
+    first tag of each run. Tags below the first run or above the last tag fail (the type analysis rules them out); those
+    of no receiver class between the runs go to a neighbouring run.
+
+    Call sites of the method with the same runs (and receiver representation) share a dispatch function.
+   */
   private String devirtualize(final Unit u, final InstructionStream s, final Map<SootMethod,Set<SootClass>> callees) {
     assert callees.size() > 1;
-    Numberer<Unit> numberer = Scene.v().getUnitNumberer();
-    numberer.add(u);
-    long l = numberer.get(u);
-
     assert layout.haveSameRepr(callees.values().stream().flatMap(Set::stream));
     SootMethod repr = callees.keySet().iterator().next();
     assert callees.keySet().stream().allMatch(m -> m.getParameterCount() == repr.getParameterCount());
     assert callees.keySet().stream().noneMatch(SootMethod::isStatic);
 
+    // the callee of each runtime tag, and the runs of tags with the same callee (by their first tag)
+    Map<Integer, SootMethod> byTag = new HashMap<>();
+    callees.forEach((meth, kls) -> kls.forEach(k -> byTag.put(layout.runtimeTag(k), meth)));
+    List<P2<Integer, String>> runs = new ArrayList<>();
+    byTag.keySet().stream().sorted().forEach(tag -> {
+      String actual = getMangledName(byTag.get(tag));
+      if(runs.isEmpty() || !runs.get(runs.size() - 1)._2().equals(actual)) {
+        runs.add(P.p(tag, actual));
+      }
+    });
+    /* this is a gross hack to get the size of the tuple used to store objects of the static type of the receiver */
+    SootClass klassSz = callees.entrySet().iterator().next().getValue().iterator().next();
+    int projSize = layout.metaStorageSize(klassSz);
+
+    int last = byTag.keySet().stream().max(Integer::compare).get();
+    P4<List<P2<Integer, String>>, Integer, Integer, Integer> key = P.p(runs, last, projSize, repr.getParameterCount());
+    if(dispatchers.containsKey(key)) {
+      return dispatchers.get(key);
+    }
+    String virtName = String.format("reg$vtable_%s_%d", getMangledName(), getUnitId(u));
+    dispatchers.put(key, virtName);
+    callees.keySet().forEach(worklist::add);
 
-    String virtName = String.format("reg$vtable_%d", l);
     List<String> args = new ArrayList<>();
     // generate pass through parameters
     for(int i = 0; i < repr.getParameterCount(); i++) {
@@ -835,37 +1059,34 @@ public class Translate {
     // these are the arguments we will be directly forwarding to the devirtualized targets
     List<ImpExpr> fwdCalls = args.stream().map(Variable::immut).collect(Collectors.toList());
 
-    /* this is a gross hack to get the size of the tuple used to store objects of the static type of the receiver */
-    SootClass klassSz = callees.entrySet().iterator().next().getValue().iterator().next();
-    int projSize = layout.metaStorageSize(klassSz);
     InstructionStream virtBody = InstructionStream.fresh("devirt", body -> {
-      List<P2<List<Integer>, InstructionStream>> actions = new ArrayList<>();
-      /*
-        This is a list of the possible instruction streams that call the target method, and the runtime tags that resolve to that method.
-       */
-      callees.forEach((meth, kls) -> {
-        List<Integer> flgs = kls.stream().map(SootClass::getNumber).collect(Collectors.toList());
-        worklist.add(meth);
-        String actual = getMangledName(meth);
-        InstructionStream br = InstructionStream.fresh("branch", brnch -> brnch.ret(ImpExpr.call(actual, fwdCalls)));
-        actions.add(P.p(flgs, br));
-      });
-
       String runtimeTag = "ty";
       // project the runtime tag out
       body.bindProjection(runtimeTag, 0, projSize, "this");
-      List<ImpExpr> flagArg = List.of(Variable.immut(runtimeTag));
-      // use the same machinery as the recurse-on/return-on flags to generate the if/else flags, but the final else block must be a fail (devirtualization shouldn't fail)
-      gateLoop(body, actions.iterator(), flgs -> {
-        String control = FlagTranslation.allocate(flgs);
-        return ImpExpr.call(control, flagArg);
-      }, InstructionStream::addAssertFalse);
+      ImpExpr tag = Variable.immut(runtimeTag);
+      body.addCond(new Binop(tag, "<", IntLiteral.v(runs.get(0)._1())),
+          InstructionStream.fresh("dispatch-below", InstructionStream::addAssertFalse),
+          InstructionStream.fresh("dispatch-from", from -> from.addCond(new Binop(IntLiteral.v(last), "<", tag),
+              InstructionStream.fresh("dispatch-above", InstructionStream::addAssertFalse),
+              InstructionStream.fresh("dispatch-tree", t -> dispatch(t, runs, 0, runs.size(), tag, fwdCalls)))));
     });
     virtBody.close();
-    s.addSideFunction(virtName, args, virtBody);
+    this.functions.add(P.p(virtName, args, virtBody));
     return virtName;
   }
 
+  private void dispatch(final InstructionStream tgt, final List<P2<Integer, String>> runs, final int from, final int to,
+      final ImpExpr tag, final List<ImpExpr> fwdCalls) {
+    if(to - from == 1) {
+      tgt.ret(ImpExpr.call(runs.get(from)._2(), fwdCalls));
+      return;
+    }
+    int mid = (from + to) / 2;
+    tgt.addCond(new Binop(tag, "<", IntLiteral.v(runs.get(mid)._1())),
+        InstructionStream.fresh("dispatch-lt", l -> dispatch(l, runs, from, mid, tag, fwdCalls)),
+        InstructionStream.fresh("dispatch-ge", l -> dispatch(l, runs, mid, to, tag, fwdCalls)));
+  }
+
   private static abstract class LocalContents implements Cleanup {
     public abstract ImpExpr getValue();
   }
@@ -988,8 +1209,7 @@ public class Translate {
       VariableContents l = this.unwrapPointer(s, env, m, castOp);
       String runtimeTag = m.getField();
       assert op.getType() instanceof RefType;
-      PointsToAnalysis pta = Scene.v().getPointsToAnalysis();
-      Set<Type> opTypes = pta.reachingObjects(castOp).possibleTypes();
+      Set<Type> opTypes = types.reachingObjects(castOp).possibleTypes();
       SootClass repr = getRepresentativeClass(opTypes);
       int sz = layout.metaStorageSize(repr);
       s.bindProjection(runtimeTag, 0, sz, l.getWrappedVariable());
@@ -999,13 +1219,13 @@ public class Translate {
       // XXX(jtoman): this could be better computed with points-to info
       // What runtime tags are valid choices for this static type
       List<Integer> validDownCasts = opTypes.stream().filter(reachTy -> fh.canStoreType(reachTy, ty) && reachTy instanceof RefType).map(RefType.class::cast)
-          .map(RefType::getSootClass).map(SootClass::getNumber).collect(Collectors.toList());
+          .map(RefType::getSootClass).map(layout::runtimeTag).collect(Collectors.toList());
       if(validDownCasts.size() == 0) {
         System.out.println("Apparently impossible cast???");
         s.addAssertFalse();
         return new SimpleContents(edu.kyoto.fos.regnant.ir.expr.NullConstant.v());
       }
-      String test = FlagTranslation.allocate(validDownCasts);
+      String test = flags.allocate(validDownCasts);
       ImpExpr checkCall = ImpExpr.call(test, List.of(Variable.immut(runtimeTag)));
       s.addCond(checkCall, InstructionStream.fresh("valid-cast", InstructionStream::close), InstructionStream.fresh("invalid-cast", InstructionStream::addAssertFalse));
       return l;
@@ -1014,16 +1234,15 @@ public class Translate {
       InstanceOfExpr instExpr = (InstanceOfExpr) v;
       assert instExpr.getOp() instanceof Local;
       Local check = (Local) instExpr.getOp();
-      PointsToAnalysis pta = Scene.v().getPointsToAnalysis();
       Type checkType = instExpr.getCheckType();
       FastHierarchy fh = Scene.v().getOrMakeFastHierarchy();
-      Set<Type> opTypes = pta.reachingObjects(check).possibleTypes();
+      Set<Type> opTypes = types.reachingObjects(check).possibleTypes();
       // as above, what are the possible runtime tags that are instances of the interrogated type
       List<Integer> collect = opTypes.stream()
           .filter(ty -> fh.canStoreType(ty, checkType))
           .filter(RefType.class::isInstance)
           .map(r -> ((RefType) r).getSootClass())
-          .map(SootClass::getNumber)
+          .map(layout::runtimeTag)
           .distinct()
           .collect(Collectors.toList());
       VariableContents c = this.unwrapPointer(s, env, m, check);
@@ -1038,7 +1257,7 @@ public class Translate {
         String runtimeField = m.getField();
         l.bindProjection(runtimeField, 0, sz, c.getWrappedVariable());
         // generate a check that queries if the runtime tag is one of the possible tags
-        String isSubPred = FlagTranslation.allocate(collect, true);
+        String isSubPred = flags.allocate(collect, true);
         ImpExpr checkCall = ImpExpr.call(isSubPred, Variable.immut(runtimeField));
         l.addWrite(tmp, checkCall);
       });
@@ -1106,16 +1325,19 @@ public class Translate {
     }
   }
 
-  private static class CtxtVarManager implements VarManager {
+  private long getUnitId(final Unit u) {
+    unitNumberer.add(u);
+    return unitNumberer.get(u);
+  }
+
+  private class CtxtVarManager implements VarManager {
     private final String base;
     private final String field;
 
     private final long ctxt;
 
     protected CtxtVarManager(Unit u, String base, String field) {
-      Numberer<Unit> numberer = Scene.v().getUnitNumberer();
-      numberer.add(u);
-      ctxt = numberer.get(u);
+      ctxt = getUnitId(u);
       this.base = base;
       this.field = field;
     }
@@ -1144,19 +1366,26 @@ public class Translate {
     }
   }
 
-  private static class BindCall extends CtxtVarManager {
+  private class BindCall extends CtxtVarManager {
     public BindCall(final Unit ctxt) {
       super(ctxt, "call", null);
     }
   }
 
-  private static class LocalWrite extends CtxtVarManager {
+  private class LocalWrite extends CtxtVarManager {
     public LocalWrite(final Unit unit) {
       super(unit, "base", "field");
     }
   }
 
+  private String getThisName() {
+    return inlinedArgs == null ? THIS_PARAM : inlinedArgs.get(0);
+  }
+
   private String getParamName(final int paramNumber) {
+    if(inlinedArgs != null) {
+      return inlinedArgs.get(b.getMethod().isStatic() ? paramNumber : paramNumber + 1);
+    }
     return String.format("regnant$in_%s", b.getParameterLocal(paramNumber).getName());
   }
 
@@ -1215,7 +1444,7 @@ public class Translate {
   }
 
   private int getCoordId(Coord c) {
-    return coordAssignment.computeIfAbsent(c, _c -> coordCounter++);
+    return flg.getCoordId(c);
   }
 
   private static class FieldOpWrite implements VarManager {